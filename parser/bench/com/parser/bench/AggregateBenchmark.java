@@ -0,0 +1,87 @@
+package com.parser.bench;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+
+import com.parser.CompiledExpression;
+import com.parser.ExpressionCompiler;
+
+/**
+ * Compares the evaluation of long sums of variables, as written, from left to
+ * right, then flattened into a single compensated {@code sum}. Besides the
+ * time per evaluation, the error of each form is measured in units in the last
+ * place against the exact sum, computed with {@link BigDecimal}. Terms of
+ * mixed signs and magnitudes make the cancellations that hurt naive summation.
+ * <br/>
+ * Usage: {@code AggregateBenchmark [rows]}.
+ */
+public class AggregateBenchmark {
+
+	private static final int[] TERMS = { 8, 32, 128 };
+
+	public static void main(String[] args) {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+		SplittableRandom random = new SplittableRandom(42);
+		ExpressionCompiler plain = new ExpressionCompiler(false);
+		plain.setPromotionThreshold(0);
+		plain.setFlatteningChains(false);
+		ExpressionCompiler flattening = new ExpressionCompiler(false);
+		flattening.setPromotionThreshold(0);
+		double[] results = new double[rows];
+		double sink = 0;
+		for (int terms : TERMS) {
+			String formula = formula(terms);
+			CompiledExpression written = plain.compile(formula), flattened = flattening.compile(formula);
+			double[][] frames = new double[rows][terms];
+			for (double[] frame : frames) {
+				for (int i = 0; i < terms; i++) {
+					frame[i] = random.nextDouble(-1, 1) * Math.scalb(1.0, random.nextInt(-20, 20));
+				}
+			}
+			double[] errors = { 0, 0, 0, 0 };
+			for (double[] frame : frames) {
+				BigDecimal exact = BigDecimal.ZERO;
+				for (double value : frame) {
+					exact = exact.add(new BigDecimal(value));
+				}
+				error(exact, written.eval(frame), errors, 0);
+				error(exact, flattened.eval(frame), errors, 2);
+			}
+			for (int round = 0; round < 5; round++) {
+				double writtenNanos = time(written, frames, results);
+				double flattenedNanos = time(flattened, frames, results);
+				sink += results[rows - 1];
+				System.out.printf("%4d terms round %d: %6.1f -> %6.1f ns/eval%n", terms, round, writtenNanos,
+						flattenedNanos);
+			}
+			System.out.printf("%4d terms ulp error: mean %.3f max %.1f -> mean %.3f max %.1f%n", terms,
+					errors[0] / rows, errors[1], errors[2] / rows, errors[3]);
+		}
+		System.out.println(sink == 0 ? "" : "(checksum " + sink + ")");
+	}
+
+	/**
+	 * Builds the sum {@code x1 + x2 + ...} of the specified number of variables,
+	 * whose names can't hold {@code 0}, written {@code _} instead.
+	 */
+	private static String formula(int terms) {
+		StringBuilder sb = new StringBuilder("x1");
+		for (int i = 2; i <= terms; i++) {
+			sb.append(" + x").append(String.valueOf(i).replace('0', '_'));
+		}
+		return sb.toString();
+	}
+
+	private static void error(BigDecimal exact, double value, double[] errors, int at) {
+		double rounded = exact.doubleValue();
+		double ulps = Math.abs(exact.subtract(new BigDecimal(value)).doubleValue()) / Math.ulp(rounded);
+		errors[at] += ulps;
+		errors[at + 1] = Math.max(errors[at + 1], ulps);
+	}
+
+	private static double time(CompiledExpression expression, double[][] frames, double[] results) {
+		long start = System.nanoTime();
+		expression.evalBatch(frames, results, frames.length);
+		return (double) (System.nanoTime() - start) / frames.length;
+	}
+}
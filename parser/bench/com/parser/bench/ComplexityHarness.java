@@ -0,0 +1,183 @@
+package com.parser.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.parser.CompiledExpression;
+import com.parser.ExpressionCompiler;
+import com.parser.FrameEvaluator;
+import com.parser.FunctionExpression;
+import com.parser.bench.ExpressionGenerator.Shape;
+
+/**
+ * Complexity regression check. For each shape of {@link ExpressionGenerator},
+ * the time to compile then to evaluate an expression is measured as its size
+ * doubles, and the exponent {@code b} of {@code time = a * size ^ b} is fitted
+ * by least squares on the logarithms of the 4 largest sizes, where fixed
+ * costs like JIT warm up and cache misses no longer dominate. The check fails, with exit status 1, if
+ * an exponent exceeds the tolerance: {@code n log n} growth fits an exponent
+ * around {@code 1.1} over the default sizes.
+ * <br/>
+ * Evaluation is checked on the postfix form. Evaluation of the tree is only
+ * reported: on large trees, it is bound by the latency of memory loads, one
+ * per node, rather than by the number of operations.
+ * <br/>
+ * Usage: {@code ComplexityHarness [--legacy] [--max size] [--tolerance
+ * exponent] [--seed seed]}. With {@code --legacy}, {@link FunctionExpression}
+ * is checked too, on sizes from 32 to 256.
+ * <br/>
+ * Measures run on the main thread, with a stack of default size: compiling
+ * and evaluating the shapes, whose nesting stays within
+ * {@link com.parser.ResourceLimits#DEFAULT_MAX_DEPTH}, must not overflow it.
+ */
+public class ComplexityHarness {
+
+	private static final int MIN_SIZE = 1024;
+	private static final int FITTED_SIZES = 4;
+	/** Sizes of the legacy check, whose rewriting of the text is too slow for large expressions. */
+	private static final int LEGACY_MIN_SIZE = 32, LEGACY_MAX_SIZE = 256;
+	/** Time spent running a task on small expressions before measuring it. */
+	private static final long WARM_UP_NANOS = 500_000_000;
+	/** Minimal total time of the repetitions of a measure. */
+	private static final long MIN_NANOS = 50_000_000;
+	private static final int MIN_REPETITIONS = 5;
+
+	private interface Task {
+		double run(String expression);
+	}
+
+	public static void main(String[] args) {
+		boolean legacy = false;
+		int max = 65536;
+		double tolerance = 1.3;
+		long seed = 42;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--legacy":
+				legacy = true;
+				break;
+			case "--max":
+				max = Integer.parseInt(args[++i]);
+				break;
+			case "--tolerance":
+				tolerance = Double.parseDouble(args[++i]);
+				break;
+			case "--seed":
+				seed = Long.parseLong(args[++i]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (check(legacy, max, tolerance, seed)) {
+			System.out.println("FAILED: growth above n^" + tolerance);
+			System.exit(1);
+		}
+		System.out.println("OK: growth within n^" + tolerance);
+	}
+
+	private static boolean check(boolean legacy, int max, double tolerance, long seed) {
+		ExpressionCompiler compiler = new ExpressionCompiler();
+		compiler.setPromotionThreshold(0);
+		Task compile = expression -> compiler.compile(expression).getVariableNames().size();
+		Task eval = evaluation(compiler, false);
+		Task postfix = evaluation(compiler, true);
+		Task legacyEval = ComplexityHarness::legacy;
+		boolean failed = false;
+		System.out.printf("%-15s %-8s %s%n", "shape", "task", "ns per size, then fitted exponent");
+		for (Shape shape : Shape.values()) {
+			failed |= measure(shape, "compile", compile, MIN_SIZE, max, tolerance, seed, true);
+			failed |= measure(shape, "postfix", postfix, MIN_SIZE, max, tolerance, seed, true);
+			measure(shape, "tree", eval, MIN_SIZE, max, tolerance, seed, false);
+			if (legacy) {
+				failed |= measure(shape, "legacy", legacyEval, LEGACY_MIN_SIZE, LEGACY_MAX_SIZE, tolerance, seed, true);
+			}
+		}
+		return failed;
+	}
+
+	/** Measures evaluations only, the expression being compiled once per size. */
+	private static Task evaluation(ExpressionCompiler compiler, boolean postfix) {
+		String[] last = new String[1];
+		FrameEvaluator[] evaluator = new FrameEvaluator[1];
+		double[][] frame = new double[1][];
+		return expression -> {
+			if (!expression.equals(last[0])) {
+				last[0] = expression;
+				CompiledExpression compiled = compiler.compile(expression);
+				evaluator[0] = postfix ? compiled.toPostfix()::eval : compiled;
+				frame[0] = values(compiled.getVariableNames().size());
+			}
+			return evaluator[0].eval(frame[0]);
+		};
+	}
+
+	private static double legacy(String expression) {
+		FunctionExpression legacy = new FunctionExpression(expression);
+		CompiledExpression compiled = new ExpressionCompiler().compile(expression);
+		double[] values = values(compiled.getVariableNames().size());
+		for (int i = 0; i < values.length; i++) {
+			legacy.withVariable(compiled.getVariableNames().get(i), values[i]);
+		}
+		return legacy.eval();
+	}
+
+	private static double[] values(int count) {
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = 1.5 + i % 7;
+		}
+		return values;
+	}
+
+	private static boolean measure(Shape shape, String name, Task task, int min, int max, double tolerance,
+			long seed, boolean checked) {
+		String small = new ExpressionGenerator(seed).generate(shape, min);
+		for (long start = System.nanoTime(); System.nanoTime() - start < WARM_UP_NANOS;) {
+			task.run(small);
+		}
+		List<double[]> points = new ArrayList<>();
+		StringBuilder line = new StringBuilder(String.format("%-15s %-8s", shape, name));
+		for (int size = min; size <= max; size *= 2) {
+			String expression = new ExpressionGenerator(seed).generate(shape, size);
+			double nanos = time(task, expression);
+			points.add(new double[] { Math.log(size), Math.log(nanos) });
+			line.append(String.format(" %d:%.0f", size, nanos / size));
+		}
+		double exponent = slope(points.subList(Math.max(0, points.size() - FITTED_SIZES), points.size()));
+		boolean failed = checked && exponent > tolerance;
+		System.out.println(line.append(String.format(" -> %.2f%s", exponent,
+				failed ? " FAILED" : checked ? "" : " (not checked)")));
+		return failed;
+	}
+
+	/** Gets the least time of repeated runs, after a warm up run. */
+	private static double time(Task task, String expression) {
+		double sink = task.run(expression);
+		long best = Long.MAX_VALUE, total = 0;
+		for (int i = 0; i < MIN_REPETITIONS || total < MIN_NANOS; i++) {
+			long start = System.nanoTime();
+			sink += task.run(expression);
+			long elapsed = System.nanoTime() - start;
+			best = Math.min(best, elapsed);
+			total += elapsed;
+		}
+		if (sink == Double.MIN_VALUE) {
+			System.out.print("");
+		}
+		return best;
+	}
+
+	/** Fits {@code y = a + b * x} by least squares and gets {@code b}. */
+	private static double slope(List<double[]> points) {
+		double sx = 0, sy = 0, sxx = 0, sxy = 0;
+		int n = points.size();
+		for (double[] p : points) {
+			sx += p[0];
+			sy += p[1];
+			sxx += p[0] * p[0];
+			sxy += p[0] * p[1];
+		}
+		return (n * sxy - sx * sy) / (n * sxx - sx * sx);
+	}
+}
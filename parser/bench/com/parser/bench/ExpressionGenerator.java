@@ -0,0 +1,211 @@
+package com.parser.bench;
+
+import java.util.SplittableRandom;
+
+import com.parser.ResourceLimits;
+
+/**
+ * Reproducible generator of maths expressions of a given size, random or
+ * shaped to stress a parser: long operator chains, deep nesting, many
+ * variables or many function calls. The same seed always gives the same
+ * expressions.
+ * <br/>
+ * Nested shapes are sums of blocks nested {@link #MAX_NESTING} levels deep at
+ * most, so that they stay within the default maximal depth of the compiler
+ * whatever their size.
+ * <br/>
+ * Variables are named {@code x1}, {@code x2}, ... skipping the names holding a
+ * {@code 0}, which aren't usable as variable names. Only the functions known by
+ * {@link com.parser.MathFunction} are called.
+ */
+public class ExpressionGenerator {
+
+	/** Shapes of generated expressions. */
+	public enum Shape {
+		/** Random tree of operators, with random parentheses. */
+		RANDOM,
+		/** Flat chain of operators alternating low and high precedences. */
+		OPERATOR_CHAIN,
+		/** Flat chain of additions and subtractions, of a single precedence. */
+		SAME_PRECEDENCE_CHAIN,
+		/** Parentheses nested on the left, like {@code ((a + b) * c) - d}. */
+		DEEP_NESTING,
+		/** Parentheses nested on the right, like {@code a + (b * (c - d))}. */
+		RIGHT_NESTING,
+		/** Chain of operators over as many distinct variables. */
+		MANY_VARIABLES,
+		/** Sum of function calls, some of them nested. */
+		MANY_FUNCTIONS
+	}
+
+	/** Maximal nesting depth of the blocks of nested shapes. */
+	public static final int MAX_NESTING = ResourceLimits.DEFAULT_MAX_DEPTH / 2;
+
+	private static final String[] OPERATORS = { "+", "-", "*", "/", "^", "%" };
+	/** Operators alternating precedences, so that no run of equal precedence is long. */
+	private static final String[] CHAIN_OPERATORS = { "+", "*", "-", "^", "/", "%" };
+	private static final String[] FUNCTIONS = { "sin", "cos", "tan", "ln", "sqrt" };
+
+	private final SplittableRandom random;
+	private final int variableCount;
+
+	/**
+	 * Creates a generator.
+	 *
+	 * @param seed          the seed of the random generator.
+	 * @param variableCount the number of distinct variables used by the shapes
+	 *                      other than {@link Shape#MANY_VARIABLES}.
+	 */
+	public ExpressionGenerator(long seed, int variableCount) {
+		this.random = new SplittableRandom(seed);
+		this.variableCount = variableCount;
+	}
+
+	/** Alias of {@link #ExpressionGenerator(long, int)} using 4 variables. */
+	public ExpressionGenerator(long seed) {
+		this(seed, 4);
+	}
+
+	/**
+	 * Generates an expression.
+	 *
+	 * @param shape the shape of the expression.
+	 * @param size  the number of operators of the expression.
+	 * @return the expression.
+	 */
+	public String generate(Shape shape, int size) {
+		StringBuilder sb = new StringBuilder(size * 8);
+		switch (shape) {
+		case RANDOM:
+			random(sb, size);
+			break;
+		case OPERATOR_CHAIN:
+			operand(sb);
+			for (int i = 0; i < size; i++) {
+				sb.append(' ').append(CHAIN_OPERATORS[i % CHAIN_OPERATORS.length]).append(' ');
+				operand(sb);
+			}
+			break;
+		case SAME_PRECEDENCE_CHAIN:
+			operand(sb);
+			for (int i = 0; i < size; i++) {
+				sb.append(random.nextBoolean() ? " + " : " - ");
+				operand(sb);
+			}
+			break;
+		case DEEP_NESTING:
+		case RIGHT_NESTING:
+			for (int count = 0; count < size;) {
+				if (count > 0) {
+					sb.append(" + ");
+					count++;
+				}
+				int depth = Math.min(MAX_NESTING, size - count);
+				nested(sb, depth, shape == Shape.RIGHT_NESTING);
+				count += depth;
+			}
+			break;
+		case MANY_VARIABLES:
+			sb.append(variableName(1));
+			for (int i = 1; i <= size; i++) {
+				sb.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)]).append(' ').append(variableName(i + 1));
+			}
+			break;
+		case MANY_FUNCTIONS:
+			call(sb);
+			for (int i = 0; i < size; i++) {
+				sb.append(" + ");
+				call(sb);
+			}
+			break;
+		}
+		return sb.toString();
+	}
+
+	/** Appends parentheses nested {@code depth} levels deep, on the left or on the right. */
+	private void nested(StringBuilder sb, int depth, boolean right) {
+		if (right) {
+			for (int i = 0; i < depth; i++) {
+				operand(sb);
+				sb.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)]).append(" (");
+			}
+			variable(sb);
+			for (int i = 0; i < depth; i++) {
+				sb.append(')');
+			}
+			return;
+		}
+		for (int i = 0; i < depth; i++) {
+			sb.append('(');
+		}
+		variable(sb);
+		for (int i = 0; i < depth; i++) {
+			sb.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)]).append(' ');
+			operand(sb);
+			sb.append(')');
+		}
+	}
+
+	/** Appends a random tree of {@code size} operators. */
+	private void random(StringBuilder sb, int size) {
+		if (size == 0) {
+			operand(sb);
+			return;
+		}
+		boolean parenthesized = random.nextInt(4) == 0;
+		if (parenthesized) {
+			sb.append('(');
+		}
+		int left = random.nextInt(size);
+		random(sb, left);
+		sb.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)]).append(' ');
+		random(sb, size - 1 - left);
+		if (parenthesized) {
+			sb.append(')');
+		}
+	}
+
+	private void operand(StringBuilder sb) {
+		switch (random.nextInt(3)) {
+		case 0:
+			sb.append(1 + random.nextInt(99));
+			break;
+		case 1:
+			sb.append(random.nextInt(1000) / 10.0);
+			break;
+		default:
+			variable(sb);
+			break;
+		}
+	}
+
+	private void variable(StringBuilder sb) {
+		sb.append(variableName(1 + random.nextInt(variableCount)));
+	}
+
+	/**
+	 * Gets the name of the variable of the specified index, written with digits
+	 * {@code 1} to {@code 9} in bijective base 9.
+	 *
+	 * @param index the index of the variable, from {@code 1}.
+	 * @return the name of the variable.
+	 */
+	public static String variableName(int index) {
+		StringBuilder digits = new StringBuilder();
+		for (int n = index; n > 0; n = (n - 1) / 9) {
+			digits.append((char) ('1' + (n - 1) % 9));
+		}
+		return "x" + digits.reverse();
+	}
+
+	/** Appends a call, nesting another call once in four. */
+	private void call(StringBuilder sb) {
+		sb.append(FUNCTIONS[random.nextInt(FUNCTIONS.length)]).append('(');
+		if (random.nextInt(4) == 0) {
+			call(sb);
+		} else {
+			variable(sb);
+		}
+		sb.append(')');
+	}
+}
@@ -0,0 +1,69 @@
+package com.parser.bench;
+
+import java.util.SplittableRandom;
+
+import com.parser.CompiledExpression;
+import com.parser.ExpressionCompiler;
+
+/**
+ * Compares the evaluation of function calls with and without memoization, over
+ * columns of arguments taking few distinct values, then as many distinct
+ * values as the cache holds entries many times.
+ * <br/>
+ * Usage: {@code MemoizationBenchmark [rows [distinct values]]}.
+ */
+public class MemoizationBenchmark {
+
+	private static final String[] FORMULAS = { "sin(x) * cos(x)", "ln(x) + 1", "tan(x) / 2" };
+	private static final int FRAMES = 4096;
+
+	public static void main(String[] args) {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		int distinct = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		SplittableRandom random = new SplittableRandom(42);
+		double[] values = new double[distinct];
+		for (int i = 0; i < distinct; i++) {
+			values[i] = 1 + random.nextInt(360);
+		}
+		// Frames are shared between rows, to measure calls rather than memory loads
+		double[][] lowFrames = new double[distinct][], highFrames = new double[FRAMES][];
+		for (int i = 0; i < distinct; i++) {
+			lowFrames[i] = new double[] { values[i] };
+		}
+		for (int i = 0; i < FRAMES; i++) {
+			highFrames[i] = new double[] { 1 + random.nextDouble() * 359 };
+		}
+		double[][] low = new double[rows][], high = new double[rows][];
+		for (int i = 0; i < rows; i++) {
+			low[i] = lowFrames[random.nextInt(distinct)];
+			high[i] = highFrames[random.nextInt(FRAMES)];
+		}
+
+		ExpressionCompiler plain = new ExpressionCompiler();
+		plain.setPromotionThreshold(0);
+		ExpressionCompiler memoizing = new ExpressionCompiler();
+		memoizing.setPromotionThreshold(0);
+		memoizing.setMemoizing(true);
+		double[] results = new double[rows];
+		double sink = 0;
+		for (String formula : FORMULAS) {
+			for (int round = 0; round < 5; round++) {
+				// Fresh expressions, so that each cache starts enabled
+				double lowPlain = time(plain.compile(formula), low, results);
+				double lowMemo = time(memoizing.compile(formula), low, results);
+				double highPlain = time(plain.compile(formula), high, results);
+				double highMemo = time(memoizing.compile(formula), high, results);
+				sink += results[rows - 1];
+				System.out.printf("%-16s round %d: %d distinct %5.1f -> %5.1f ns/eval, all distinct %5.1f -> %5.1f ns/eval%n",
+						formula, round, distinct, lowPlain, lowMemo, highPlain, highMemo);
+			}
+		}
+		System.out.println(sink == 0 ? "" : "(checksum " + sink + ")");
+	}
+
+	private static double time(CompiledExpression expression, double[][] frames, double[] results) {
+		long start = System.nanoTime();
+		expression.evalBatch(frames, results, frames.length);
+		return (double) (System.nanoTime() - start) / frames.length;
+	}
+}
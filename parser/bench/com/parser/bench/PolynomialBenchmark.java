@@ -0,0 +1,118 @@
+package com.parser.bench;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.SplittableRandom;
+
+import com.parser.CompiledExpression;
+import com.parser.ExpressionCompiler;
+
+/**
+ * Compares the evaluation of polynomials and small powers written with
+ * {@code ^}, as written then rewritten in Horner form. Besides the time per
+ * evaluation, the error of each form is measured in units in the last place
+ * against the exact value, computed with {@link BigDecimal}.
+ * <br/>
+ * Usage: {@code PolynomialBenchmark [rows]}.
+ */
+public class PolynomialBenchmark {
+
+	/** Formulas in {@code x}, whose coefficients {@code a} to {@code i} are variables too. */
+	private static final String[] FORMULAS = { "a*x^3 + b*x^2 + c*x + d", "1.5*x^3 - 0.25*x^2 + 3.125*x - 7",
+			"a*x^5 + b*x^4 + c*x^3 + d*x^2 + e1*x + f", "a*x^8 + b*x^7 + c*x^6 + d*x^5 + e1*x^4 + f*x^3 + g*x^2 + h*x + i",
+			"x^2 + x^3 / 6", "sqrt(x^2 + a^2)" };
+	private static final String[] COEFFICIENTS = { "a", "b", "c", "d", "e1", "f", "g", "h", "i" };
+
+	public static void main(String[] args) {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+		SplittableRandom random = new SplittableRandom(42);
+		ExpressionCompiler plain = new ExpressionCompiler(false);
+		plain.setPromotionThreshold(0);
+		plain.setRewritingPowers(false);
+		ExpressionCompiler rewriting = new ExpressionCompiler(false);
+		rewriting.setPromotionThreshold(0);
+		double[] results = new double[rows];
+		double sink = 0;
+		for (int f = 0; f < FORMULAS.length; f++) {
+			String formula = FORMULAS[f];
+			CompiledExpression written = plain.compile(formula), horner = rewriting.compile(formula);
+			double[][] frames = frames(written, rows, random);
+			double[] errors = { 0, 0, 0, 0 };
+			for (double[] frame : frames) {
+				BigDecimal exact = exact(f, written, frame);
+				if (exact != null) {
+					error(exact, written.eval(frame), errors, 0);
+					error(exact, horner.eval(frame), errors, 2);
+				}
+			}
+			for (int round = 0; round < 5; round++) {
+				double writtenNanos = time(written, frames, results);
+				double hornerNanos = time(horner, frames, results);
+				sink += results[rows - 1];
+				System.out.printf("%-40.40s round %d: %5.1f -> %5.1f ns/eval%n", formula, round, writtenNanos,
+						hornerNanos);
+			}
+			System.out.printf("%-40.40s ulp error: mean %.3f max %.0f -> mean %.3f max %.0f%n", formula,
+					errors[0] / rows, errors[1], errors[2] / rows, errors[3]);
+		}
+		System.out.println(sink == 0 ? "" : "(checksum " + sink + ")");
+	}
+
+	/** Creates frames holding {@code x} in {@code [-2, 2]} and coefficients in {@code [-10, 10]}. */
+	private static double[][] frames(CompiledExpression expression, int rows, SplittableRandom random) {
+		double[][] frames = new double[rows][expression.getVariableNames().size()];
+		for (double[] frame : frames) {
+			for (int i = 0; i < frame.length; i++) {
+				frame[i] = expression.getVariableNames().get(i).equals("x") ? random.nextDouble(-2, 2)
+						: random.nextDouble(-10, 10);
+			}
+		}
+		return frames;
+	}
+
+	/**
+	 * Computes the exact value of the formula of the specified index,
+	 * {@code null} if it isn't a polynomial.
+	 */
+	private static BigDecimal exact(int formula, CompiledExpression expression, double[] frame) {
+		BigDecimal x = new BigDecimal(frame[expression.slotOf("x")]);
+		switch (formula) {
+		case 0:
+			return polynomial(expression, frame, x, 3);
+		case 1:
+			return new BigDecimal("1.5").multiply(x.pow(3)).subtract(new BigDecimal("0.25").multiply(x.pow(2)))
+					.add(new BigDecimal("3.125").multiply(x)).subtract(BigDecimal.valueOf(7));
+		case 2:
+			return polynomial(expression, frame, x, 5);
+		case 3:
+			return polynomial(expression, frame, x, 8);
+		case 4:
+			return x.pow(2).add(x.pow(3).divide(BigDecimal.valueOf(6), MathContext.DECIMAL128));
+		default:
+			return null;
+		}
+	}
+
+	/** Computes a polynomial whose coefficients, from the highest degree, are named by {@link #COEFFICIENTS}. */
+	private static BigDecimal polynomial(CompiledExpression expression, double[] frame, BigDecimal x, int degree) {
+		BigDecimal sum = BigDecimal.ZERO;
+		for (int i = 0; i <= degree; i++) {
+			BigDecimal coefficient = new BigDecimal(frame[expression.slotOf(COEFFICIENTS[i])]);
+			sum = sum.add(coefficient.multiply(x.pow(degree - i)));
+		}
+		return sum;
+	}
+
+	private static void error(BigDecimal exact, double value, double[] errors, int at) {
+		double rounded = exact.doubleValue();
+		double ulps = Math.abs(exact.subtract(new BigDecimal(value)).doubleValue()) / Math.ulp(rounded);
+		errors[at] += ulps;
+		errors[at + 1] = Math.max(errors[at + 1], ulps);
+	}
+
+	private static double time(CompiledExpression expression, double[][] frames, double[] results) {
+		long start = System.nanoTime();
+		expression.evalBatch(frames, results, frames.length);
+		return (double) (System.nanoTime() - start) / frames.length;
+	}
+}
@@ -0,0 +1,110 @@
+package com.parser.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import com.parser.CompiledExpression;
+import com.parser.ExpressionCompiler;
+import com.parser.PostfixProgram;
+
+/**
+ * Compares the tree form and the postfix form of compiled expressions: heap
+ * retained by many resident formulas, then evaluation time.
+ * <br/>
+ * Usage: {@code PostfixBenchmark [formulas [operators per formula]]}.
+ */
+public class PostfixBenchmark {
+
+	private static final String[] FUNCTIONS = { "sin", "cos", "ln", "sqrt" };
+	private static final String[] OPERATORS = { "+", "-", "*", "/", "^", "%" };
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+		SplittableRandom random = new SplittableRandom(42);
+		String[] formulas = new String[count];
+		for (int i = 0; i < count; i++) {
+			formulas[i] = formula(random, size);
+		}
+		ExpressionCompiler compiler = new ExpressionCompiler(false);
+
+		long before = usedMemory();
+		List<CompiledExpression> trees = new ArrayList<>(count);
+		for (String formula : formulas) {
+			trees.add(compiler.compile(formula));
+		}
+		long treeBytes = usedMemory() - before;
+
+		before = usedMemory();
+		List<PostfixProgram> programs = new ArrayList<>(count);
+		long words = 0;
+		for (CompiledExpression tree : trees) {
+			PostfixProgram program = tree.toPostfix();
+			words += program.getCodeLength();
+			programs.add(program);
+		}
+		long postfixBytes = usedMemory() - before;
+		// Operand stacks are allocated at first evaluation
+		double[] frame = { 1.5, 2.5, 3.5, 4.5 };
+		double sink = 0;
+		for (PostfixProgram program : programs) {
+			sink += program.eval(frame);
+		}
+		long evaluatedBytes = usedMemory() - before;
+
+		System.out.printf("%d formulas, %.1f nodes per formula%n", count, (double) words / count);
+		System.out.printf("tree form:    %8.1f bytes per formula, %5.1f bytes per node%n", (double) treeBytes / count,
+				(double) treeBytes / words);
+		System.out.printf("postfix form: %8.1f bytes per formula, %5.1f bytes per node%n",
+				(double) postfixBytes / count, (double) postfixBytes / words);
+		System.out.printf("  evaluated:  %8.1f bytes per formula, %5.1f bytes per node%n",
+				(double) evaluatedBytes / count, (double) evaluatedBytes / words);
+
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			for (CompiledExpression tree : trees) {
+				sink += tree.eval(frame);
+			}
+			long treeTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (PostfixProgram program : programs) {
+				sink += program.eval(frame);
+			}
+			long postfixTime = System.nanoTime() - start;
+			System.out.printf("round %d: tree %.1f ns/eval, postfix %.1f ns/eval%n", round, (double) treeTime / count,
+					(double) postfixTime / count);
+		}
+		System.out.println(sink == 0 ? "" : "(checksum " + sink + ")");
+	}
+
+	private static String formula(SplittableRandom random, int operators) {
+		StringBuilder sb = new StringBuilder(operand(random));
+		for (int i = 0; i < operators; i++) {
+			sb.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)]).append(' ');
+			sb.append(operand(random));
+		}
+		return sb.toString();
+	}
+
+	private static String operand(SplittableRandom random) {
+		switch (random.nextInt(4)) {
+		case 0:
+			return Integer.toString(random.nextInt(100));
+		case 1:
+			return Double.toString(random.nextInt(1000) / 10.0);
+		case 2:
+			return "x" + (1 + random.nextInt(4));
+		default:
+			return FUNCTIONS[random.nextInt(FUNCTIONS.length)] + "(x" + (1 + random.nextInt(4)) + ")";
+		}
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
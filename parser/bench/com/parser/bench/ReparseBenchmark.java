@@ -0,0 +1,62 @@
+package com.parser.bench;
+
+import com.parser.ExpressionCompiler;
+import com.parser.ParseResult;
+
+/**
+ * Compares the time to parse an edited formula incrementally, with
+ * {@link ExpressionCompiler#reparse(ParseResult, int, int, String)}, and from
+ * scratch, with {@link ExpressionCompiler#parse(String)}. The edit replaces a
+ * digit in the middle of a sum of nested terms, as a keystroke in an editor.
+ * <br/>
+ * Usage: {@code ReparseBenchmark [terms...]}.
+ */
+public class ReparseBenchmark {
+
+	private static final int ROUNDS = 50_000;
+
+	public static void main(String[] args) {
+		int[] sizes = { 8, 25, 100, 400 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+		ExpressionCompiler compiler = new ExpressionCompiler(false);
+		for (int terms : sizes) {
+			String formula = formula(terms);
+			int at = formula.indexOf("- " + terms / 2 + ".5") + 2;
+			ParseResult previous = compiler.parse(formula);
+			long incremental = Long.MAX_VALUE, full = Long.MAX_VALUE;
+			int reused = 0;
+			for (int round = 0; round < ROUNDS; round++) {
+				String digit = round % 2 == 0 ? "3" : String.valueOf(terms / 2).substring(0, 1);
+				long start = System.nanoTime();
+				ParseResult edited = compiler.reparse(previous, at, 1, digit);
+				long middle = System.nanoTime();
+				compiler.parse(edited.getExpression());
+				long end = System.nanoTime();
+				incremental = Math.min(incremental, middle - start);
+				full = Math.min(full, end - middle);
+				reused = edited.getReusedGroups();
+				previous = edited;
+			}
+			System.out.printf("%6d chars: reparse %8.2f us (%d blocks reused), parse %8.2f us%n", formula.length(),
+					incremental / 1000.0, reused, full / 1000.0);
+		}
+	}
+
+	/** Builds a sum of terms like {@code sin(a1 * (x - 0)) * (b + c * (d1 - 0.5))}. */
+	private static String formula(int terms) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < terms; i++) {
+			if (i > 0) {
+				sb.append(" + ");
+			}
+			sb.append("sin(a").append(i % 7 + 1).append(" * (x - ").append(i).append(")) * (b + c * (d")
+					.append(i % 5 + 1).append(" - ").append(i).append(".5))");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,109 @@
+package com.parser;
+
+/**
+ * Call of a {@link MathAggregate} on a flat array of arguments, written by a
+ * call like {@code sum(a, b, c)} or built by the compiler from a long chain
+ * of {@code +} or {@code *}.
+ * <br/>
+ * Sums and averages gather their arguments into an array evaluated by
+ * {@link MathAggregate#eval(double[], int, int)}, like the postfix form and
+ * the generated code do, so that the tiers agree; the other functions
+ * evaluate their arguments one after the other into a single accumulator.
+ */
+final class AggregateNode extends Node {
+
+	private final MathAggregate aggregate;
+	private final Node[] arguments;
+	private final boolean integral;
+
+	AggregateNode(MathAggregate aggregate, Node[] arguments) {
+		this.aggregate = aggregate;
+		this.arguments = arguments;
+		boolean integral = aggregate.preservesIntegers();
+		for (Node argument : arguments) {
+			integral &= argument.isIntegral();
+		}
+		this.integral = integral;
+	}
+
+	MathAggregate aggregate() {
+		return aggregate;
+	}
+
+	@Override
+	double eval(double[] frame) {
+		final Node[] arguments = this.arguments;
+		switch (aggregate) {
+		case SUM:
+		case AVG:
+			// The compensation needs a second accumulator, kept by the aggregate
+			double[] values = new double[arguments.length];
+			for (int i = 0; i < arguments.length; i++) {
+				values[i] = arguments[i].eval(frame);
+			}
+			return aggregate.eval(values, 0, values.length);
+		case PROD:
+			double product = arguments[0].eval(frame);
+			for (int i = 1; i < arguments.length; i++) {
+				product *= arguments[i].eval(frame);
+			}
+			return product;
+		case MIN:
+			double min = arguments[0].eval(frame);
+			for (int i = 1; i < arguments.length; i++) {
+				min = Math.min(min, arguments[i].eval(frame));
+			}
+			return min;
+		case MAX:
+			double max = arguments[0].eval(frame);
+			for (int i = 1; i < arguments.length; i++) {
+				max = Math.max(max, arguments[i].eval(frame));
+			}
+			return max;
+		}
+		throw new ParserException("Evaluation fails.");
+	}
+
+	@Override
+	boolean isIntegral() {
+		return integral;
+	}
+
+	@Override
+	long evalLong(double[] frame) {
+		if (!integral) {
+			return super.evalLong(frame);
+		}
+		long result = arguments[0].evalLong(frame);
+		for (int i = 1; i < arguments.length; i++) {
+			long value = arguments[i].evalLong(frame);
+			switch (aggregate) {
+			case SUM:
+				result = Math.addExact(result, value);
+				break;
+			case PROD:
+				result = Math.multiplyExact(result, value);
+				break;
+			case MIN:
+				result = Math.min(result, value);
+				break;
+			case MAX:
+				result = Math.max(result, value);
+				break;
+			default:
+				return super.evalLong(frame);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	Node[] children() {
+		return arguments;
+	}
+
+	@Override
+	Node withChildren(Node[] children) {
+		return new AggregateNode(aggregate, children.clone());
+	}
+}
@@ -0,0 +1,46 @@
+package com.parser;
+
+/** Application of a {@link MathOperator} to two operands. */
+final class BinaryNode extends Node {
+
+	private final MathOperator operator;
+	private final Node left, right;
+	/** Computed once, the operands being immutable, not to walk the sub tree at each query. */
+	private final boolean integral;
+
+	BinaryNode(MathOperator operator, Node left, Node right) {
+		this.operator = operator;
+		this.left = left;
+		this.right = right;
+		this.integral = operator.preservesIntegers() && left.isIntegral() && right.isIntegral();
+	}
+
+	MathOperator operator() {
+		return operator;
+	}
+
+	@Override
+	double eval(double[] frame) {
+		return operator.eval(left.eval(frame), right.eval(frame));
+	}
+
+	@Override
+	boolean isIntegral() {
+		return integral;
+	}
+
+	@Override
+	long evalLong(double[] frame) {
+		return operator.evalExact(left.evalLong(frame), right.evalLong(frame));
+	}
+
+	@Override
+	Node[] children() {
+		return new Node[] { left, right };
+	}
+
+	@Override
+	Node withChildren(Node[] children) {
+		return new BinaryNode(operator, children[0], children[1]);
+	}
+}
@@ -0,0 +1,144 @@
+package com.parser;
+
+import com.parser.ResourceLimitException.Limit;
+
+/**
+ * Resources consumed by a single call parsing or evaluating an expression,
+ * checked against its {@link ResourceLimits}. Each check is a counter increment
+ * and a comparison; the clock and the interrupted status of the thread are
+ * only read every {@link #CHECK_INTERVAL} tokens, evaluations or rows, and on
+ * each pass of the legacy evaluators, see {@link #pass()}.
+ */
+final class Budget {
+
+	/** Number of tokens, evaluations or rows between two checks of the clock. */
+	static final int CHECK_INTERVAL = 1024;
+
+	private final ResourceLimits limits;
+	private final boolean timed;
+	private final long deadline;
+	private int tokens, depth, nodes;
+	private long steps;
+
+	Budget(ResourceLimits limits) {
+		this.limits = limits;
+		this.timed = limits.getTimeout() != null;
+		this.deadline = timed ? System.nanoTime() + limits.getTimeout().toNanos() : 0;
+	}
+
+	/** Checks the length of an expression. */
+	void length(int length) {
+		if (length > limits.getMaxLength()) {
+			throw new ResourceLimitException(Limit.LENGTH, limits.getMaxLength(),
+					"Expression of " + length + " characters, at most " + limits.getMaxLength() + " allowed.");
+		}
+	}
+
+	/** Counts a token read by the parser. */
+	void token() {
+		if (++tokens > limits.getMaxTokens()) {
+			throw new ResourceLimitException(Limit.TOKENS, limits.getMaxTokens(),
+					"Expression of more than " + limits.getMaxTokens() + " tokens.");
+		}
+		if (tokens % CHECK_INTERVAL == 0) {
+			checkTime();
+		}
+	}
+
+	/** Enters a parenthesis block or a function call. */
+	void enter() {
+		if (++depth > limits.getMaxDepth()) {
+			throw depthExceeded(limits.getMaxDepth());
+		}
+	}
+
+	/** Gets the maximal nesting depth of an expression. */
+	int maxDepth() {
+		return limits.getMaxDepth();
+	}
+
+	/** Creates the exception reporting an expression nested deeper than allowed. */
+	static ResourceLimitException depthExceeded(int maxDepth) {
+		return new ResourceLimitException(Limit.DEPTH, maxDepth,
+				"Expression nested deeper than " + maxDepth + " levels.");
+	}
+
+	/** Leaves a parenthesis block or a function call. */
+	void exit() {
+		depth--;
+	}
+
+	/** Counts a node created by the parser. */
+	void node() {
+		if (++nodes > limits.getMaxNodes()) {
+			throw new ResourceLimitException(Limit.NODES, limits.getMaxNodes(),
+					"Expression of more than " + limits.getMaxNodes() + " nodes.");
+		}
+	}
+
+	/** Counts the tokens and nodes of a block skipped by the parser, which checks its depth. */
+	void skip(int tokens, int nodes) {
+		this.tokens += tokens;
+		if (this.tokens > limits.getMaxTokens() || this.tokens < 0) {
+			throw new ResourceLimitException(Limit.TOKENS, limits.getMaxTokens(),
+					"Expression of more than " + limits.getMaxTokens() + " tokens.");
+		}
+		this.nodes += nodes;
+		if (this.nodes > limits.getMaxNodes() || this.nodes < 0) {
+			throw new ResourceLimitException(Limit.NODES, limits.getMaxNodes(),
+					"Expression of more than " + limits.getMaxNodes() + " nodes.");
+		}
+		checkTime();
+	}
+
+	/**
+	 * Counts a pass of a legacy evaluator over the text of its expression, then
+	 * checks the clock: each pass rewrites the whole text, taking time linear in
+	 * its length, so that a few passes may outlast the deadline.
+	 */
+	void pass() {
+		steps(1);
+		checkTime();
+	}
+
+	/** Counts the specified number of evaluation steps at once, e.g. those of a whole batch. */
+	void steps(long count) {
+		steps += count;
+		if (steps > limits.getMaxSteps() || steps < 0) {
+			throw new ResourceLimitException(Limit.STEPS, limits.getMaxSteps(),
+					"Evaluation of more than " + limits.getMaxSteps() + " steps.");
+		}
+	}
+
+	/** Checks that the deadline isn't passed and that the thread isn't interrupted. */
+	void checkTime() {
+		if (timed && System.nanoTime() - deadline > 0) {
+			throw new ResourceLimitException(Limit.DEADLINE, limits.getTimeout().toNanos(),
+					"Timeout of " + limits.getTimeout().toMillis() + " ms exceeded.");
+		}
+		if (Thread.currentThread().isInterrupted()) {
+			throw new ResourceLimitException(Limit.INTERRUPTED, 0, "Interrupted.");
+		}
+	}
+
+	/**
+	 * Checks the length, the number of tokens and the nesting depth of an
+	 * expression evaluated without parser, scanning it once if needed.
+	 */
+	void checkInput(String expression) {
+		length(expression.length());
+		if (limits.getMaxTokens() == Integer.MAX_VALUE && limits.getMaxDepth() == Integer.MAX_VALUE) {
+			return;
+		}
+		Lexer lexer = new Lexer(expression);
+		for (int kind = lexer.next(); kind != Lexer.END; kind = lexer.next()) {
+			token();
+			if (kind == Lexer.OPEN) {
+				enter();
+			} else if (kind == Lexer.CLOSE) {
+				exit();
+			}
+		}
+		depth = 0;
+	}
+}
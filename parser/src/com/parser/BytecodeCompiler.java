@@ -0,0 +1,412 @@
+package com.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates a JVM class implementing {@link FrameEvaluator} for a tree of
+ * {@link Node}, so that the JIT compiles the expression as straight line code.
+ * <br/>
+ * Arithmetic, powers, polynomials, functions and aggregates are inlined, sums
+ * gathering their arguments into an array for
+ * {@link MathAggregate#eval(double[], int, int)}, and locals are stored in
+ * the frame. The other nodes, like integral sub trees, memoized calls and
+ * window functions, are called back through an array of
+ * {@link FrameEvaluator} held by the generated instance. Classes use the
+ * version 49 format, verified without stack map frames.
+ */
+final class BytecodeCompiler {
+
+	private static final String EVALUATOR = "com/parser/FrameEvaluator";
+	private static final String CALLBACKS = "[L" + EVALUATOR + ";";
+	private static final String PACKAGE = "com/parser/generated/Expression";
+	private static final AtomicLong COUNTER = new AtomicLong();
+
+	// Opcodes
+	private static final int ICONST_0 = 0x03, ICONST_1 = 0x04, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13, LDC2_W = 0x14,
+			ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, DALOAD = 0x31, AALOAD = 0x32, DASTORE = 0x52, DUP = 0x59, DADD = 0x63, DSUB = 0x67, DMUL = 0x6b,
+			DDIV = 0x6f, DREM = 0x73, DNEG = 0x77, DRETURN = 0xaf, RETURN = 0xb1, GETSTATIC = 0xb2, GETFIELD = 0xb4,
+			PUTFIELD = 0xb5, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, INVOKEINTERFACE = 0xb9,
+			NEWARRAY = 0xbc, T_DOUBLE = 7;
+
+	/** Loads each generated class on its own, so that it is unloaded with its expression. */
+	private static final class Loader extends ClassLoader {
+
+		Loader() {
+			super(FrameEvaluator.class.getClassLoader());
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private final Map<String, Integer> poolIndexes = new HashMap<>();
+	private int poolCount = 1;
+	private final ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+	private final DataOutputStream code = new DataOutputStream(codeBytes);
+	private int depth, maxDepth;
+	private final List<FrameEvaluator> callbacks = new ArrayList<>();
+	private final String className;
+
+	private BytecodeCompiler(String className) {
+		this.className = className;
+	}
+
+	/**
+	 * Generates the evaluator of the specified tree.
+	 *
+	 * @param root the root of the tree.
+	 * @return an instance of the generated class.
+	 * @throws IllegalStateException if generation fails, e.g. when the code is
+	 *                               too large for a JVM method.
+	 */
+	static FrameEvaluator compile(Node root) {
+		try {
+			BytecodeCompiler compiler = new BytecodeCompiler(PACKAGE + COUNTER.incrementAndGet());
+			byte[] bytes = compiler.generate(root);
+			Class<?> type = new Loader().define(compiler.className.replace('/', '.'), bytes);
+			FrameEvaluator[] callbacks = compiler.callbacks.toArray(new FrameEvaluator[0]);
+			return (FrameEvaluator) type.getConstructor(FrameEvaluator[].class).newInstance((Object) callbacks);
+		} catch (IOException | ReflectiveOperationException | LinkageError e) {
+			throw new IllegalStateException("Code generation fails.", e);
+		}
+	}
+
+	private byte[] generate(Node root) throws IOException {
+		int thisClass = classRef(className);
+		int superClass = classRef("java/lang/Object");
+		int evaluator = classRef(EVALUATOR);
+		int field = fieldRef(className, "callbacks", CALLBACKS);
+
+		// eval([D)D
+		emit(root);
+		code.write(DRETURN);
+		byte[] evalCode = codeBytes.toByteArray();
+		int evalStack = maxDepth;
+		if (evalCode.length > 65535) {
+			throw new IllegalStateException("Expression too large for generated code.");
+		}
+
+		// <init>([Lcom/parser/FrameEvaluator;)V
+		codeBytes.reset();
+		code.write(ALOAD_0);
+		code.write(INVOKESPECIAL);
+		code.writeShort(methodRef("java/lang/Object", "<init>", "()V"));
+		code.write(ALOAD_0);
+		code.write(ALOAD_1);
+		code.write(PUTFIELD);
+		code.writeShort(field);
+		code.write(RETURN);
+		byte[] initCode = codeBytes.toByteArray();
+
+		int codeName = utf8("Code");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(49);
+		// Pool entries needed by the members
+		int fieldName = utf8("callbacks"), fieldType = utf8(CALLBACKS);
+		int initName = utf8("<init>"), initType = utf8("(" + CALLBACKS + ")V");
+		int evalName = utf8("eval"), evalType = utf8("([D)D");
+		out.writeShort(poolCount);
+		out.write(poolBytes.toByteArray());
+		out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(1);
+		out.writeShort(evaluator);
+		out.writeShort(1);
+		out.writeShort(0x0002 | 0x0010); // private final
+		out.writeShort(fieldName);
+		out.writeShort(fieldType);
+		out.writeShort(0);
+		out.writeShort(2);
+		method(out, initName, initType, codeName, initCode, 2, 2);
+		method(out, evalName, evalType, codeName, evalCode, evalStack, 2);
+		out.writeShort(0);
+		return bytes.toByteArray();
+	}
+
+	private static void method(DataOutputStream out, int name, int type, int codeName, byte[] code, int maxStack,
+			int maxLocals) throws IOException {
+		out.writeShort(0x0001); // public
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1);
+		out.writeShort(codeName);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0); // exceptions
+		out.writeShort(0); // attributes
+	}
+
+	/** Emits the code leaving the {@code double} value of the node on the stack. */
+	private void emit(Node node) throws IOException {
+		if (node instanceof ConstantNode) {
+			code.write(LDC2_W);
+			code.writeShort(doubleConstant(node.eval(null)));
+			stack(2);
+		} else if (node instanceof VariableNode) {
+			code.write(ALOAD_1);
+			stack(1);
+			pushInt(((VariableNode) node).slot());
+			code.write(DALOAD);
+			stack(-2 + 2);
+		} else if (node instanceof NegateNode) {
+			emit(node.children()[0]);
+			code.write(DNEG);
+		} else if (node instanceof BinaryNode) {
+			Node[] children = node.children();
+			emit(children[0]);
+			emit(children[1]);
+			operator(((BinaryNode) node).operator());
+		} else if (node instanceof ChainNode) {
+			ChainNode chain = (ChainNode) node;
+			emit(chain.operand(0));
+			for (int i = 1; i < chain.length(); i++) {
+				emit(chain.operand(i));
+				operator(chain.operator(i));
+			}
+		} else if (node instanceof FunctionNode && !((FunctionNode) node).isDegree()) {
+			FunctionNode function = (FunctionNode) node;
+			emit(node.children()[0]);
+			code.write(INVOKESTATIC);
+			code.writeShort(methodRef("java/lang/Math", mathMethod(function.function()), "(D)D"));
+		} else if (node instanceof FunctionNode) {
+			MathFunction function = ((FunctionNode) node).function();
+			code.write(GETSTATIC);
+			code.writeShort(fieldRef("com/parser/MathFunction", function.name(), "Lcom/parser/MathFunction;"));
+			stack(1);
+			emit(node.children()[0]);
+			code.write(ICONST_1);
+			stack(1);
+			code.write(INVOKEVIRTUAL);
+			code.writeShort(methodRef("com/parser/MathFunction", "eval", "(DZ)D"));
+			stack(-4 + 2);
+		} else if (node instanceof PolynomialNode) {
+			Node[] children = node.children();
+			emit(children[1]);
+			for (int i = 2; i < children.length; i++) {
+				emit(children[0]);
+				emit(children[i]);
+				code.write(INVOKESTATIC);
+				code.writeShort(methodRef("java/lang/Math", "fma", "(DDD)D"));
+				stack(-6 + 2);
+			}
+		} else if (node instanceof PowerNode) {
+			emit(node.children()[0]);
+			pushInt(((PowerNode) node).exponent());
+			code.write(INVOKESTATIC);
+			code.writeShort(methodRef("com/parser/MathOperator", "integerPower", "(DI)D"));
+			stack(-3 + 2);
+		} else if (node instanceof AggregateNode) {
+			aggregate(((AggregateNode) node).aggregate(), node.children());
+		} else if (node instanceof LetNode) {
+			// Stored in the frame, where the nodes called back read it too
+			LetNode let = (LetNode) node;
+			code.write(ALOAD_1);
+			stack(1);
+			pushInt(let.slot());
+			emit(let.value());
+			code.write(DASTORE);
+			stack(-4);
+			emit(let.body());
+		} else {
+			callback(node);
+		}
+	}
+
+	private void operator(MathOperator operator) throws IOException {
+		switch (operator) {
+		case PLUS:
+			code.write(DADD);
+			break;
+		case MINUS:
+			code.write(DSUB);
+			break;
+		case TIMES:
+			code.write(DMUL);
+			break;
+		case DIV:
+			code.write(DDIV);
+			break;
+		case MOD:
+			code.write(DREM);
+			break;
+		case POW:
+			code.write(INVOKESTATIC);
+			code.writeShort(methodRef("java/lang/Math", "pow", "(DD)D"));
+			break;
+		}
+		stack(-2);
+	}
+
+	private void aggregate(MathAggregate aggregate, Node[] arguments) throws IOException {
+		if (aggregate == MathAggregate.SUM || aggregate == MathAggregate.AVG) {
+			// The compensation needs a second accumulator, kept by the callee
+			code.write(GETSTATIC);
+			code.writeShort(fieldRef("com/parser/MathAggregate", aggregate.name(), "Lcom/parser/MathAggregate;"));
+			stack(1);
+			pushInt(arguments.length);
+			code.write(NEWARRAY);
+			code.write(T_DOUBLE);
+			for (int i = 0; i < arguments.length; i++) {
+				code.write(DUP);
+				stack(1);
+				pushInt(i);
+				emit(arguments[i]);
+				code.write(DASTORE);
+				stack(-4);
+			}
+			pushInt(0);
+			pushInt(arguments.length);
+			code.write(INVOKEVIRTUAL);
+			code.writeShort(methodRef("com/parser/MathAggregate", "eval", "([DII)D"));
+			stack(-4 + 2);
+			return;
+		}
+		emit(arguments[0]);
+		for (int i = 1; i < arguments.length; i++) {
+			emit(arguments[i]);
+			if (aggregate == MathAggregate.PROD) {
+				code.write(DMUL);
+			} else {
+				code.write(INVOKESTATIC);
+				code.writeShort(methodRef("java/lang/Math", aggregate == MathAggregate.MIN ? "min" : "max", "(DD)D"));
+			}
+			stack(-2);
+		}
+	}
+
+	private static String mathMethod(MathFunction function) {
+		switch (function) {
+		case COS:
+			return "cos";
+		case LN:
+			return "log";
+		case SIN:
+			return "sin";
+		case SQRT:
+			return "sqrt";
+		case TAN:
+			return "tan";
+		}
+		throw new IllegalStateException("No Math method for " + function);
+	}
+
+	/** Emits {@code this.callbacks[i].eval(frame)} for a node evaluated by itself. */
+	private void callback(Node node) throws IOException {
+		int index = callbacks.size();
+		callbacks.add(node::eval);
+		code.write(ALOAD_0);
+		stack(1);
+		code.write(GETFIELD);
+		code.writeShort(fieldRef(className, "callbacks", CALLBACKS));
+		pushInt(index);
+		code.write(AALOAD);
+		stack(-1);
+		code.write(ALOAD_1);
+		stack(1);
+		code.write(INVOKEINTERFACE);
+		code.writeShort(interfaceMethodRef(EVALUATOR, "eval", "([D)D"));
+		code.write(2);
+		code.write(0);
+		stack(-2 + 2);
+	}
+
+	private void pushInt(int value) throws IOException {
+		if (value <= 5) {
+			code.write(ICONST_0 + value);
+		} else if (value <= Byte.MAX_VALUE) {
+			code.write(BIPUSH);
+			code.write(value);
+		} else if (value <= Short.MAX_VALUE) {
+			code.write(SIPUSH);
+			code.writeShort(value);
+		} else {
+			code.write(LDC_W);
+			code.writeShort(entry("I" + value, 3, out -> out.writeInt(value), 1));
+		}
+		stack(1);
+	}
+
+	private void stack(int delta) {
+		depth += delta;
+		maxDepth = Math.max(maxDepth, depth);
+	}
+
+	// Constant pool
+
+	private interface EntryWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	private int entry(String key, int tag, EntryWriter writer, int slots) throws IOException {
+		Integer index = poolIndexes.get(key);
+		if (index == null) {
+			index = poolCount;
+			pool.write(tag);
+			writer.write(pool);
+			poolCount += slots;
+			if (poolCount > 65535) {
+				throw new IllegalStateException("Constant pool overflow.");
+			}
+			poolIndexes.put(key, index);
+		}
+		return index;
+	}
+
+	private int utf8(String value) throws IOException {
+		return entry("U" + value, 1, out -> out.writeUTF(value), 1);
+	}
+
+	private int doubleConstant(double value) throws IOException {
+		return entry("D" + Double.doubleToRawLongBits(value), 6, out -> out.writeDouble(value), 2);
+	}
+
+	private int classRef(String name) throws IOException {
+		int utf8 = utf8(name);
+		return entry("C" + name, 7, out -> out.writeShort(utf8), 1);
+	}
+
+	private int nameAndType(String name, String type) throws IOException {
+		int n = utf8(name), t = utf8(type);
+		return entry("N" + name + ":" + type, 12, out -> {
+			out.writeShort(n);
+			out.writeShort(t);
+		}, 1);
+	}
+
+	private int member(int tag, String owner, String name, String type) throws IOException {
+		int c = classRef(owner), nt = nameAndType(name, type);
+		return entry("M" + tag + owner + "." + name + ":" + type, tag, out -> {
+			out.writeShort(c);
+			out.writeShort(nt);
+		}, 1);
+	}
+
+	private int fieldRef(String owner, String name, String type) throws IOException {
+		return member(9, owner, name, type);
+	}
+
+	private int methodRef(String owner, String name, String type) throws IOException {
+		return member(10, owner, name, type);
+	}
+
+	private int interfaceMethodRef(String owner, String name, String type) throws IOException {
+		return member(11, owner, name, type);
+	}
+}
@@ -0,0 +1,56 @@
+package com.parser;
+
+/**
+ * Normal form of an expression, built by
+ * {@link ExpressionCompiler#canonicalize(String)}, under which equivalent
+ * writings of a formula compare equal, e.g. to store each formula once in a
+ * cache. The text is an expression the compiler parses back to the same form;
+ * the hash is a 64 bits digest of its structure.
+ *
+ * @since 1.1
+ */
+public final class CanonicalForm {
+
+	private final String text;
+	private final long hash;
+
+	CanonicalForm(String text, long hash) {
+		this.text = text;
+		this.hash = hash;
+	}
+
+	/** Gets the canonical text of the expression. */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Gets the structural hash of the expression. Unlike the text, it tells
+	 * apart trigonometric functions taking angles in degree and in radian.
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof CanonicalForm)) {
+			return false;
+		}
+		CanonicalForm other = (CanonicalForm) obj;
+		return hash == other.hash && text.equals(other.text);
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+}
@@ -0,0 +1,297 @@
+package com.parser;
+
+/**
+ * Builds the {@link CanonicalForm} of a parsed and folded tree of
+ * {@link Node}. Whitespace, case, redundant parentheses, implicit
+ * multiplications and unary plus signs are already lost by the parser; the
+ * operands of {@code +} and {@code *} are then put in the order of their hash.
+ * Operands are reordered but never reassociated: {@code (a + b) + c} and
+ * {@code a + (b + c)} may round differently, so they have different forms.
+ * For the same reason, the arguments of a {@link MathAggregate} keep their
+ * order, and so do the operands of a {@link ChainNode} but the first two.
+ * <br/>
+ * The hash of a node combines its kind, its value and the hashes of its
+ * operands in their canonical order, so that it is computed in a single pass
+ * and doesn't depend on the slots of the variables.
+ */
+final class Canonicalizer {
+
+	/**
+	 * Precedence of a negation: {@code -a * b} and {@code b + -a} are parsed as
+	 * written, unlike {@code b * -a} or {@code -a ^ 2}.
+	 */
+	private static final int NEGATION = 2;
+	private static final long CONSTANT = 1, LONG = 2, VARIABLE = 3, NEGATE = 4, BINARY = 5, FUNCTION = 6,
+			AGGREGATE = 7, LET = 8, WINDOW = 9, CHAIN = 10;
+
+	/** Node with its hash and its operands in canonical order. */
+	private static final class Canonical {
+		final Node node;
+		final long hash;
+		final Canonical[] children;
+
+		Canonical(Node node, long hash, Canonical[] children) {
+			this.node = node;
+			this.hash = hash;
+			this.children = children;
+		}
+	}
+
+	private Canonicalizer() {
+	}
+
+	/**
+	 * Gets the canonical form of the specified tree.
+	 *
+	 * @param root the root of a tree holding only the nodes built by the parser.
+	 * @return the canonical form.
+	 */
+	static CanonicalForm of(Node root) {
+		Canonical canonical = canonical(root);
+		StringBuilder text = new StringBuilder();
+		print(canonical, 0, text);
+		return new CanonicalForm(text.toString(), canonical.hash);
+	}
+
+	private static Canonical canonical(Node node) {
+		if (node instanceof ConstantNode) {
+			if (node.isIntegral()) {
+				return new Canonical(node, mix(LONG, node.evalLong(null)), null);
+			}
+			return new Canonical(node, mix(CONSTANT, Double.doubleToLongBits(node.eval(null))), null);
+		}
+		if (node instanceof VariableNode) {
+			return new Canonical(node, mix(VARIABLE, hash(((VariableNode) node).name())), null);
+		}
+		Node[] children = node.children();
+		Canonical[] canonicals = new Canonical[children.length];
+		for (int i = 0; i < children.length; i++) {
+			canonicals[i] = canonical(children[i]);
+		}
+		long hash;
+		if (node instanceof NegateNode) {
+			hash = NEGATE;
+		} else if (node instanceof BinaryNode) {
+			MathOperator operator = ((BinaryNode) node).operator();
+			if ((operator == MathOperator.PLUS || operator == MathOperator.TIMES)
+					&& compare(canonicals[0], canonicals[1]) > 0) {
+				Canonical first = canonicals[0];
+				canonicals[0] = canonicals[1];
+				canonicals[1] = first;
+			}
+			hash = mix(BINARY, operator.ordinal());
+		} else if (node instanceof ChainNode) {
+			ChainNode chain = (ChainNode) node;
+			MathOperator first = chain.operator(1);
+			if ((first == MathOperator.PLUS || first == MathOperator.TIMES) && compare(canonicals[0], canonicals[1]) > 0) {
+				Canonical operand = canonicals[0];
+				canonicals[0] = canonicals[1];
+				canonicals[1] = operand;
+			}
+			hash = CHAIN;
+			for (int i = 1; i < chain.length(); i++) {
+				hash = mix(hash, chain.operator(i).ordinal());
+			}
+		} else if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			hash = mix(FUNCTION, function.function().ordinal() * 2 + (isAngle(function) ? 1 : 0));
+		} else if (node instanceof AggregateNode) {
+			hash = mix(AGGREGATE, ((AggregateNode) node).aggregate().ordinal());
+		} else if (node instanceof LetNode) {
+			hash = mix(LET, hash(((LetNode) node).name()));
+		} else if (node instanceof WindowNode) {
+			WindowNode window = (WindowNode) node;
+			hash = mix(mix(WINDOW, window.window().ordinal()), Double.doubleToLongBits(window.parameter()));
+		} else {
+			throw new IllegalArgumentException("No canonical form for " + node.getClass().getSimpleName() + ".");
+		}
+		for (Canonical child : canonicals) {
+			hash = mix(hash, child.hash);
+		}
+		return new Canonical(node, hash, canonicals);
+	}
+
+	/** Tests if a function takes an angle in degree, which changes its value but not its text. */
+	private static boolean isAngle(FunctionNode function) {
+		MathFunction f = function.function();
+		return function.isDegree() && f != MathFunction.LN && f != MathFunction.SQRT;
+	}
+
+	/** Orders two nodes by hash, then by structure should their hashes collide. */
+	private static int compare(Canonical a, Canonical b) {
+		int c = Long.compare(a.hash, b.hash);
+		return c != 0 || a == b ? c : compareStructure(a, b);
+	}
+
+	private static int compareStructure(Canonical a, Canonical b) {
+		int c = Integer.compare(kind(a.node), kind(b.node));
+		if (c != 0) {
+			return c;
+		}
+		if (a.node instanceof ConstantNode) {
+			c = Boolean.compare(a.node.isIntegral(), b.node.isIntegral());
+			return c != 0 ? c : Double.compare(a.node.eval(null), b.node.eval(null));
+		}
+		if (a.node instanceof VariableNode) {
+			return ((VariableNode) a.node).name().compareTo(((VariableNode) b.node).name());
+		}
+		if (a.node instanceof BinaryNode) {
+			c = ((BinaryNode) a.node).operator().compareTo(((BinaryNode) b.node).operator());
+		} else if (a.node instanceof ChainNode) {
+			ChainNode ca = (ChainNode) a.node, cb = (ChainNode) b.node;
+			c = Integer.compare(ca.length(), cb.length());
+			for (int i = 1; c == 0 && i < ca.length(); i++) {
+				c = ca.operator(i).compareTo(cb.operator(i));
+			}
+		} else if (a.node instanceof FunctionNode) {
+			FunctionNode fa = (FunctionNode) a.node, fb = (FunctionNode) b.node;
+			c = fa.function().compareTo(fb.function());
+			c = c != 0 ? c : Boolean.compare(isAngle(fa), isAngle(fb));
+		} else if (a.node instanceof AggregateNode) {
+			c = ((AggregateNode) a.node).aggregate().compareTo(((AggregateNode) b.node).aggregate());
+			c = c != 0 ? c : Integer.compare(a.children.length, b.children.length);
+		} else if (a.node instanceof LetNode) {
+			c = ((LetNode) a.node).name().compareTo(((LetNode) b.node).name());
+		} else if (a.node instanceof WindowNode) {
+			WindowNode wa = (WindowNode) a.node, wb = (WindowNode) b.node;
+			c = wa.window().compareTo(wb.window());
+			c = c != 0 ? c : Double.compare(wa.parameter(), wb.parameter());
+		}
+		for (int i = 0; c == 0 && i < a.children.length; i++) {
+			c = compareStructure(a.children[i], b.children[i]);
+		}
+		return c;
+	}
+
+	private static int kind(Node node) {
+		return node instanceof ConstantNode ? 0
+				: node instanceof VariableNode ? 1
+						: node instanceof NegateNode ? 2
+								: node instanceof BinaryNode ? 3
+										: node instanceof FunctionNode ? 4
+												: node instanceof AggregateNode ? 5
+														: node instanceof LetNode ? 6 : node instanceof ChainNode ? 8 : 7;
+	}
+
+	/**
+	 * Prints a node, parenthesized if its precedence is less than the specified
+	 * one. Operators being left associative, right operands are printed with a
+	 * precedence above that of their operator.
+	 */
+	private static void print(Canonical canonical, int precedence, StringBuilder text) {
+		Node node = canonical.node;
+		if (node instanceof ConstantNode) {
+			constant((ConstantNode) node, precedence, text);
+		} else if (node instanceof VariableNode) {
+			text.append(((VariableNode) node).name());
+		} else if (node instanceof NegateNode) {
+			open(NEGATION < precedence, text);
+			text.append('-');
+			print(canonical.children[0], MathOperator.POW.getPrecedence(), text);
+			close(NEGATION < precedence, text);
+		} else if (node instanceof BinaryNode) {
+			MathOperator operator = ((BinaryNode) node).operator();
+			int p = operator.getPrecedence();
+			open(p < precedence, text);
+			print(canonical.children[0], p, text);
+			text.append(' ').append(operator.getText()).append(' ');
+			print(canonical.children[1], p + 1, text);
+			close(p < precedence, text);
+		} else if (node instanceof ChainNode) {
+			// Printed as its spine, the precedences of its operators never increasing
+			ChainNode chain = (ChainNode) node;
+			int p = chain.operator(chain.length() - 1).getPrecedence();
+			open(p < precedence, text);
+			print(canonical.children[0], chain.operator(1).getPrecedence(), text);
+			for (int i = 1; i < chain.length(); i++) {
+				MathOperator operator = chain.operator(i);
+				text.append(' ').append(operator.getText()).append(' ');
+				print(canonical.children[i], operator.getPrecedence() + 1, text);
+			}
+			close(p < precedence, text);
+		} else if (node instanceof LetNode) {
+			// The body extends as far as possible
+			open(0 < precedence, text);
+			text.append("let ").append(((LetNode) node).name()).append(" = ");
+			print(canonical.children[0], 0, text);
+			text.append(" in ");
+			print(canonical.children[1], 0, text);
+			close(0 < precedence, text);
+		} else if (node instanceof FunctionNode) {
+			text.append(((FunctionNode) node).function().getText()).append('(');
+			print(canonical.children[0], 0, text);
+			text.append(')');
+		} else if (node instanceof WindowNode) {
+			WindowNode window = (WindowNode) node;
+			text.append(window.window().getText()).append('(');
+			print(canonical.children[0], 0, text);
+			text.append(", ");
+			constant(window.window().isSized() ? new ConstantNode((long) window.parameter())
+					: new ConstantNode(window.parameter()), 0, text);
+			text.append(')');
+		} else {
+			text.append(((AggregateNode) node).aggregate().getText()).append('(');
+			for (int i = 0; i < canonical.children.length; i++) {
+				text.append(i == 0 ? "" : ", ");
+				print(canonical.children[i], 0, text);
+			}
+			text.append(')');
+		}
+	}
+
+	/** Prints a constant so that the parser reads it back with the same value and type. */
+	private static void constant(ConstantNode constant, int precedence, StringBuilder text) {
+		if (constant.isIntegral()) {
+			long value = constant.evalLong(null);
+			// The literal of the opposite of Long.MIN_VALUE overflows
+			boolean parenthesized = value == Long.MIN_VALUE ? MathOperator.MINUS.getPrecedence() < precedence
+					: value < 0 && NEGATION < precedence;
+			open(parenthesized, text);
+			text.append(value == Long.MIN_VALUE ? "-9223372036854775807 - 1" : Long.toString(value));
+			close(parenthesized, text);
+			return;
+		}
+		double value = constant.value();
+		if (Double.isNaN(value)) {
+			open(MathOperator.DIV.getPrecedence() < precedence, text);
+			text.append("0.0 / 0");
+			close(MathOperator.DIV.getPrecedence() < precedence, text);
+			return;
+		}
+		boolean negative = Double.doubleToRawLongBits(value) < 0;
+		boolean parenthesized = negative && NEGATION < precedence;
+		open(parenthesized, text);
+		// Too large a literal is read as infinity
+		text.append(Double.isInfinite(value) ? negative ? "-1e999" : "1e999" : Double.toString(value));
+		close(parenthesized, text);
+	}
+
+	private static void open(boolean parenthesized, StringBuilder text) {
+		if (parenthesized) {
+			text.append('(');
+		}
+	}
+
+	private static void close(boolean parenthesized, StringBuilder text) {
+		if (parenthesized) {
+			text.append(')');
+		}
+	}
+
+	/** 64 bits FNV-1a hash of a name. */
+	private static long hash(String name) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < name.length(); i++) {
+			hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/** Combines two values, with the finalizer of SplitMix64 spreading each bit over the whole hash. */
+	private static long mix(long hash, long value) {
+		long z = hash * 0x9e3779b97f4a7c15L + value;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
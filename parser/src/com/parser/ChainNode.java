@@ -0,0 +1,113 @@
+package com.parser;
+
+import java.util.Arrays;
+
+/**
+ * Left associative chain of operations, like {@code a + b - c * d / e ...}
+ * read as {@code (((a + b) - c) ...)}, held as a flat array of operands
+ * rather than as a left spine of {@link BinaryNode}: the operands are
+ * evaluated from left to right into a single accumulator, with the same
+ * operations as the spine, so that results don't change, while the passes
+ * walking the tree recurse once per chain instead of once per operation.
+ * <br/>
+ * The parser builds chains of at least {@link ExpressionCompiler#MIN_CHAIN}
+ * operands, see {@link #of(Node[], MathOperator[], int)}; shorter ones remain
+ * spines. The precedences of the operators of a chain never increase from
+ * left to right, the operands of tighter operators being parsed apart.
+ */
+final class ChainNode extends Node {
+
+	private final Node[] operands;
+	/** Operator applying each operand but the first to the value of the previous ones, at its index minus one. */
+	private final MathOperator[] operators;
+	private final boolean integral;
+
+	private ChainNode(Node[] operands, MathOperator[] operators) {
+		this.operands = operands;
+		this.operators = operators;
+		boolean integral = true;
+		for (MathOperator operator : operators) {
+			integral &= operator.preservesIntegers();
+		}
+		for (Node operand : operands) {
+			integral &= operand.isIntegral();
+		}
+		this.integral = integral;
+	}
+
+	/**
+	 * Builds the chain of the first operands of an array, as a chain node if
+	 * long enough, as a spine of {@link BinaryNode} otherwise.
+	 *
+	 * @param operands  the operands, from the left most one.
+	 * @param operators the operator applying each operand but the first, at its
+	 *                  index minus one.
+	 * @param count     the number of operands of the chain, at least one.
+	 * @return the root of the chain, the first operand itself if alone.
+	 */
+	static Node of(Node[] operands, MathOperator[] operators, int count) {
+		if (count >= ExpressionCompiler.MIN_CHAIN) {
+			return new ChainNode(Arrays.copyOf(operands, count), Arrays.copyOf(operators, count - 1));
+		}
+		Node node = operands[0];
+		for (int i = 1; i < count; i++) {
+			node = new BinaryNode(operators[i - 1], node, operands[i]);
+		}
+		return node;
+	}
+
+	/** Gets the number of operands. */
+	int length() {
+		return operands.length;
+	}
+
+	/** Gets the operand of the specified index. */
+	Node operand(int index) {
+		return operands[index];
+	}
+
+	/** Gets the operator applying the operand of the specified index, from {@code 1}. */
+	MathOperator operator(int index) {
+		return operators[index - 1];
+	}
+
+	/** Gets the chain of the first operands, see {@link #of(Node[], MathOperator[], int)}. */
+	Node prefix(int count) {
+		return count == operands.length ? this : of(operands, operators, count);
+	}
+
+	@Override
+	double eval(double[] frame) {
+		final Node[] operands = this.operands;
+		double value = operands[0].eval(frame);
+		for (int i = 1; i < operands.length; i++) {
+			value = operators[i - 1].eval(value, operands[i].eval(frame));
+		}
+		return value;
+	}
+
+	@Override
+	boolean isIntegral() {
+		return integral;
+	}
+
+	@Override
+	long evalLong(double[] frame) {
+		final Node[] operands = this.operands;
+		long value = operands[0].evalLong(frame);
+		for (int i = 1; i < operands.length; i++) {
+			value = operators[i - 1].evalExact(value, operands[i].evalLong(frame));
+		}
+		return value;
+	}
+
+	@Override
+	Node[] children() {
+		return operands;
+	}
+
+	@Override
+	Node withChildren(Node[] children) {
+		return new ChainNode(children.clone(), operators);
+	}
+}
@@ -0,0 +1,187 @@
+package com.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * View of a column of {@code double} values held by a buffer, usually off heap:
+ * a direct or memory mapped {@link ByteBuffer}, or a {@link DoubleBuffer}.
+ * Values are read and written in place, row by row, without copying the
+ * column. Rows may be strided, e.g. to read one field of an array of records.
+ * <br/>
+ * With Java 14 or later, a {@code MemorySegment} is viewed through its
+ * {@code asByteBuffer()} method.
+ *
+ * @see CompiledExpression#evalColumns(Column[], Column, int)
+ * @since 1.1
+ */
+public abstract class Column {
+
+	private Column() {
+	}
+
+	/**
+	 * Views the bytes of a buffer as a column.
+	 *
+	 * @param buffer the buffer holding the values, up to its limit when the
+	 *               column is created. Its position and byte order aren't used,
+	 *               and none of them is modified.
+	 * @param offset the index, in bytes, of the value of the first row.
+	 * @param stride the number of bytes between the values of two consecutive
+	 *               rows, at least 8 unless {@code 0} to repeat a single value.
+	 * @param order  the byte order of the values.
+	 * @return the column.
+	 */
+	public static Column of(ByteBuffer buffer, int offset, int stride, ByteOrder order) {
+		if (offset < 0 || (stride != 0 && stride < Double.BYTES)) {
+			throw new IllegalArgumentException("Invalid offset or stride.");
+		}
+		return new ByteColumn(buffer, offset, stride, order);
+	}
+
+	/**
+	 * Alias of {@link #of(ByteBuffer, int, int, ByteOrder)} for contiguous values
+	 * starting at index {@code 0}.
+	 */
+	public static Column of(ByteBuffer buffer, ByteOrder order) {
+		return of(buffer, 0, Double.BYTES, order);
+	}
+
+	/**
+	 * Views a buffer of doubles as a column.
+	 *
+	 * @param buffer the buffer holding the values, the first row being at its
+	 *               current position and the last one before its limit. Its
+	 *               position and limit aren't modified.
+	 * @param stride the number of doubles between the values of two consecutive
+	 *               rows, {@code 0} to repeat a single value.
+	 * @return the column.
+	 */
+	public static Column of(DoubleBuffer buffer, int stride) {
+		if (stride < 0) {
+			throw new IllegalArgumentException("Invalid stride.");
+		}
+		return new DoubleColumn(buffer, stride);
+	}
+
+	/** Alias of {@link #of(DoubleBuffer, int)} for contiguous values. */
+	public static Column of(DoubleBuffer buffer) {
+		return of(buffer, 1);
+	}
+
+	/**
+	 * Creates a column holding the same value for all the rows.
+	 *
+	 * @param value the value of the rows.
+	 * @return the column.
+	 */
+	public static Column constant(double value) {
+		return new ConstantColumn(value);
+	}
+
+	/** Gets the value of the specified row. */
+	public abstract double get(int row);
+
+	/**
+	 * Sets the value of the specified row.
+	 *
+	 * @throws java.nio.ReadOnlyBufferException if the buffer is read only.
+	 * @throws UnsupportedOperationException    for a constant column.
+	 */
+	public abstract void set(int row, double value);
+
+	/**
+	 * Gets the number of rows held by the column, before the limit of its
+	 * buffer, {@link Integer#MAX_VALUE} if unbounded.
+	 */
+	public abstract int rows();
+
+	private static final class ByteColumn extends Column {
+
+		private final ByteBuffer buffer;
+		private final int offset, stride;
+
+		ByteColumn(ByteBuffer buffer, int offset, int stride, ByteOrder order) {
+			// Shares the content, with its own byte order
+			this.buffer = buffer.duplicate().order(order);
+			this.offset = offset;
+			this.stride = stride;
+		}
+
+		@Override
+		public double get(int row) {
+			return buffer.getDouble(offset + row * stride);
+		}
+
+		@Override
+		public void set(int row, double value) {
+			buffer.putDouble(offset + row * stride, value);
+		}
+
+		@Override
+		public int rows() {
+			// Indexes past the limit are rejected, even below the capacity
+			int available = buffer.limit() - offset - Double.BYTES;
+			if (available < 0) {
+				return 0;
+			}
+			return stride == 0 ? Integer.MAX_VALUE : available / stride + 1;
+		}
+	}
+
+	private static final class DoubleColumn extends Column {
+
+		private final DoubleBuffer buffer;
+		private final int offset, stride;
+
+		DoubleColumn(DoubleBuffer buffer, int stride) {
+			this.buffer = buffer;
+			this.offset = buffer.position();
+			this.stride = stride;
+		}
+
+		@Override
+		public double get(int row) {
+			return buffer.get(offset + row * stride);
+		}
+
+		@Override
+		public void set(int row, double value) {
+			buffer.put(offset + row * stride, value);
+		}
+
+		@Override
+		public int rows() {
+			int available = buffer.limit() - offset - 1;
+			if (available < 0) {
+				return 0;
+			}
+			return stride == 0 ? Integer.MAX_VALUE : available / stride + 1;
+		}
+	}
+
+	private static final class ConstantColumn extends Column {
+
+		private final double value;
+
+		ConstantColumn(double value) {
+			this.value = value;
+		}
+
+		@Override
+		public double get(int row) {
+			return value;
+		}
+
+		@Override
+		public void set(int row, double value) {
+			throw new UnsupportedOperationException("Constant column.");
+		}
+
+		@Override
+		public int rows() {
+			return Integer.MAX_VALUE;
+		}
+	}
+}
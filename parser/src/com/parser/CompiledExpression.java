@@ -0,0 +1,482 @@
+package com.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Expression compiled by {@link ExpressionCompiler}. Each variable referenced
+ * by the expression is given a slot, its index in the order of first
+ * occurrence. Values may be bound by name through
+ * {@link #withVariable(String, Number)} before calling {@link #eval()}, or
+ * passed all at once, indexed by slot, to {@link #eval(double[])}.
+ * <br/>
+ * {@link #eval(double[])} may be called concurrently; the variables bound by
+ * name aren't thread safe. Expressions defining locals copy the values into a
+ * frame also holding the locals.
+ * <br/>
+ * Expressions calling {@link MathWindow} functions are stateful: each
+ * evaluation is a tick of a time series, updating the windows, so they must
+ * not be evaluated concurrently, see {@link #isStateful()}, and they reuse a
+ * single frame, so that a tick allocates nothing.
+ * <br/>
+ * Evaluations are counted. Once their number reaches the promotion threshold
+ * of the compiler, code evaluating the expression is generated in background
+ * and atomically replaces the tree interpreter, without pausing callers.
+ * 
+ * @since 1.1
+ */
+public class CompiledExpression implements Expression, FrameEvaluator {
+
+	private static final AtomicIntegerFieldUpdater<CompiledExpression> PROMOTION_REQUESTED = AtomicIntegerFieldUpdater
+			.newUpdater(CompiledExpression.class, "promotionRequested");
+
+	private final String expression;
+	private final Node root;
+	private final String[] variables;
+	/** Number of slots of a frame, for the variables then the locals. */
+	private final int frameSize;
+	private final double[] values;
+	private final boolean[] bound;
+	private final int promotionThreshold;
+	private final Executor promotionExecutor;
+	private final TieringMetrics metrics;
+	private final ResourceLimits limits;
+	/** Number of nodes of the tree, the steps of an evaluation. */
+	private final int size;
+	/** Window nodes of the tree, whose state is updated at each evaluation. */
+	private final WindowNode[] windows;
+	/** Frame reused by the evaluations of a stateful expression, {@code null} otherwise. */
+	private final double[] tickFrame;
+	private volatile FrameEvaluator evaluator;
+	private volatile boolean promoted;
+	/** Racy counter, losing updates only delays the promotion. */
+	private long evaluations;
+	/** {@code 1} once the promotion is requested, set by a single compare and set. */
+	private volatile int promotionRequested;
+
+	CompiledExpression(String expression, Node root, String[] variables, int locals, int promotionThreshold,
+			Executor promotionExecutor, TieringMetrics metrics, ResourceLimits limits, int size) {
+		this.expression = expression;
+		this.root = root;
+		this.variables = variables;
+		this.frameSize = variables.length + locals;
+		this.values = new double[frameSize];
+		this.bound = new boolean[variables.length];
+		this.promotionThreshold = promotionThreshold;
+		this.promotionExecutor = promotionExecutor;
+		this.metrics = metrics;
+		this.limits = limits;
+		this.size = size;
+		List<WindowNode> windows = new ArrayList<>();
+		WindowNode.collect(root, windows);
+		this.windows = windows.toArray(new WindowNode[0]);
+		this.tickFrame = this.windows.length > 0 ? new double[frameSize] : null;
+		this.evaluator = root::eval;
+	}
+
+	@Override
+	public double eval() throws ParserException {
+		checkBound();
+		return evaluator(1).eval(values);
+	}
+
+	/** Counts evaluations and gets the current evaluator. */
+	FrameEvaluator evaluator(int count) {
+		long evaluations = this.evaluations += count;
+		if (evaluations >= promotionThreshold && promotionThreshold > 0 && promotionRequested == 0
+				&& PROMOTION_REQUESTED.compareAndSet(this, 0, 1)) {
+			metrics.requested();
+			promotionExecutor.execute(this::promote);
+		}
+		return evaluator;
+	}
+
+	private void promote() {
+		long start = System.nanoTime();
+		try {
+			FrameEvaluator generated = BytecodeCompiler.compile(root);
+			evaluator = generated;
+			promoted = true;
+			metrics.promoted(System.nanoTime() - start);
+		} catch (RuntimeException e) {
+			metrics.failed();
+		}
+	}
+
+	/**
+	 * Evals the expression using the specified values.
+	 * 
+	 * @param values the values of the variables, indexed by slot.
+	 * @return the value of the expression.
+	 * @throws ParserException if evaluation fails.
+	 */
+	@Override
+	public double eval(double[] values) throws ParserException {
+		return evaluator(1).eval(frameSize == variables.length ? values : frame(values, frame()));
+	}
+
+	/** Gets a frame for an evaluation, the one reused by the ticks of a stateful expression. */
+	private double[] frame() {
+		return tickFrame != null ? tickFrame : new double[frameSize];
+	}
+
+	/** Copies the values of the variables into a frame holding the locals too. */
+	private double[] frame(double[] values, double[] frame) {
+		System.arraycopy(values, 0, frame, 0, variables.length);
+		return frame;
+	}
+
+	/**
+	 * Evals the expression, resolving the value of each variable it references
+	 * once, by name. Unreferenced variables are never resolved.
+	 * 
+	 * @param resolver the source of the values of the variables.
+	 * @return the value of the expression.
+	 * @throws ParserException if evaluation fails or a variable is unknown.
+	 */
+	public double eval(VariableResolver resolver) throws ParserException {
+		double[] frame = frame();
+		for (int i = 0; i < variables.length; i++) {
+			Number value = resolver.resolve(variables[i]);
+			if (value == null) {
+				throw new ValueException("Impossible to find the value of variable '" + variables[i] + "'");
+			}
+			frame[i] = value.doubleValue();
+		}
+		return evaluator(1).eval(frame);
+	}
+
+	/**
+	 * Evals the expression, resolving the value of each variable it references
+	 * once, by slot.
+	 * 
+	 * @param resolver the source of the values of the variables.
+	 * @return the value of the expression.
+	 * @throws ParserException if evaluation fails.
+	 */
+	public double evalBySlot(VariableResolver.OfSlot resolver) throws ParserException {
+		double[] frame = frame();
+		for (int i = 0; i < variables.length; i++) {
+			frame[i] = resolver.resolve(i);
+		}
+		return evaluator(1).eval(frame);
+	}
+
+	/**
+	 * Evals the expression for each of the specified frames.
+	 * 
+	 * @param frames  the values of the variables of each evaluation, indexed by
+	 *                slot.
+	 * @param results the array receiving, at the same index, the value of the
+	 *                expression for each frame.
+	 * @param count   the number of frames to evaluate, from index {@code 0}.
+	 * @throws ParserException        if evaluation fails.
+	 * @throws ResourceLimitException if the batch exceeds the limits of the
+	 *                                compiler.
+	 */
+	public void evalBatch(double[][] frames, double[] results, int count) throws ParserException {
+		Budget budget = budget(count);
+		FrameEvaluator evaluator = evaluator(count);
+		double[] frame = frameSize == variables.length ? null : new double[frameSize];
+		for (int i = 0; i < count; i++) {
+			if (budget != null && i % Budget.CHECK_INTERVAL == Budget.CHECK_INTERVAL - 1) {
+				budget.checkTime();
+			}
+			results[i] = evaluator.eval(frame == null ? frames[i] : frame(frames[i], frame));
+		}
+	}
+
+	/** Creates the budget of a batch, whose steps are counted up front. */
+	Budget budget(long count) {
+		if (limits == null) {
+			return null;
+		}
+		Budget budget = new Budget(limits);
+		budget.steps(count * size);
+		return budget;
+	}
+
+	/**
+	 * Evals the expression for each row of the specified columns, reading the
+	 * values of the variables and writing the results in place, e.g. in off heap
+	 * buffers. Only the values of the current row are copied, into a frame
+	 * reused for all the rows.
+	 *
+	 * @param columns the columns of the variables, indexed by slot.
+	 * @param results the column receiving the value of the expression at each
+	 *                row.
+	 * @param rows    the number of rows to evaluate, from row {@code 0}.
+	 * @throws ParserException           if evaluation fails.
+	 * @throws ResourceLimitException    if the rows exceed the limits of the
+	 *                                   compiler.
+	 * @throws IndexOutOfBoundsException if a column holds less than
+	 *                                   {@code rows} rows.
+	 */
+	public void evalColumns(Column[] columns, Column results, int rows) throws ParserException {
+		if (columns.length < variables.length) {
+			throw new ValueException("Impossible to find the value of variable '" + variables[columns.length] + "'");
+		}
+		for (int i = 0; i < variables.length; i++) {
+			if (columns[i] == null) {
+				throw new ValueException("Impossible to find the value of variable '" + variables[i] + "'");
+			}
+			checkRows(columns[i], rows);
+		}
+		checkRows(results, rows);
+		Budget budget = budget(rows);
+		FrameEvaluator evaluator = evaluator(rows);
+		double[] frame = new double[frameSize];
+		for (int row = 0; row < rows; row++) {
+			if (budget != null && row % Budget.CHECK_INTERVAL == Budget.CHECK_INTERVAL - 1) {
+				budget.checkTime();
+			}
+			for (int i = 0; i < variables.length; i++) {
+				frame[i] = columns[i].get(row);
+			}
+			results.set(row, evaluator.eval(frame));
+		}
+	}
+
+	/**
+	 * Alias of {@link #evalColumns(Column[], Column, int)} with the columns of
+	 * the variables given by name. Columns of variables not referenced by the
+	 * expression are ignored.
+	 */
+	public void evalColumns(Map<String, Column> columns, Column results, int rows) throws ParserException {
+		Column[] bySlot = new Column[variables.length];
+		for (int i = 0; i < variables.length; i++) {
+			bySlot[i] = columns.get(variables[i]);
+		}
+		evalColumns(bySlot, results, rows);
+	}
+
+	private static void checkRows(Column column, int rows) {
+		if (column.rows() < rows) {
+			throw new IndexOutOfBoundsException("Column of " + column.rows() + " rows, " + rows + " expected.");
+		}
+	}
+
+	/**
+	 * Evals the expression with the bound variables, keeping integer results
+	 * exact.
+	 * 
+	 * @return a {@link Long} if the expression is integral and has been
+	 *         evaluated exactly, a {@link Double} else.
+	 * @throws ParserException if evaluation fails.
+	 */
+	public Number evalNumber() throws ParserException {
+		checkBound();
+		evaluator(1);
+		if (root.isIntegral()) {
+			try {
+				return root.evalLong(values);
+			} catch (ArithmeticException e) {
+				// Fall back to double arithmetic
+			}
+		}
+		return root.eval(values);
+	}
+
+	/**
+	 * Converts the expression into its compact postfix form, which needs a few
+	 * bytes per node instead of an object per node.
+	 *
+	 * @return the postfix program evaluating this expression.
+	 * @throws UnsupportedOperationException if the expression calls window
+	 *                                       functions, whose state has no
+	 *                                       postfix form.
+	 */
+	public PostfixProgram toPostfix() {
+		return PostfixCompiler.compile(root, variables, frameSize);
+	}
+
+	/**
+	 * Evals the expression for {@code steps + 1} values of a variable evenly
+	 * spaced from {@code from} to {@code to}, the other variables taking their
+	 * bound values. Large ranges are split across cores.
+	 *
+	 * @see Tabulator
+	 */
+	public double[] tabulate(String variable, double from, double to, int steps) throws ParserException {
+		return new Tabulator(this).tabulate(variable, from, to, steps);
+	}
+
+	/**
+	 * Copies the bound variables into a frame, except the variables of the
+	 * specified slots.
+	 *
+	 * @throws ValueException if another variable isn't bound.
+	 */
+	void copyBound(double[] frame, int... except) {
+		for (int i = 0; i < bound.length; i++) {
+			if (!contains(except, i)) {
+				if (!bound[i]) {
+					throw new ValueException("Impossible to find the value of variable '" + variables[i] + "'");
+				}
+				frame[i] = values[i];
+			}
+		}
+	}
+
+	private static boolean contains(int[] slots, int slot) {
+		for (int s : slots) {
+			if (s == slot) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void checkBound() {
+		for (int i = 0; i < bound.length; i++) {
+			if (!bound[i]) {
+				throw new ValueException("Impossible to find the value of variable '" + variables[i] + "'");
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc} Variables not referenced by the expression are ignored.
+	 */
+	@Override
+	public void withVariable(String name, Number value) throws ParserException {
+		Expression.super.withVariable(name, value);
+		int slot = slotOf(name);
+		if (slot >= 0) {
+			values[slot] = value.doubleValue();
+			bound[slot] = true;
+		}
+	}
+
+	/**
+	 * {@inheritDoc} Only the variables referenced by the expression are looked up
+	 * in the map, the other entries being ignored without being checked.
+	 */
+	@Override
+	public void withVariables(Map<String, ? extends Number> variables) throws ParserException {
+		if (variables != null) {
+			for (String name : this.variables) {
+				if (variables.containsKey(name)) {
+					withVariable(name, variables.get(name));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the slot of the specified variable.
+	 * 
+	 * @param name the name of the variable.
+	 * @return the slot of the variable, {@code -1} if the expression doesn't
+	 *         reference it.
+	 */
+	public int slotOf(String name) {
+		for (int i = 0; i < variables.length; i++) {
+			if (variables[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the names of the variables referenced by the expression, by slot,
+	 * e.g. to fetch their values before evaluation.
+	 */
+	public List<String> getVariableNames() {
+		return Collections.unmodifiableList(Arrays.asList(variables));
+	}
+
+	/** Gets the number of evaluations of the expression, approximate under concurrency. */
+	public long getEvaluationCount() {
+		return evaluations;
+	}
+
+	/** Tests if the expression is evaluated by generated code instead of the tree interpreter. */
+	public boolean isPromoted() {
+		return promoted;
+	}
+
+	/**
+	 * Describes the tree of the expression, as compiled after optimization: the
+	 * folded constants, integral sub trees, polynomials in Horner form, or
+	 * flattened chains.
+	 *
+	 * @return the profile of the expression, with no evaluation.
+	 */
+	public ExpressionProfile explain() {
+		List<NodeProfile> nodes = new ArrayList<>();
+		ProfiledNode.instrument(root, variables.length, 0, nodes, new ProfiledNode.Run());
+		return new ExpressionProfile(expression, nodes.get(0), nodes, 0, 0, promoted);
+	}
+
+	/**
+	 * Evals an instrumented copy of the tree of the expression for each of the
+	 * specified frames, e.g. a sample of the production traffic, counting the
+	 * evaluations, the time and the {@code NaN} and infinite values computed by
+	 * each node. The expression itself isn't affected: its evaluations, which
+	 * run at full speed, aren't counted and its windows aren't updated.
+	 *
+	 * @param frames the values of the variables of each evaluation, indexed by
+	 *               slot.
+	 * @param count  the number of frames to evaluate, from index {@code 0}.
+	 * @return the profile of the expression over the evaluations.
+	 * @throws ParserException if evaluation fails.
+	 */
+	public ExpressionProfile profile(double[][] frames, int count) throws ParserException {
+		List<NodeProfile> nodes = new ArrayList<>();
+		ProfiledNode root = ProfiledNode.instrument(this.root, variables.length, 0, nodes,
+				new ProfiledNode.Run());
+		double[] frame = new double[frameSize];
+		long start = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			root.eval(frame(frames[i], frame));
+		}
+		long nanos = System.nanoTime() - start;
+		return new ExpressionProfile(expression, nodes.get(0), nodes, count, nanos, promoted);
+	}
+
+	/**
+	 * Tests if the expression calls window functions, so that its value depends
+	 * on the previous evaluations.
+	 */
+	public boolean isStateful() {
+		return windows.length > 0;
+	}
+
+	/** Clears the windows of the expression, as before its first evaluation. */
+	public void reset() {
+		for (WindowNode window : windows) {
+			window.reset();
+		}
+	}
+
+	/** Tests if the whole expression is evaluated with integer arithmetic when possible. */
+	public boolean isIntegral() {
+		return root.isIntegral();
+	}
+
+	/** Gets the original value of the expression at compilation. */
+	public String getExpression() {
+		return expression;
+	}
+
+	Node getRoot() {
+		return root;
+	}
+
+	/** Gets the number of slots of a frame, for the variables then the locals. */
+	int frameSize() {
+		return frameSize;
+	}
+
+	/** Gets the number of nodes of the tree, the steps of an evaluation. */
+	int size() {
+		return size;
+	}
+}
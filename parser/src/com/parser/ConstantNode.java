@@ -0,0 +1,43 @@
+package com.parser;
+
+/** Numeric literal or maths constant. */
+final class ConstantNode extends Node {
+
+	private final double value;
+	private final boolean integral;
+	private final long longValue;
+
+	ConstantNode(double value) {
+		this.value = value;
+		this.integral = false;
+		this.longValue = 0;
+	}
+
+	ConstantNode(long value) {
+		this.value = value;
+		this.integral = true;
+		this.longValue = value;
+	}
+
+	double value() {
+		return value;
+	}
+
+	@Override
+	double eval(double[] frame) {
+		return value;
+	}
+
+	@Override
+	boolean isIntegral() {
+		return integral;
+	}
+
+	@Override
+	long evalLong(double[] frame) {
+		if (!integral) {
+			return super.evalLong(frame);
+		}
+		return longValue;
+	}
+}
@@ -0,0 +1,278 @@
+package com.parser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Symbolic differentiation of a tree of {@link Node} with respect to one of
+ * its variables. The derivative is another tree, evaluated with
+ * {@code double} arithmetic on the same frame.
+ */
+final class Derivative {
+
+	private static final Node ZERO = new ConstantNode(0.0), ONE = new ConstantNode(1.0);
+	/** Derivative of an angle in degree, in radian. */
+	private static final double DEGREE = Math.PI / 180;
+
+	private final int slot;
+	/** Derivatives of the locals in scope, by slot. */
+	private final Map<Integer, Node> locals = new HashMap<>();
+
+	private Derivative(int slot) {
+		this.slot = slot;
+	}
+
+	/**
+	 * Differentiates the specified tree.
+	 *
+	 * @param node the root of the tree.
+	 * @param slot the slot of the variable.
+	 * @return the root of the derivative, {@code null} if the tree holds a node
+	 *         with no derivative, like {@code a % x}.
+	 */
+	static Node of(Node node, int slot) {
+		Node derivative = new Derivative(slot).differentiate(node);
+		return derivative == null ? null : ExpressionCompiler.fold(derivative);
+	}
+
+	private Node differentiate(Node node) {
+		if (node instanceof ConstantNode) {
+			return ZERO;
+		}
+		if (node instanceof VariableNode) {
+			int slot = ((VariableNode) node).slot();
+			return slot == this.slot ? ONE : locals.getOrDefault(slot, ZERO);
+		}
+		if (node instanceof LetNode) {
+			// Chain rule, the derivative of the body reading the local and its derivative
+			LetNode let = (LetNode) node;
+			Node d = differentiate(let.value());
+			if (d == null) {
+				return null;
+			}
+			locals.put(let.slot(), d);
+			Node body = differentiate(let.body());
+			return body == null ? null : new LetNode(let.name(), let.slot(), let.value(), body);
+		}
+		if (node instanceof IntegralNode) {
+			// Equal to its body wherever both are defined
+			return differentiate(node.children()[0]);
+		}
+		Node[] children = node.children();
+		if (node instanceof NegateNode) {
+			Node d = differentiate(children[0]);
+			return d == null ? null : negate(d);
+		}
+		if (node instanceof BinaryNode) {
+			return binary(((BinaryNode) node).operator(), children[0], children[1]);
+		}
+		if (node instanceof ChainNode) {
+			return chain((ChainNode) node);
+		}
+		if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			return function(function.function(), function.isDegree(), children[0]);
+		}
+		if (node instanceof MemoizedFunctionNode) {
+			MemoizedFunctionNode function = (MemoizedFunctionNode) node;
+			return function(function.function(), function.isDegree(), children[0]);
+		}
+		if (node instanceof PowerNode) {
+			int exponent = ((PowerNode) node).exponent();
+			Node d = differentiate(children[0]);
+			if (d == null) {
+				return null;
+			}
+			Node power = exponent == 2 ? children[0] : new PowerNode(children[0], exponent - 1);
+			return times(times(new ConstantNode((double) exponent), power), d);
+		}
+		if (node instanceof PolynomialNode) {
+			return polynomial(children);
+		}
+		if (node instanceof AggregateNode) {
+			return aggregate(((AggregateNode) node).aggregate(), children);
+		}
+		return null;
+	}
+
+	private Node binary(MathOperator operator, Node a, Node b) {
+		Node da = differentiate(a), db = differentiate(b);
+		if (da == null || db == null) {
+			return null;
+		}
+		switch (operator) {
+		case PLUS:
+			return plus(da, db);
+		case MINUS:
+			return minus(da, db);
+		case TIMES:
+			return plus(times(da, b), times(a, db));
+		case DIV:
+			// (a' * b - a * b') / b^2
+			return divide(minus(times(da, b), times(a, db)), times(b, b));
+		case POW:
+			if (isZero(db)) {
+				// b * a^(b - 1) * a'
+				Node power = new BinaryNode(MathOperator.POW, a, new BinaryNode(MathOperator.MINUS, b, ONE));
+				return times(times(b, power), da);
+			}
+			// a^b * (b' * ln(a) + b * a' / a)
+			Node power = new BinaryNode(MathOperator.POW, a, b);
+			Node ln = new FunctionNode(MathFunction.LN, false, a);
+			return times(power, plus(times(db, ln), divide(times(b, da), a)));
+		case MOD:
+			// a - b * trunc(a / b), whose last factor is locally constant
+			return isZero(db) ? da : null;
+		}
+		return null;
+	}
+
+	/**
+	 * Differentiates a chain, whose trailing run of additions and subtractions
+	 * is derived as a sum. Other chains are derived as spines of
+	 * {@link BinaryNode} unless longer than
+	 * {@link ResourceLimits#DEFAULT_MAX_DEPTH}, the derivative growing as high.
+	 */
+	private Node chain(ChainNode chain) {
+		int start = chain.length();
+		while (start > 1 && (chain.operator(start - 1) == MathOperator.PLUS
+				|| chain.operator(start - 1) == MathOperator.MINUS)) {
+			start--;
+		}
+		if (start < chain.length()) {
+			Node[] terms = new Node[chain.length() - start + 1];
+			terms[0] = differentiate(chain.prefix(start));
+			if (terms[0] == null) {
+				return null;
+			}
+			for (int i = start; i < chain.length(); i++) {
+				Node d = differentiate(chain.operand(i));
+				if (d == null) {
+					return null;
+				}
+				terms[i - start + 1] = chain.operator(i) == MathOperator.MINUS ? negate(d) : d;
+			}
+			return new AggregateNode(MathAggregate.SUM, terms);
+		}
+		if (chain.length() > ResourceLimits.DEFAULT_MAX_DEPTH) {
+			return null;
+		}
+		Node spine = chain.operand(0);
+		for (int i = 1; i < chain.length(); i++) {
+			spine = new BinaryNode(chain.operator(i), spine, chain.operand(i));
+		}
+		return differentiate(spine);
+	}
+
+	private Node function(MathFunction function, boolean degree, Node argument) {
+		Node d = differentiate(argument);
+		if (d == null) {
+			return null;
+		}
+		double scale = degree ? DEGREE : 1;
+		switch (function) {
+		case SIN:
+			return times(times(new ConstantNode(scale), new FunctionNode(MathFunction.COS, degree, argument)), d);
+		case COS:
+			return times(times(new ConstantNode(-scale), new FunctionNode(MathFunction.SIN, degree, argument)), d);
+		case TAN:
+			Node cos = new FunctionNode(MathFunction.COS, degree, argument);
+			return times(divide(new ConstantNode(scale), times(cos, cos)), d);
+		case LN:
+			// Never converted from degree
+			return divide(d, argument);
+		case SQRT:
+			return divide(d, times(new ConstantNode(2.0), new FunctionNode(MathFunction.SQRT, false, argument)));
+		}
+		return null;
+	}
+
+	/** Differentiates a polynomial, whose coefficients don't read its variable. */
+	private Node polynomial(Node[] children) {
+		Node variable = children[0];
+		int degree = children.length - 2;
+		Node[] coefficients = new Node[degree + 1];
+		boolean constant = true;
+		for (int i = 0; i <= degree; i++) {
+			coefficients[i] = differentiate(children[i + 1]);
+			if (coefficients[i] == null) {
+				return null;
+			}
+			constant &= isZero(coefficients[i]);
+		}
+		Node d = constant ? ZERO : new PolynomialNode(variable, coefficients);
+		if (((VariableNode) variable).slot() != slot || degree == 0) {
+			return d;
+		}
+		// Sum of k * c_k * x^(k - 1)
+		Node[] derived = new Node[degree];
+		for (int i = 0; i < degree; i++) {
+			derived[i] = times(new ConstantNode((double) (degree - i)), children[i + 1]);
+		}
+		return plus(degree == 1 ? derived[0] : new PolynomialNode(variable, derived), d);
+	}
+
+	/** Differentiates a sum, an average or a product; minimums and maximums have no derivative. */
+	private Node aggregate(MathAggregate aggregate, Node[] arguments) {
+		if (aggregate == MathAggregate.MIN || aggregate == MathAggregate.MAX) {
+			return null;
+		}
+		Node[] terms = new Node[arguments.length];
+		int count = 0;
+		for (int i = 0; i < arguments.length; i++) {
+			Node d = differentiate(arguments[i]);
+			if (d == null) {
+				return null;
+			}
+			if (isZero(d)) {
+				continue;
+			}
+			if (aggregate == MathAggregate.PROD) {
+				// Product rule, each factor derived in turn
+				Node[] others = new Node[arguments.length - 1];
+				for (int j = 0, k = 0; j < arguments.length; j++) {
+					if (j != i) {
+						others[k++] = arguments[j];
+					}
+				}
+				d = times(d, others.length == 1 ? others[0] : new AggregateNode(MathAggregate.PROD, others));
+			}
+			terms[count++] = d;
+		}
+		Node sum = count == 0 ? ZERO
+				: count == 1 ? terms[0] : new AggregateNode(MathAggregate.SUM, Arrays.copyOf(terms, count));
+		return aggregate == MathAggregate.AVG ? divide(sum, new ConstantNode((double) arguments.length)) : sum;
+	}
+
+	private static boolean isZero(Node node) {
+		return node instanceof ConstantNode && ((ConstantNode) node).value() == 0;
+	}
+
+	private static boolean isOne(Node node) {
+		return node instanceof ConstantNode && ((ConstantNode) node).value() == 1;
+	}
+
+	private static Node negate(Node node) {
+		return isZero(node) ? ZERO : new NegateNode(node);
+	}
+
+	private static Node plus(Node a, Node b) {
+		return isZero(a) ? b : isZero(b) ? a : new BinaryNode(MathOperator.PLUS, a, b);
+	}
+
+	private static Node minus(Node a, Node b) {
+		return isZero(b) ? a : isZero(a) ? negate(b) : new BinaryNode(MathOperator.MINUS, a, b);
+	}
+
+	private static Node times(Node a, Node b) {
+		if (isZero(a) || isZero(b)) {
+			return ZERO;
+		}
+		return isOne(a) ? b : isOne(b) ? a : new BinaryNode(MathOperator.TIMES, a, b);
+	}
+
+	private static Node divide(Node a, Node b) {
+		return isZero(a) ? ZERO : new BinaryNode(MathOperator.DIV, a, b);
+	}
+}
@@ -0,0 +1,96 @@
+package com.parser;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Describes the first syntax error found in a maths expression.
+ * 
+ * @since 1.1
+ */
+public final class Diagnostic implements Serializable {
+
+	private static final long serialVersionUID = -2312780641786503164L;
+
+	/** Classification of syntax errors. */
+	public static enum Kind {
+		/** The expression is null or blank. */
+		EMPTY,
+		/** A token other than the one found was expected. */
+		UNEXPECTED_TOKEN,
+		/** An operator is used where an operand is expected. */
+		MISPLACED_OPERATOR,
+		/** A parenthesis isn't matched. */
+		UNBALANCED_PARENTHESIS,
+		/** A name followed by '(' holds the name of a function, but isn't one. */
+		UNKNOWN_FUNCTION,
+		/** A name isn't usable as variable name. */
+		INVALID_NAME,
+		/** A numeric literal can't be parsed. */
+		INVALID_NUMBER,
+		/** A local is defined twice, or its name is also used as a variable. */
+		SCOPE,
+		/** The parameter of a window function isn't a constant in its range. */
+		INVALID_PARAMETER,
+		/** The expression exceeds a {@link ResourceLimits resource limit} of the compiler. */
+		RESOURCE_LIMIT;
+	}
+
+	private final Kind kind;
+	private final int offset;
+	private final String expected, found, message;
+
+	Diagnostic(Kind kind, int offset, String expected, String found, String message) {
+		this.kind = kind;
+		this.offset = offset;
+		this.expected = expected;
+		this.found = found;
+		this.message = message;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/** Gets the index, in the expression, of the faulty token. */
+	public int getOffset() {
+		return offset;
+	}
+
+	/** Gets the description of the expected token, {@code null} if not relevant. */
+	public String getExpected() {
+		return expected;
+	}
+
+	/** Gets the text of the faulty token, empty at the end of the expression. */
+	public String getFound() {
+		return found;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(kind, offset, expected, found, message);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		Diagnostic other = (Diagnostic) obj;
+		return kind == other.kind && offset == other.offset && Objects.equals(expected, other.expected)
+				&& Objects.equals(found, other.found) && Objects.equals(message, other.message);
+	}
+
+	@Override
+	public String toString() {
+		return message + " (offset " + offset + ")";
+	}
+}
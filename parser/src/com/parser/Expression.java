@@ -1,7 +1,5 @@
 package com.parser;
 
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 /** Clause of being maths expression. */
@@ -26,22 +24,22 @@ public interface Expression {
 	static int checkParenthesize(String expression) {
 		if (expression != null && !expression.isBlank()) {
 			int i = 0, len = expression.length();
+			int depth = 0, firstOpen = -1;
 			char c = 0;
-			List<Integer> open = new LinkedList<>(), closed = new LinkedList<>();
 			while (i < len) {
 				c = expression.charAt(i++);
 				if (c == '(') {
-					open.add(i);
+					depth++;
+					if (firstOpen < 0) {
+						firstOpen = i;
+					}
 				}
-				if (c == ')') {
-					closed.add(i);
-				}
-				if (closed.size() > open.size()) {
+				if (c == ')' && --depth < 0) {
 					return i;
 				}
 			}
-			if (closed.size() < open.size()) {
-				return open.get(0);
+			if (depth > 0) {
+				return firstOpen;
 			}
 		}
 		return -1;
@@ -93,20 +91,20 @@ public interface Expression {
 	 * @return {@code true} if and only if the name is syntaxically valid.
 	 */
 	static boolean isUsableAsVariableName(String name) {
-		if (name == null || name.isBlank() || name.matches(".*\\s+.*")) {
-			// the name is null or contains white character
+		if (name == null || name.isEmpty() || name.length() > VARIABLE_NAME_MAX_LENGTH) {
 			return false;
 		}
-		if (name.matches("^[^a-zA-Z_].*")) {
+		char c = name.charAt(0);
+		if (c != '_' && !(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z')) {
 			// the first character is not '_' and is not in a-z or A-Z
 			return false;
 		}
-		if (name.matches(".*[^a-zA-Z1-9_]+.*")) {
-			// the name isn't alpha numeric
-			return false;
-		}
-		if (name.length() > VARIABLE_NAME_MAX_LENGTH) {
-			return false;
+		for (int i = 1; i < name.length(); i++) {
+			c = name.charAt(i);
+			if (c != '_' && !(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && !(c >= '1' && c <= '9')) {
+				// the name isn't alpha numeric, or contains white character
+				return false;
+			}
 		}
 		return true;
 	}
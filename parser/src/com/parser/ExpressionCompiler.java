@@ -0,0 +1,753 @@
+package com.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compiles maths expressions into {@link CompiledExpression}. Unlike
+ * {@link FunctionExpression}, which rewrites the text of the expression at each
+ * evaluation, the expression is parsed once into a tree that can then be
+ * evaluated many times with different variable values.
+ * <br/>
+ * Sub trees only made of integers and operators preserving integers are
+ * evaluated with exact {@code long} arithmetic as long as the variables they
+ * read hold integers and no overflow occurs, {@code double} arithmetic being
+ * used otherwise.
+ * <br/>
+ * Polynomials in a single variable are evaluated in Horner form with fused
+ * multiply adds, and small integer powers by multiplications, see
+ * {@link #setRewritingPowers(boolean)}.
+ * <br/>
+ * Besides the functions of {@link FunctionExpression}, expressions may call
+ * the {@link MathAggregate} functions on any number of arguments, like
+ * {@code max(a, b, c)}. Long chains of additions or multiplications are
+ * evaluated the same way, see {@link #setFlatteningChains(boolean)}.
+ * <br/>
+ * Intermediate results are named by local bindings, like
+ * {@code let d = b^2 - 4*a*c in (-b + sqrt(d)) / (2*a)}, computed once per
+ * evaluation into slots of the frame following those of the variables.
+ * <br/>
+ * The {@link MathWindow} functions, like {@code movavg(price, 20)}, make an
+ * expression evaluated over a stream of ticks, one per evaluation: the state
+ * of their windows belongs to the compiled expression, see
+ * {@link CompiledExpression#reset()}.
+ * <br/>
+ * Compiled expressions are first evaluated by walking their tree. Those
+ * evaluated at least {@link #getPromotionThreshold()} times are promoted to
+ * generated code in background, see {@link #getTieringMetrics()}.
+ * 
+ * @since 1.1
+ */
+public class ExpressionCompiler {
+
+	/** Default number of evaluations after which an expression is promoted. */
+	public static final int DEFAULT_PROMOTION_THRESHOLD = 10_000;
+	/** Minimum number of operands of a chain of operations evaluated as a single aggregate. */
+	public static final int MIN_CHAIN = 8;
+
+	private static Executor defaultPromotionExecutor;
+
+	private boolean degree;
+	private boolean memoizing;
+	private boolean rewritingPowers = true;
+	private boolean flatteningChains = true;
+	private int promotionThreshold = DEFAULT_PROMOTION_THRESHOLD;
+	private Executor promotionExecutor;
+	private ResourceLimits limits;
+	private final TieringMetrics tieringMetrics = new TieringMetrics();
+
+	/**
+	 * Creates a new compiler.
+	 * 
+	 * @param degree use true if trigonometrics functions are to eval using angle
+	 *               measure in degree. Value {@code false} means using radian.
+	 */
+	public ExpressionCompiler(boolean degree) {
+		this.degree = degree;
+	}
+
+	/** Alias of {@link #ExpressionCompiler(boolean)} using {@code true}. */
+	public ExpressionCompiler() {
+		this(true);
+	}
+
+	/**
+	 * Compiles the specified expression.
+	 * 
+	 * @param expression the expression to compile.
+	 * @return the compiled expression.
+	 * @throws ParserException        if the expression is malformed.
+	 * @throws ResourceLimitException if the expression exceeds the limits of
+	 *                                this compiler.
+	 */
+	public CompiledExpression compile(String expression) throws ParserException {
+		if (expression == null || expression.isBlank()) {
+			throw new ValueException("Null or blank value aren't usable to instance expression.");
+		}
+		ExpressionParser parser = new ExpressionParser(expression, degree, new LinkedHashMap<>(), budget());
+		return compile(expression, parser.parse(), parser.variables());
+	}
+
+	/**
+	 * Compiles an expression already parsed, e.g. by an editor validating it at
+	 * each keystroke.
+	 *
+	 * @param parsed the result of the parsing of the expression by this compiler.
+	 * @return the compiled expression.
+	 * @throws ExpressionFormatException if the expression is malformed.
+	 * @throws ResourceLimitException    if the expression exceeds the limits of
+	 *                                   this compiler.
+	 */
+	public CompiledExpression compile(ParseResult parsed) throws ParserException {
+		if (!parsed.isValid()) {
+			throw new ExpressionFormatException(parsed.getDiagnostic());
+		}
+		if (parsed.degree != degree) {
+			return compile(parsed.getExpression());
+		}
+		return compile(parsed.getExpression(), parsed.root, parsed.variableNames);
+	}
+
+	private CompiledExpression compile(String expression, Node parsed, String[] variables) {
+		int locals = LetNode.count(parsed);
+		Node root = flattenChains(rewritePowers(inferIntegral(fold(LetNode.locate(parsed, variables.length)))));
+		if (memoizing) {
+			root = memoize(root);
+		}
+		root = WindowNode.renew(root);
+		int size = size(root);
+		if (limits != null && size > limits.getMaxSteps()) {
+			throw new ResourceLimitException(ResourceLimitException.Limit.STEPS, limits.getMaxSteps(),
+					"Evaluation of " + size + " steps, at most " + limits.getMaxSteps() + " allowed.");
+		}
+		return new CompiledExpression(expression, root, variables, locals, promotionThreshold,
+				getPromotionExecutor(), tieringMetrics, limits, size);
+	}
+
+	/**
+	 * Compiles the specified formulas together into one program evaluating all
+	 * of them in a single pass. The formulas share their variables, and the sub
+	 * expressions they have in common are computed once. The locals of a formula
+	 * can't be named like the variables of the previous ones.
+	 * 
+	 * @param formulas the expressions to compile, by name.
+	 * @return the program, whose results follow the iteration order of
+	 *         {@code formulas}.
+	 * @throws ParserException        if a formula is malformed.
+	 * @throws ResourceLimitException if a formula exceeds the limits of this
+	 *                                compiler.
+	 */
+	public FusedProgram compileAll(Map<String, String> formulas) throws ParserException {
+		Map<String, Integer> slots = new LinkedHashMap<>();
+		String[] names = new String[formulas.size()];
+		Node[] roots = new Node[formulas.size()];
+		int i = 0;
+		for (Map.Entry<String, String> formula : formulas.entrySet()) {
+			String expression = formula.getValue();
+			if (expression == null || expression.isBlank()) {
+				throw new ValueException("Null or blank value aren't usable to instance expression.");
+			}
+			try {
+				roots[i] = new ExpressionParser(expression, degree, slots, budget()).parse();
+			} catch (ExpressionFormatException e) {
+				throw new ExpressionFormatException("Formula '" + formula.getKey() + "': " + e.getMessage(), e);
+			}
+			names[i++] = formula.getKey();
+		}
+		// The locals of each formula follow all the variables, then the locals of the previous formulas
+		int frameSize = slots.size();
+		for (i = 0; i < roots.length; i++) {
+			int locals = LetNode.count(roots[i]);
+			roots[i] = WindowNode.renew(
+					flattenChains(rewritePowers(inferIntegral(fold(LetNode.locate(roots[i], frameSize))))));
+			frameSize += locals;
+		}
+		return FusedCompiler.compile(names, roots, slots.keySet().toArray(new String[0]), frameSize);
+	}
+
+	/**
+	 * Computes the canonical form of the specified expression, shared by its
+	 * writings differing only by whitespace, case of function names, redundant
+	 * parentheses, constant sub expressions or order of the operands of
+	 * {@code +} and {@code *}.
+	 *
+	 * @param expression the expression to normalize.
+	 * @return the canonical form, whose text compiles to an expression
+	 *         evaluating to the same values.
+	 * @throws ParserException        if the expression is malformed.
+	 * @throws ResourceLimitException if the expression exceeds the limits of
+	 *                                this compiler.
+	 */
+	public CanonicalForm canonicalize(String expression) throws ParserException {
+		if (expression == null || expression.isBlank()) {
+			throw new ValueException("Null or blank value aren't usable to instance expression.");
+		}
+		return Canonicalizer.of(fold(new ExpressionParser(expression, degree, new LinkedHashMap<>(), budget()).parse()));
+	}
+
+	/**
+	 * Checks the syntax of the specified expression in a single pass, without
+	 * evaluating it nor requiring its variables to be bound.
+	 * 
+	 * @param expression the expression to check.
+	 * @return the result of the validation, holding the first syntax error if any
+	 *         and the variables referenced by the expression. An expression
+	 *         exceeding the limits of this compiler is reported by a
+	 *         {@link Diagnostic.Kind#RESOURCE_LIMIT} diagnostic.
+	 * @throws ResourceLimitException if the calling thread is interrupted.
+	 */
+	public ValidationResult validate(String expression) {
+		if (expression == null || expression.isBlank()) {
+			Diagnostic diagnostic = new Diagnostic(Diagnostic.Kind.EMPTY, 0, "operand", "",
+					"Null or blank value aren't usable to instance expression.");
+			return new ValidationResult(expression, diagnostic, Collections.emptySet());
+		}
+		ExpressionParser parser = new ExpressionParser(expression, degree, new LinkedHashMap<>(), budget());
+		Diagnostic diagnostic = null;
+		try {
+			parser.parse();
+		} catch (ExpressionFormatException e) {
+			diagnostic = e.getDiagnostic();
+		} catch (ResourceLimitException e) {
+			if (e.getLimit() == ResourceLimitException.Limit.INTERRUPTED) {
+				throw e;
+			}
+			diagnostic = parser.limitExceeded(e);
+		}
+		Set<String> variables = Collections.unmodifiableSet(new LinkedHashSet<>(parser.variableSet()));
+		return new ValidationResult(expression, diagnostic, variables);
+	}
+
+	/**
+	 * Parses the specified expression, keeping its tree for
+	 * {@link #reparse(ParseResult, int, int, String)} and
+	 * {@link #compile(ParseResult)}.
+	 *
+	 * @param expression the expression to parse.
+	 * @return the result of the parsing, holding the first syntax error if any
+	 *         and the variables referenced by the expression.
+	 * @throws ResourceLimitException if the expression exceeds the limits of
+	 *                                this compiler.
+	 */
+	public ParseResult parse(String expression) {
+		return parse(expression, null, 0, 0, 0);
+	}
+
+	/**
+	 * Parses an expression after an edit of its text, e.g. a keystroke in an
+	 * editor. Only the parenthesis blocks touched by the edit and those holding
+	 * them are parsed again; the sub trees of the other blocks are reused, so
+	 * that the time taken depends on the size of the edited block rather than
+	 * on the size of the expression. Edits adding or removing the first
+	 * occurrence of a variable change the slots of the variables after it,
+	 * whose blocks are then parsed again.
+	 *
+	 * @param previous the result of the parsing of the expression before the
+	 *                 edit.
+	 * @param offset   the offset of the edit in the previous expression.
+	 * @param removed  the number of characters removed at {@code offset}.
+	 * @param inserted the text inserted at {@code offset}.
+	 * @return the result of the parsing of the edited expression.
+	 * @throws IndexOutOfBoundsException if the removed characters aren't in the
+	 *                                   previous expression.
+	 * @throws ResourceLimitException    if the expression exceeds the limits of
+	 *                                   this compiler.
+	 */
+	public ParseResult reparse(ParseResult previous, int offset, int removed, String inserted) {
+		String text = previous.getExpression() == null ? "" : previous.getExpression();
+		if (offset < 0 || removed < 0 || offset > text.length() - removed) {
+			throw new IndexOutOfBoundsException("Edit of " + removed + " characters at offset " + offset
+					+ " out of an expression of " + text.length() + " characters.");
+		}
+		String expression = new StringBuilder(text.length() - removed + inserted.length()).append(text, 0, offset)
+				.append(inserted).append(text, offset + removed, text.length()).toString();
+		return parse(expression, previous.degree == degree ? previous : null, offset, removed, inserted.length());
+	}
+
+	private ParseResult parse(String expression, ParseResult previous, int offset, int removed, int inserted) {
+		if (expression == null || expression.isBlank()) {
+			Diagnostic diagnostic = new Diagnostic(Diagnostic.Kind.EMPTY, 0, "operand", "",
+					"Null or blank value aren't usable to instance expression.");
+			return new ParseResult(expression, diagnostic, Collections.emptySet(), null, null, new String[0], degree,
+					0);
+		}
+		ExpressionParser parser = new ExpressionParser(expression, degree, new LinkedHashMap<>(), budget());
+		if (previous != null && previous.groups != null) {
+			parser.reuse(previous.groups, previous.variableNames, offset, removed, inserted);
+		} else {
+			parser.record();
+		}
+		Node root = null;
+		Diagnostic diagnostic = null;
+		try {
+			root = parser.parse();
+		} catch (ExpressionFormatException e) {
+			diagnostic = e.getDiagnostic();
+		}
+		Set<String> variables = Collections.unmodifiableSet(new LinkedHashSet<>(parser.variableSet()));
+		return new ParseResult(expression, diagnostic, variables, root, parser.groups(root), parser.variables(),
+				degree, parser.reusedGroups());
+	}
+
+	/**
+	 * Checks the syntax of each of the specified expressions.
+	 * 
+	 * @param expressions the expressions to check.
+	 * @return the results of the validations, in the iteration order of
+	 *         {@code expressions}. An expression exceeding the limits of this
+	 *         compiler fails its own validation only.
+	 * @throws ResourceLimitException if the calling thread is interrupted.
+	 * @see #validate(String)
+	 */
+	public List<ValidationResult> validateAll(Iterable<String> expressions) {
+		List<ValidationResult> results = new ArrayList<>();
+		for (String expression : expressions) {
+			results.add(validate(expression));
+		}
+		return results;
+	}
+
+	/** Creates the budget of a call to the parser, {@code null} if unlimited. */
+	private Budget budget() {
+		return limits == null ? null : new Budget(limits);
+	}
+
+	/**
+	 * Gets the number of nodes of a tree, each of them being an evaluation step.
+	 * Integral sub trees evaluate either their body or their fallback, only the
+	 * body is counted, and chains count one step per operation.
+	 */
+	static int size(Node node) {
+		if (node instanceof IntegralNode) {
+			return 1 + size(node.children()[0]);
+		}
+		int size = node instanceof ChainNode ? ((ChainNode) node).length() - 1 : 1;
+		for (Node child : node.children()) {
+			size += size(child);
+		}
+		return size;
+	}
+
+	/**
+	 * Replaces each sub tree not reading any variable by its value. Locals bound
+	 * to a constant are replaced by it, and unused locals removed. Window
+	 * functions are kept, their value depending on the previous ticks.
+	 */
+	static Node fold(Node node) {
+		Node[] children = node.children();
+		if (children.length == 0) {
+			return node;
+		}
+		if (node instanceof LetNode) {
+			LetNode let = (LetNode) node;
+			Node value = fold(let.value()), body = fold(let.body());
+			if (value instanceof ConstantNode) {
+				return fold(substitute(body, let.slot(), value));
+			}
+			return reads(body, let.slot()) ? new LetNode(let.name(), let.slot(), value, body) : body;
+		}
+		boolean constant = true;
+		Node[] folded = new Node[children.length];
+		for (int i = 0; i < children.length; i++) {
+			folded[i] = fold(children[i]);
+			constant &= folded[i] instanceof ConstantNode;
+		}
+		node = node.withChildren(folded);
+		if (!constant && node instanceof ChainNode) {
+			return foldLeading((ChainNode) node);
+		}
+		if (!constant || node instanceof WindowNode) {
+			return node;
+		}
+		if (node.isIntegral()) {
+			try {
+				return new ConstantNode(node.evalLong(null));
+			} catch (ArithmeticException e) {
+				// Not exact, keep double arithmetic
+			}
+		}
+		return new ConstantNode(node.eval(null));
+	}
+
+	/**
+	 * Folds the leading constant operands of a chain, as they would be in a
+	 * spine of {@link BinaryNode}.
+	 */
+	private static Node foldLeading(ChainNode chain) {
+		Node first = chain.operand(0);
+		int next = 1;
+		while (first instanceof ConstantNode && chain.operand(next) instanceof ConstantNode) {
+			first = fold(new BinaryNode(chain.operator(next), first, chain.operand(next)));
+			next++;
+		}
+		return next == 1 ? chain : rest(chain, first, next);
+	}
+
+	/**
+	 * Rebuilds a chain whose operands before the specified index are replaced
+	 * by a single one.
+	 */
+	private static Node rest(ChainNode chain, Node first, int next) {
+		int count = chain.length() - next + 1;
+		Node[] operands = new Node[count];
+		MathOperator[] operators = new MathOperator[count - 1];
+		operands[0] = first;
+		for (int i = 1; i < count; i++) {
+			operands[i] = chain.operand(next + i - 1);
+			operators[i - 1] = chain.operator(next + i - 1);
+		}
+		return ChainNode.of(operands, operators, count);
+	}
+
+	/** Tests if a tree reads the variable of the specified slot. */
+	private static boolean reads(Node node, int slot) {
+		if (node instanceof VariableNode) {
+			return ((VariableNode) node).slot() == slot;
+		}
+		for (Node child : node.children()) {
+			if (reads(child, slot)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Replaces the variable of the specified slot by a tree. */
+	private static Node substitute(Node node, int slot, Node replacement) {
+		if (node instanceof VariableNode) {
+			return ((VariableNode) node).slot() == slot ? replacement : node;
+		}
+		Node[] children = node.children();
+		if (children.length == 0) {
+			return node;
+		}
+		boolean changed = false;
+		Node[] substituted = new Node[children.length];
+		for (int i = 0; i < children.length; i++) {
+			substituted[i] = substitute(children[i], slot, replacement);
+			changed |= substituted[i] != children[i];
+		}
+		return changed ? node.withChildren(substituted) : node;
+	}
+
+	/** Wraps each maximal integral sub tree, with at least one operation, into an {@link IntegralNode}. */
+	static Node inferIntegral(Node node) {
+		Node[] children = node.children();
+		if (children.length == 0) {
+			return node;
+		}
+		if (node.isIntegral()) {
+			return node instanceof IntegralNode ? node : new IntegralNode(node);
+		}
+		if (node instanceof ChainNode) {
+			return inferIntegral((ChainNode) node);
+		}
+		Node[] rewritten = new Node[children.length];
+		for (int i = 0; i < children.length; i++) {
+			rewritten[i] = inferIntegral(children[i]);
+		}
+		return node.withChildren(rewritten);
+	}
+
+	/**
+	 * Wraps the longest integral prefix of a chain, with at least one
+	 * operation, like the integral left sub tree of a spine.
+	 */
+	private static Node inferIntegral(ChainNode chain) {
+		int prefix = 1;
+		while (chain.operand(prefix - 1).isIntegral() && chain.operand(prefix).isIntegral()
+				&& chain.operator(prefix).preservesIntegers()) {
+			prefix++;
+		}
+		Node first = prefix > 1 ? new IntegralNode(chain.prefix(prefix)) : inferIntegral(chain.operand(0));
+		Node[] operands = new Node[chain.length()];
+		MathOperator[] operators = new MathOperator[chain.length() - 1];
+		operands[0] = first;
+		for (int i = 1; i <= chain.length() - prefix; i++) {
+			operands[i] = inferIntegral(chain.operand(prefix + i - 1));
+			operators[i - 1] = chain.operator(prefix + i - 1);
+		}
+		return ChainNode.of(operands, operators, chain.length() - prefix + 1);
+	}
+
+	private Node rewritePowers(Node root) {
+		return rewritingPowers ? PolynomialRewriter.rewrite(root) : root;
+	}
+
+	private Node flattenChains(Node root) {
+		return flatteningChains ? flatten(root) : root;
+	}
+
+	/**
+	 * Replaces each chain of at least {@link #MIN_CHAIN} operands of {@code +}
+	 * and {@code -}, like {@code a + b - c + ...}, by a compensated
+	 * {@link MathAggregate#SUM} of the operands, subtracted ones negated, and
+	 * each such chain of {@code *} by a {@link MathAggregate#PROD}. The exact
+	 * {@code long} evaluation of integral sub trees is kept, only their fallback
+	 * being flattened.
+	 */
+	static Node flatten(Node node) {
+		if (node instanceof IntegralNode) {
+			IntegralNode integral = (IntegralNode) node;
+			Node fallback = flatten(integral.fallback());
+			return fallback == integral.fallback() ? node : new IntegralNode(integral.children()[0], fallback);
+		}
+		if (node instanceof ChainNode) {
+			return flatten((ChainNode) node);
+		}
+		MathAggregate aggregate = chain(node);
+		if (aggregate != null) {
+			List<Node> spine = spine(node, aggregate);
+			if (spine.size() + 1 >= MIN_CHAIN) {
+				return new AggregateNode(aggregate, operands(spine));
+			}
+		}
+		Node[] children = node.children();
+		if (children.length == 0) {
+			return node;
+		}
+		boolean changed = false;
+		Node[] flattened = new Node[children.length];
+		for (int i = 0; i < children.length; i++) {
+			flattened[i] = flatten(children[i]);
+			changed |= flattened[i] != children[i];
+		}
+		return changed ? node.withChildren(flattened) : node;
+	}
+
+	/**
+	 * Flattens the runs of {@code +} and {@code -}, or of {@code *}, of a
+	 * chain node, from left to right, each run applying to the result of the
+	 * operands before it. Once {@link #MIN_CHAIN} runs are flattened, the
+	 * remaining ones are kept as written, so that the aggregates nested into
+	 * each other don't make the tree arbitrarily high.
+	 */
+	private static Node flatten(ChainNode chain) {
+		int length = chain.length();
+		Node[] operands = new Node[length];
+		MathOperator[] operators = new MathOperator[length - 1];
+		operands[0] = flatten(chain.operand(0));
+		int count = 1, runs = 0;
+		for (int i = 1; i < length;) {
+			MathAggregate aggregate = aggregate(chain.operator(i));
+			int end = i + 1;
+			while (aggregate != null && end < length && aggregate(chain.operator(end)) == aggregate) {
+				end++;
+			}
+			if (aggregate != null && end - i + 1 >= MIN_CHAIN && runs < MIN_CHAIN) {
+				Node[] run = new Node[end - i + 1];
+				run[0] = ChainNode.of(operands, operators, count);
+				for (int j = i; j < end; j++) {
+					Node operand = flatten(chain.operand(j));
+					run[j - i + 1] = chain.operator(j) == MathOperator.MINUS ? new NegateNode(operand) : operand;
+				}
+				operands[0] = new AggregateNode(aggregate, run);
+				count = 1;
+				runs++;
+			} else {
+				for (int j = i; j < end; j++) {
+					operators[count - 1] = chain.operator(j);
+					operands[count++] = flatten(chain.operand(j));
+				}
+			}
+			i = end;
+		}
+		return ChainNode.of(operands, operators, count);
+	}
+
+	/** Gets the aggregate of the chain rooted at a node, {@code null} if it isn't an operation of a chain. */
+	private static MathAggregate chain(Node node) {
+		return node instanceof BinaryNode ? aggregate(((BinaryNode) node).operator()) : null;
+	}
+
+	/** Gets the aggregate of the chains of an operator, {@code null} if it has none. */
+	private static MathAggregate aggregate(MathOperator operator) {
+		switch (operator) {
+		case PLUS:
+		case MINUS:
+			return MathAggregate.SUM;
+		case TIMES:
+			return MathAggregate.PROD;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the operations of a chain, from its root down its left spine, so
+	 * that long chains are walked without recursion.
+	 */
+	private static List<Node> spine(Node node, MathAggregate aggregate) {
+		List<Node> spine = new ArrayList<>();
+		for (; chain(node) == aggregate; node = node.children()[0]) {
+			spine.add(node);
+		}
+		return spine;
+	}
+
+	/** Gets the operands of a chain, from its left most one, flattening them in turn. */
+	private static Node[] operands(List<Node> spine) {
+		Node[] operands = new Node[spine.size() + 1];
+		operands[0] = flatten(spine.get(spine.size() - 1).children()[0]);
+		for (int i = 1; i < operands.length; i++) {
+			Node operation = spine.get(spine.size() - i);
+			Node right = flatten(operation.children()[1]);
+			operands[i] = ((BinaryNode) operation).operator() == MathOperator.MINUS ? new NegateNode(right) : right;
+		}
+		return operands;
+	}
+
+	/** Replaces each function call by a call remembering its last results. */
+	static Node memoize(Node node) {
+		Node[] children = node.children();
+		if (children.length == 0 || node instanceof IntegralNode) {
+			return node;
+		}
+		Node[] rewritten = new Node[children.length];
+		for (int i = 0; i < children.length; i++) {
+			rewritten[i] = memoize(children[i]);
+		}
+		if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			return new MemoizedFunctionNode(function.function(), function.isDegree(), rewritten[0]);
+		}
+		return node.withChildren(rewritten);
+	}
+
+	/** Gets the shared daemon thread generating code for promoted expressions. */
+	private static synchronized Executor defaultPromotionExecutor() {
+		if (defaultPromotionExecutor == null) {
+			ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+				Thread thread = new Thread(task, "expression-promotion");
+				thread.setDaemon(true);
+				return thread;
+			});
+			defaultPromotionExecutor = executor;
+		}
+		return defaultPromotionExecutor;
+	}
+
+	/** Gets the number of evaluations after which an expression is promoted, {@code 0} if disabled. */
+	public int getPromotionThreshold() {
+		return promotionThreshold;
+	}
+
+	/**
+	 * Sets the number of evaluations after which an expression compiled by this
+	 * compiler is promoted to generated code.
+	 * 
+	 * @param promotionThreshold the threshold, {@code 0} to never promote.
+	 */
+	public void setPromotionThreshold(int promotionThreshold) {
+		this.promotionThreshold = Math.max(0, promotionThreshold);
+	}
+
+	/** Gets the executor generating code for promoted expressions. */
+	public Executor getPromotionExecutor() {
+		return promotionExecutor == null ? defaultPromotionExecutor() : promotionExecutor;
+	}
+
+	/**
+	 * Sets the executor generating code for promoted expressions.
+	 * 
+	 * @param promotionExecutor the executor, {@code null} for a shared daemon
+	 *                          thread.
+	 */
+	public void setPromotionExecutor(Executor promotionExecutor) {
+		this.promotionExecutor = promotionExecutor;
+	}
+
+	/** Gets the counters of the promotions of the expressions compiled by this compiler. */
+	public TieringMetrics getTieringMetrics() {
+		return tieringMetrics;
+	}
+
+	/** Tests if function calls remember their last results, see {@link #setMemoizing(boolean)}. */
+	public boolean isMemoizing() {
+		return memoizing;
+	}
+
+	/**
+	 * Sets whether each function call of the expressions compiled by this
+	 * compiler remembers its last results. This pays off when the arguments take
+	 * few distinct values, e.g. a column of angles or tenors; the cache of a call
+	 * disables itself when its hit rate is low. Disabled by default.
+	 * 
+	 * @param memoizing {@code true} to remember results.
+	 */
+	public void setMemoizing(boolean memoizing) {
+		this.memoizing = memoizing;
+	}
+
+	/** Gets the limits of the resources used by expressions, {@code null} if unlimited. */
+	public ResourceLimits getLimits() {
+		return limits == null ? null : new ResourceLimits(limits);
+	}
+
+	/**
+	 * Sets the limits of the resources used to parse the expressions compiled by
+	 * this compiler, then to evaluate them in batches. A single evaluation being
+	 * free of loops, its number of steps is checked once, at compile time.
+	 * Batches also check the timeout and the interrupted status of the thread
+	 * every {@value Budget#CHECK_INTERVAL} rows.
+	 * 
+	 * @param limits the limits, copied, {@code null} for none.
+	 */
+	public void setLimits(ResourceLimits limits) {
+		this.limits = limits == null ? null : new ResourceLimits(limits);
+	}
+
+	/** Tests if polynomials and small powers are rewritten, see {@link #setRewritingPowers(boolean)}. */
+	public boolean isRewritingPowers() {
+		return rewritingPowers;
+	}
+
+	/**
+	 * Sets whether the polynomials in a single variable, like
+	 * {@code a*x^3 + b*x^2 + c*x + d}, are evaluated in Horner form with fused
+	 * multiply adds, and the powers by a constant exponent from {@code 2} to
+	 * {@code 4} by multiplications, instead of calling {@link Math#pow} per
+	 * term. Enabled by default.
+	 * 
+	 * @param rewritingPowers {@code false} to evaluate the expressions as
+	 *                        written.
+	 */
+	public void setRewritingPowers(boolean rewritingPowers) {
+		this.rewritingPowers = rewritingPowers;
+	}
+
+	/** Tests if long chains of operations are flattened, see {@link #setFlatteningChains(boolean)}. */
+	public boolean isFlatteningChains() {
+		return flatteningChains;
+	}
+
+	/**
+	 * Sets whether the chains of at least {@link #MIN_CHAIN} additions and
+	 * subtractions, like {@code a + b - c + ...}, are evaluated as a single
+	 * {@code sum} with compensated summation, more accurate than additions
+	 * from left to right, and the chains of multiplications as a single
+	 * {@code prod}. Enabled by default.
+	 * 
+	 * @param flatteningChains {@code false} to evaluate the expressions as
+	 *                         written.
+	 */
+	public void setFlatteningChains(boolean flatteningChains) {
+		this.flatteningChains = flatteningChains;
+	}
+
+	public boolean isDegree() {
+		return degree;
+	}
+
+	public void setDegree(boolean degree) {
+		this.degree = degree;
+	}
+}
@@ -2,16 +2,41 @@ package com.parser;
 
 public class ExpressionFormatException extends ParserException {
 
+	private final Diagnostic diagnostic;
+
 	public ExpressionFormatException(String message, Throwable cause) {
 		super(message, cause);
+		this.diagnostic = null;
 	}
 
 	public ExpressionFormatException(String message) {
 		super(message);
+		this.diagnostic = null;
 	}
 
 	public ExpressionFormatException(Throwable cause) {
 		super(cause);
+		this.diagnostic = null;
+	}
+
+	/**
+	 * Creates an exception describing a syntax error.
+	 * 
+	 * @param diagnostic the description of the error.
+	 */
+	public ExpressionFormatException(Diagnostic diagnostic) {
+		super(diagnostic.toString());
+		this.diagnostic = diagnostic;
+	}
+
+	/**
+	 * Gets the structured description of the syntax error.
+	 * 
+	 * @return the diagnostic, {@code null} if the exception wasn't raised by
+	 *         syntax analysis.
+	 */
+	public Diagnostic getDiagnostic() {
+		return diagnostic;
 	}
 
 	private static final long serialVersionUID = 8940151603765126613L;
@@ -0,0 +1,727 @@
+package com.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.parser.Diagnostic.Kind;
+
+/**
+ * Recursive descent parser building the tree of {@link Node} of an expression
+ * in a single pass over its tokens. The grammar is the one evaluated by
+ * {@link FunctionExpression}: operators are left associative, unary signs bind
+ * looser than {@link MathOperator#POW} only, and a parenthesis block stuck to
+ * a value is an implicit multiplication. A function name followed by '(' is
+ * a call, any other name a variable multiplied by the block, like
+ * {@code a (b + 1)}, unless it holds the name of a function, e.g. a
+ * misspelled one like {@code sine(x)}, which the legacy evaluator rejects
+ * too. The names of the {@link MathAggregate} functions, whose arguments are
+ * separated by commas, remain usable as variable names elsewhere, like the
+ * names of the {@link MathWindow} functions, taking an argument then a
+ * constant parameter.
+ * <br/>
+ * Runs of at least {@link ExpressionCompiler#MIN_CHAIN} operands of left
+ * associative operators, like {@code a + b + c ...}, are built as a single
+ * {@link ChainNode} rather than as a spine of {@link BinaryNode}, so that the
+ * height of the tree doesn't grow with the length of the expression. The
+ * nesting of the parentheses, calls and locals being parsed, and the height
+ * of the tree, are bounded by the maximal depth of the {@link Budget}, or
+ * {@link ResourceLimits#DEFAULT_MAX_DEPTH} without budget, so that neither
+ * the parser nor the recursive passes over the tree overflow the stack.
+ * <br/>
+ * {@code let d = b^2 - 4*a*c, r = sqrt(d) in (-b + r) / (2*a)} binds locals,
+ * each computed once per evaluation, up to the end of the body, which extends
+ * as far as possible. A local can't redefine another one in scope, nor share
+ * its name with a variable of the expression.
+ * <br/>
+ * Syntax errors are raised as {@link ExpressionFormatException} holding a
+ * {@link Diagnostic}.
+ * <br/>
+ * On demand, the parenthesis blocks are recorded in a tree of
+ * {@link ParseGroup}, see {@link #record()}. When
+ * parsing an edited expression, see {@link #reuse(ParseGroup, String[], int,
+ * int, int)}, the blocks of the previous parse whose text the edit left
+ * intact are skipped and their sub trees reused. A block is only reused while
+ * the variables met so far are those of the previous parse, in the same order,
+ * so that the slots of the reused sub tree stay valid. Blocks are neither
+ * recorded nor reused once a local is defined, their names depending on the
+ * scope.
+ */
+final class ExpressionParser {
+
+	private static final int UNARY_PRECEDENCE = MathOperator.POW.getPrecedence();
+	private static final String OPERAND = "operand", OPERATOR = "operator";
+
+	private final Lexer lexer;
+	private final boolean degree;
+	private final Map<String, Integer> slots;
+	private final Budget budget;
+	private final int maxDepth;
+	/** Nesting depth of the blocks, calls and locals being parsed. */
+	private int depth;
+	/** Height of the tree of the operand or operation parsed last, {@code 1} for a leaf. */
+	private int height;
+	private int rootHeight;
+	private int previousKind = Lexer.END;
+	private int tokens, nodes;
+	private boolean recording;
+	/** Blocks being parsed, the root one at index {@code 0}. */
+	private Level[] levels = { new Level() };
+	private int level;
+	/** Previous parse, {@code null} if none. */
+	private ParseGroup previous;
+	private String[] previousVariables;
+	/** Edit of the previous expression: offset, number of removed then of inserted characters. */
+	private int editOffset, removed, inserted;
+	/** Number of leading slots given to the same variables as in the previous parse. */
+	private int matching;
+	private int reused;
+	/** Number of locals defined so far, the index of the next one. */
+	private int locals;
+	/** Locals in scope, the innermost last, and the slots they are given. */
+	private final List<String> scope = new ArrayList<>();
+	private final List<Integer> scopeSlots = new ArrayList<>();
+	/** Names of all the locals defined so far. */
+	private final Set<String> localNames = new HashSet<>();
+	/** Number of local definitions being parsed, where {@code in} ends a value. */
+	private int definitions;
+
+	/** Block being parsed, collecting the blocks it holds. */
+	private static final class Level {
+		int start, tokens, nodes, slots, height, count;
+		int[] starts = new int[4];
+		ParseGroup[] children = new ParseGroup[4];
+
+		void add(int start, ParseGroup group) {
+			if (count == starts.length) {
+				starts = Arrays.copyOf(starts, count * 2);
+				children = Arrays.copyOf(children, count * 2);
+			}
+			starts[count] = start;
+			children[count++] = group;
+		}
+	}
+
+	ExpressionParser(String expression, boolean degree) {
+		this(expression, degree, new LinkedHashMap<>(), null);
+	}
+
+	/**
+	 * Creates a parser assigning the slots of the variables in the specified
+	 * map, shared by the expressions compiled together.
+	 *
+	 * @param budget the budget counting the tokens, nesting depth and nodes of
+	 *               the expression, {@code null} if unlimited.
+	 */
+	ExpressionParser(String expression, boolean degree, Map<String, Integer> slots, Budget budget) {
+		this.lexer = new Lexer(expression);
+		this.degree = degree;
+		this.slots = slots;
+		this.budget = budget;
+		this.maxDepth = budget == null ? ResourceLimits.DEFAULT_MAX_DEPTH : budget.maxDepth();
+		if (budget != null) {
+			budget.length(expression.length());
+		}
+	}
+
+	/** Records the parenthesis blocks, see {@link #groups(Node)}. Must be called before {@link #parse()}. */
+	void record() {
+		recording = true;
+	}
+
+	/**
+	 * Reuses the blocks of a previous parse, the expression being the previous
+	 * one edited once, and records the blocks. Must be called before
+	 * {@link #parse()}.
+	 *
+	 * @param previous          the root block of the previous parse.
+	 * @param previousVariables the variables of the previous parse, by slot.
+	 * @param offset            the offset of the edit in the previous
+	 *                          expression.
+	 * @param removed           the number of characters removed at
+	 *                          {@code offset}.
+	 * @param inserted          the number of characters inserted instead.
+	 */
+	void reuse(ParseGroup previous, String[] previousVariables, int offset, int removed, int inserted) {
+		this.previous = previous;
+		this.previousVariables = previousVariables;
+		this.editOffset = offset;
+		this.removed = removed;
+		this.inserted = inserted;
+		this.recording = true;
+	}
+
+	/**
+	 * Parses the whole expression.
+	 *
+	 * @return the root of the tree.
+	 * @throws ExpressionFormatException if the expression is malformed.
+	 */
+	Node parse() throws ExpressionFormatException {
+		advance();
+		Node root = binary(0);
+		rootHeight = height;
+		if (lexer.kind() == Lexer.CLOSE) {
+			throw error(Kind.UNBALANCED_PARENTHESIS, "Bad parenthesizes!", OPERATOR);
+		}
+		if (lexer.kind() == Lexer.UNKNOWN || lexer.kind() == Lexer.COMMA || lexer.kind() == Lexer.EQUALS) {
+			throw error(Kind.UNEXPECTED_TOKEN, "Unexpected character '" + lexer.text() + "'.", OPERATOR);
+		}
+		if (lexer.kind() != Lexer.END) {
+			throw error(Kind.UNEXPECTED_TOKEN, "Missing operator before '" + lexer.text() + "'.", OPERATOR);
+		}
+		return root;
+	}
+
+	/**
+	 * Gets the root block of the expression, holding the blocks parsed so far,
+	 * e.g. before a syntax error. The blocks must have been recorded.
+	 *
+	 * @param root the root of the tree, {@code null} if parsing failed.
+	 */
+	ParseGroup groups(Node root) {
+		// Blocks left open by an error are dropped, not the closed ones they hold
+		while (level > 0) {
+			merge(0);
+		}
+		Level top = levels[0];
+		return new ParseGroup(lexer.length(), root, 0, slots.size(), tokens, nodes, top.height,
+				root == null ? 0 : rootHeight, Arrays.copyOf(top.starts, top.count),
+				Arrays.copyOf(top.children, top.count));
+	}
+
+	/** Gets the number of blocks of the previous parse reused, not counting those they hold. */
+	int reusedGroups() {
+		return reused;
+	}
+
+	/** Gets the names of the variables referenced by the expression, by slot. */
+	String[] variables() {
+		return slots.keySet().toArray(new String[0]);
+	}
+
+	/** Gets the names of the variables referenced so far, by slot. */
+	Set<String> variableSet() {
+		return slots.keySet();
+	}
+
+	private void advance() {
+		previousKind = lexer.kind();
+		if (lexer.next() != Lexer.END) {
+			tokens++;
+			if (budget != null) {
+				budget.token();
+			}
+		}
+	}
+
+	/** Counts a node against the budget. */
+	private <N extends Node> N node(N node) {
+		countNode();
+		return node;
+	}
+
+	private void countNode() {
+		nodes++;
+		if (budget != null) {
+			budget.node();
+		}
+	}
+
+	private void enter() {
+		if (++depth > maxDepth) {
+			throw Budget.depthExceeded(maxDepth);
+		}
+	}
+
+	private void exit() {
+		depth--;
+	}
+
+	/** Sets the height of the tree parsed last. */
+	private void height(int height) {
+		if (height > maxDepth) {
+			throw Budget.depthExceeded(maxDepth);
+		}
+		this.height = height;
+	}
+
+	/** Creates the exception describing an error at the current token. */
+	private ExpressionFormatException error(Kind kind, String message, String expected) {
+		return error(kind, message, expected, lexer.start(), lexer.text());
+	}
+
+	/** Describes a resource limit exceeded at the current token. */
+	Diagnostic limitExceeded(ResourceLimitException e) {
+		return new Diagnostic(Kind.RESOURCE_LIMIT, lexer.start(), null, lexer.text(), e.getMessage());
+	}
+
+	private ExpressionFormatException error(Kind kind, String message, String expected, int offset, String found) {
+		return new ExpressionFormatException(new Diagnostic(kind, offset, expected, found, message));
+	}
+
+	/**
+	 * Parses operations whose operators have at least the specified precedence,
+	 * as a spine of {@link BinaryNode} turned into a {@link ChainNode} once
+	 * long enough.
+	 */
+	private Node binary(int precedence) {
+		Node left = operand(precedence);
+		int count = 1, spineHeight = height, operandHeight = height;
+		Node[] operands = null;
+		MathOperator[] operators = null;
+		while (true) {
+			MathOperator operator;
+			Node right;
+			if (lexer.kind() == Lexer.OPERATOR && lexer.operator().getPrecedence() >= precedence) {
+				operator = lexer.operator();
+				advance();
+				right = binary(operator.getPrecedence() + 1);
+			} else if (lexer.kind() != Lexer.OPERATOR && isImplicitMultiplication()
+					&& MathOperator.TIMES.getPrecedence() >= precedence) {
+				operator = MathOperator.TIMES;
+				right = binary(MathOperator.TIMES.getPrecedence() + 1);
+			} else {
+				break;
+			}
+			spineHeight = Math.max(spineHeight, height) + 1;
+			operandHeight = Math.max(operandHeight, height);
+			countNode();
+			if (operands == null) {
+				left = new BinaryNode(operator, left, right);
+				if (++count == ExpressionCompiler.MIN_CHAIN) {
+					// Long enough to be a chain, whose operands are taken back from the spine
+					operands = new Node[2 * count];
+					operators = new MathOperator[2 * count];
+					Node node = left;
+					for (int i = count - 1; i > 0; i--) {
+						operators[i - 1] = ((BinaryNode) node).operator();
+						operands[i] = node.children()[1];
+						node = node.children()[0];
+					}
+					operands[0] = node;
+				}
+			} else {
+				if (count == operands.length) {
+					operands = Arrays.copyOf(operands, 2 * count);
+					operators = Arrays.copyOf(operators, 2 * count);
+				}
+				operators[count - 1] = operator;
+				operands[count++] = right;
+			}
+		}
+		if (operands != null) {
+			height(operandHeight + 1);
+			return ChainNode.of(operands, operators, count);
+		}
+		height(spineHeight);
+		return left;
+	}
+
+	/** Tests if a parenthesis block is stuck to a value at the current token. */
+	private boolean isImplicitMultiplication() {
+		int kind = lexer.kind();
+		if (previousKind == Lexer.CLOSE) {
+			return kind == Lexer.OPEN || kind == Lexer.NUMBER
+					|| kind == Lexer.IDENTIFIER && !(definitions > 0 && lexer.text().equalsIgnoreCase("in"));
+		}
+		return kind == Lexer.OPEN && (previousKind == Lexer.NUMBER || previousKind == Lexer.IDENTIFIER);
+	}
+
+	/** Parses an operand, optionally preceded by an unary sign. */
+	private Node operand(int precedence) {
+		if (lexer.kind() != Lexer.OPERATOR) {
+			return primary();
+		}
+		MathOperator sign = lexer.operator();
+		if (!sign.mightUnary()) {
+			throw error(Kind.MISPLACED_OPERATOR, "The operator '" + sign.getText() + "' is bad placed.", OPERAND);
+		}
+		advance();
+		if (lexer.kind() == Lexer.OPERATOR) {
+			throw error(Kind.MISPLACED_OPERATOR, "The operator '" + lexer.operator().getText() + "' is bad placed.",
+					OPERAND);
+		}
+		Node node = binary(Math.max(precedence, UNARY_PRECEDENCE));
+		if (sign != MathOperator.MINUS) {
+			return node;
+		}
+		if (node instanceof ConstantNode) {
+			return node.isIntegral() && node.evalLong(null) != Long.MIN_VALUE
+					? new ConstantNode(-node.evalLong(null))
+					: new ConstantNode(-node.eval(null));
+		}
+		height(height + 1);
+		return node(new NegateNode(node));
+	}
+
+	private Node primary() {
+		int at = lexer.start();
+		switch (lexer.kind()) {
+		case Lexer.NUMBER:
+			Node number = node(number());
+			height = 1;
+			advance();
+			return number;
+		case Lexer.IDENTIFIER:
+			return identifier();
+		case Lexer.OPEN:
+			Node node = reuse(at);
+			if (node != null) {
+				return node;
+			}
+			open(at);
+			advance();
+			if (lexer.kind() == Lexer.CLOSE) {
+				throw error(Kind.UNEXPECTED_TOKEN, "Unable to execute expression '()'.", OPERAND);
+			}
+			enter();
+			node = binary(0);
+			close(at, node);
+			exit();
+			return node;
+		case Lexer.END:
+			if (previousKind == Lexer.OPERATOR) {
+				throw error(Kind.MISPLACED_OPERATOR, "Expression ended with an operator !", OPERAND);
+			}
+			throw error(Kind.UNEXPECTED_TOKEN, "Missing operand at end of expression.", OPERAND);
+		case Lexer.CLOSE:
+			throw error(Kind.UNEXPECTED_TOKEN, "Missing operand before ')'.", OPERAND);
+		case Lexer.OPERATOR:
+			throw error(Kind.MISPLACED_OPERATOR, "The operator '" + lexer.operator().getText() + "' is bad placed.",
+					OPERAND);
+		default:
+			throw error(Kind.UNEXPECTED_TOKEN, "Unexpected character '" + lexer.text() + "'.", OPERAND);
+		}
+	}
+
+	private Node number() {
+		String text = lexer.text();
+		if (lexer.isIntegerLiteral()) {
+			try {
+				return new ConstantNode(Long.parseLong(text));
+			} catch (NumberFormatException e) {
+				// Too big for a long
+			}
+		}
+		try {
+			return new ConstantNode(Double.parseDouble(text));
+		} catch (NumberFormatException e) {
+			throw error(Kind.INVALID_NUMBER, "Invalid numeric value '" + text + "'.", null);
+		}
+	}
+
+	private Node identifier() {
+		String name = lexer.text();
+		int at = lexer.start();
+		advance();
+		if (name.equalsIgnoreCase("let") && lexer.kind() == Lexer.IDENTIFIER) {
+			return let();
+		}
+		MathFunction function = MathFunction.fromText(name);
+		if (function != null) {
+			int open = lexer.start();
+			if (lexer.kind() != Lexer.OPEN) {
+				throw error(Kind.UNEXPECTED_TOKEN, "The function '" + name + "' must be followed by '('.", "'('");
+			}
+			Node argument = reuse(open);
+			if (argument == null) {
+				open(open);
+				advance();
+				if (lexer.kind() == Lexer.CLOSE) {
+					throw error(Kind.UNEXPECTED_TOKEN, "Missing argument for function '" + name + "'.", OPERAND);
+				}
+				enter();
+				argument = binary(0);
+				close(open, argument);
+				exit();
+			}
+			height(height + 1);
+			return node(new FunctionNode(function, degree, argument));
+		}
+		MathAggregate aggregate = MathAggregate.fromText(name);
+		if (aggregate != null && lexer.kind() == Lexer.OPEN) {
+			return aggregate(aggregate, name);
+		}
+		MathWindow window = MathWindow.fromText(name);
+		if (window != null && lexer.kind() == Lexer.OPEN) {
+			return window(window, name);
+		}
+		height = 1;
+		if (name.equalsIgnoreCase("e")) {
+			return node(new ConstantNode(Math.E));
+		}
+		if (name.equalsIgnoreCase("pi")) {
+			return node(new ConstantNode(Math.PI));
+		}
+		if (lexer.kind() == Lexer.OPEN && MathFunction.nextFunction(0, name) != null) {
+			throw error(Kind.UNKNOWN_FUNCTION, "Unknown function '" + name + "'.", null, at, name);
+		}
+		if (!Expression.isUsableAsVariableName(name)) {
+			throw error(Kind.INVALID_NAME, "The text '" + name + "' isn't usable as variable name.", null, at, name);
+		}
+		int local = scope.lastIndexOf(name);
+		if (local >= 0) {
+			return node(new VariableNode(name, scopeSlots.get(local)));
+		}
+		Integer slot = slots.get(name);
+		if (slot == null) {
+			if (localNames.contains(name)) {
+				throw error(Kind.SCOPE, "The local '" + name + "' is used out of its scope.", null, at, name);
+			}
+			slot = slots.size();
+			slots.put(name, slot);
+			if (matching == slot && previousVariables != null && slot < previousVariables.length
+					&& previousVariables[slot].equals(name)) {
+				matching++;
+			}
+		}
+		return node(new VariableNode(name, slot));
+	}
+
+	/**
+	 * Parses the definitions of locals, from the name of the first one, the
+	 * current token, then the body where they are in scope.
+	 */
+	private Node let() {
+		enter();
+		int at = lexer.start();
+		String name = lexer.text();
+		if (!Expression.isUsableAsVariableName(name) || isReserved(name)) {
+			throw error(Kind.INVALID_NAME, "The text '" + name + "' isn't usable as local name.", null);
+		}
+		if (scope.contains(name)) {
+			throw error(Kind.SCOPE, "The local '" + name + "' is already defined.", null);
+		}
+		if (slots.containsKey(name)) {
+			throw error(Kind.SCOPE, "The local '" + name + "' is already a variable of the expression.", null);
+		}
+		advance();
+		if (lexer.kind() != Lexer.EQUALS) {
+			throw error(Kind.UNEXPECTED_TOKEN, "Missing '=' after the local '" + name + "'.", "'='");
+		}
+		advance();
+		int slot = LetNode.unlocated(locals++);
+		definitions++;
+		Node value = binary(0);
+		int valueHeight = height;
+		definitions--;
+		if (slots.containsKey(name)) {
+			throw error(Kind.SCOPE, "The local '" + name + "' is used in its own definition.", null, at, name);
+		}
+		localNames.add(name);
+		scope.add(name);
+		scopeSlots.add(slot);
+		Node body;
+		if (lexer.kind() == Lexer.COMMA) {
+			advance();
+			if (lexer.kind() != Lexer.IDENTIFIER) {
+				throw error(Kind.UNEXPECTED_TOKEN, "Missing local after ','.", "name");
+			}
+			body = let();
+		} else if (lexer.kind() == Lexer.IDENTIFIER && lexer.text().equalsIgnoreCase("in")) {
+			advance();
+			body = binary(0);
+		} else {
+			throw error(Kind.UNEXPECTED_TOKEN, "Missing 'in' after the definition of '" + name + "'.", "'in'");
+		}
+		scope.remove(scope.size() - 1);
+		scopeSlots.remove(scopeSlots.size() - 1);
+		exit();
+		height(Math.max(valueHeight, height) + 1);
+		return node(new LetNode(name, slot, value, body));
+	}
+
+	/** Tests if a name is a keyword, a constant or a function. */
+	private static boolean isReserved(String name) {
+		return name.equalsIgnoreCase("let") || name.equalsIgnoreCase("in") || name.equalsIgnoreCase("e")
+				|| name.equalsIgnoreCase("pi") || MathFunction.fromText(name) != null
+				|| MathAggregate.fromText(name) != null || MathWindow.fromText(name) != null;
+	}
+
+	/** Parses the arguments of a variadic function, from its '(', the current token. */
+	private Node aggregate(MathAggregate aggregate, String name) {
+		int at = lexer.start();
+		open(at);
+		advance();
+		enter();
+		List<Node> arguments = new ArrayList<>();
+		int argumentHeight = 0;
+		while (true) {
+			if (lexer.kind() == Lexer.CLOSE || lexer.kind() == Lexer.COMMA) {
+				throw error(Kind.UNEXPECTED_TOKEN, "Missing argument for function '" + name + "'.", OPERAND);
+			}
+			arguments.add(binary(0));
+			argumentHeight = Math.max(argumentHeight, height);
+			if (lexer.kind() != Lexer.COMMA) {
+				break;
+			}
+			advance();
+		}
+		expectClose(at);
+		// The arguments aren't a sub tree, their blocks are reused instead
+		if (recording) {
+			merge(1);
+		}
+		advance();
+		exit();
+		height(argumentHeight + 1);
+		return node(new AggregateNode(aggregate, arguments.toArray(new Node[0])));
+	}
+
+	/** Parses the argument and the parameter of a window function, from its '(', the current token. */
+	private Node window(MathWindow window, String name) {
+		int at = lexer.start();
+		open(at);
+		advance();
+		enter();
+		if (lexer.kind() == Lexer.CLOSE || lexer.kind() == Lexer.COMMA) {
+			throw error(Kind.UNEXPECTED_TOKEN, "Missing argument for function '" + name + "'.", OPERAND);
+		}
+		Node argument = binary(0);
+		int argumentHeight = height;
+		if (lexer.kind() != Lexer.COMMA) {
+			throw error(Kind.UNEXPECTED_TOKEN, "Missing parameter for function '" + name + "'.", "','");
+		}
+		advance();
+		int start = lexer.start();
+		String found = lexer.text();
+		Node parameter = binary(0);
+		double value = isConstant(parameter) ? parameter.eval(null) : Double.NaN;
+		if (!window.isValidParameter(value)) {
+			String message = window.isSized()
+					? "The window of function '" + name + "' must be a constant integer in [1, " + MathWindow.MAX_SIZE
+							+ "]."
+					: "The factor of function '" + name + "' must be a constant in (0, 1].";
+			throw error(Kind.INVALID_PARAMETER, message, null, start, found);
+		}
+		expectClose(at);
+		// The arguments aren't a sub tree, their blocks are reused instead
+		if (recording) {
+			merge(1);
+		}
+		advance();
+		exit();
+		height(argumentHeight + 1);
+		return node(new WindowNode(window, value, argument));
+	}
+
+	/** Tests if a tree reads neither variables nor locals, nor depends on previous ticks. */
+	private static boolean isConstant(Node node) {
+		if (node instanceof VariableNode || node instanceof WindowNode || node instanceof LetNode) {
+			return false;
+		}
+		for (Node child : node.children()) {
+			if (!isConstant(child)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Starts a block at the '(' of the specified offset, the current token. */
+	private void open(int at) {
+		if (!recording) {
+			return;
+		}
+		if (++level == levels.length) {
+			levels = Arrays.copyOf(levels, level * 2);
+		}
+		if (levels[level] == null) {
+			levels[level] = new Level();
+		}
+		Level open = levels[level];
+		open.start = at;
+		open.tokens = tokens;
+		open.nodes = nodes;
+		open.slots = slots.size();
+		open.height = 0;
+		open.count = 0;
+	}
+
+	/** Ends the block opened at the specified offset, whose ')' is expected at the current token. */
+	private void close(int at, Node node) {
+		expectClose(at);
+		if (recording && locals > 0) {
+			merge(1);
+		} else if (recording) {
+			Level open = levels[level--];
+			ParseGroup group = new ParseGroup(lexer.end() - at, node, open.slots, slots.size(), tokens - open.tokens,
+					nodes - open.nodes, open.height + 1, height, Arrays.copyOf(open.starts, open.count),
+					Arrays.copyOf(open.children, open.count));
+			add(at, group);
+		}
+		advance();
+	}
+
+	private void expectClose(int at) {
+		if (lexer.kind() == Lexer.COMMA) {
+			throw error(Kind.UNEXPECTED_TOKEN, "Unexpected ',' out of the arguments of a variadic function.", "')'");
+		}
+		if (lexer.kind() != Lexer.CLOSE) {
+			throw error(Kind.UNBALANCED_PARENTHESIS, "Missing closing parenthesis for the one at offset " + at + ".",
+					"')'");
+		}
+	}
+
+	/**
+	 * Ends the innermost block without recording it, moving the blocks it holds
+	 * to its parent.
+	 *
+	 * @param height the nesting depth added by the block.
+	 */
+	private void merge(int height) {
+		Level open = levels[level--];
+		Level parent = levels[level];
+		for (int i = 0; i < open.count; i++) {
+			parent.add(open.start - parent.start + open.starts[i], open.children[i]);
+		}
+		parent.height = Math.max(parent.height, open.height + height);
+	}
+
+	private void add(int at, ParseGroup group) {
+		Level parent = levels[level];
+		parent.height = Math.max(parent.height, group.height);
+		parent.add(at - parent.start, group);
+	}
+
+	/**
+	 * Skips the block opened at the specified offset, the current token, if
+	 * the previous parse has an intact block there.
+	 *
+	 * @return the sub tree of the block, {@code null} if it must be parsed.
+	 */
+	private Node reuse(int at) {
+		if (previous == null || locals > 0) {
+			return null;
+		}
+		int old = at < editOffset ? at : at >= editOffset + inserted ? at - inserted + removed : -1;
+		ParseGroup group = old < 0 ? null : previous.find(old);
+		if (group == null || (old + group.length > editOffset && old < editOffset + removed)
+				|| slots.size() != group.slotsBefore || matching != group.slotsBefore) {
+			return null;
+		}
+		if (depth + group.height > maxDepth) {
+			throw Budget.depthExceeded(maxDepth);
+		}
+		if (budget != null) {
+			budget.skip(group.tokens, group.nodes);
+		}
+		height = group.treeHeight;
+		for (int slot = group.slotsBefore; slot < group.slotsAfter; slot++) {
+			slots.put(previousVariables[slot], slot);
+		}
+		matching = group.slotsAfter;
+		tokens += group.tokens;
+		nodes += group.nodes;
+		add(at, group);
+		reused++;
+		lexer.skipTo(at + group.length - 1);
+		advance();
+		return group.node;
+	}
+}
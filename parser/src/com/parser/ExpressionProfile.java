@@ -0,0 +1,114 @@
+package com.parser;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Structure of a {@link CompiledExpression} after optimization, from
+ * {@link CompiledExpression#explain()}, and the costs of its nodes over a run
+ * of evaluations, from
+ * {@link CompiledExpression#profile(double[][], int)}.
+ * <br/>
+ * Profiles are plain values, to be aggregated across formulas, e.g. by the
+ * labels of their nodes; {@link #toString()} prints them as an indented
+ * tree. Times are measured around each node, so they include the cost of the
+ * measure: they rank the nodes rather than predict the time of evaluations
+ * without profiling.
+ *
+ * @since 1.1
+ */
+public final class ExpressionProfile {
+
+	private final String expression;
+	private final NodeProfile root;
+	private final List<NodeProfile> nodes;
+	private final int evaluations;
+	private final long totalNanos;
+	private final boolean promoted;
+
+	ExpressionProfile(String expression, NodeProfile root, List<NodeProfile> nodes, int evaluations,
+			long totalNanos, boolean promoted) {
+		this.expression = expression;
+		this.root = root;
+		this.nodes = Collections.unmodifiableList(nodes);
+		this.evaluations = evaluations;
+		this.totalNanos = totalNanos;
+		this.promoted = promoted;
+	}
+
+	/** Gets the text of the expression. */
+	public String getExpression() {
+		return expression;
+	}
+
+	/** Gets the root of the compiled tree. */
+	public NodeProfile getRoot() {
+		return root;
+	}
+
+	/** Gets the nodes of the compiled tree, each one before its operands. */
+	public List<NodeProfile> getNodes() {
+		return nodes;
+	}
+
+	/** Gets the number of evaluations profiled, {@code 0} for an explanation. */
+	public int getEvaluationCount() {
+		return evaluations;
+	}
+
+	/** Gets the time spent in the profiled evaluations, in nanoseconds. */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/** Tests if the expression was evaluated by generated code rather than by its tree. */
+	public boolean isPromoted() {
+		return promoted;
+	}
+
+	/** Gets the number of evaluations where {@code NaN} appeared, summed over the nodes computing it. */
+	public long getNanOrigins() {
+		long origins = 0;
+		for (NodeProfile node : nodes) {
+			origins += node.getNanOrigins();
+		}
+		return origins;
+	}
+
+	/** Gets the number of evaluations where an infinite value appeared, summed over the nodes computing it. */
+	public long getInfinityOrigins() {
+		long origins = 0;
+		for (NodeProfile node : nodes) {
+			origins += node.getInfinityOrigins();
+		}
+		return origins;
+	}
+
+	/**
+	 * Prints the expression then its compiled tree, one node per line indented
+	 * by depth, each node preceded by its evaluations, total and self times, and
+	 * {@code NaN} and infinity origins when profiled.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Expression: ").append(expression).append(System.lineSeparator());
+		sb.append("Tier: ").append(promoted ? "generated code" : "tree").append(System.lineSeparator());
+		if (evaluations > 0) {
+			sb.append(String.format("Evaluations: %d in %d ns%n", evaluations, totalNanos));
+			sb.append(String.format("%12s %14s %14s %8s %8s  %s%n", "count", "total ns", "self ns", "NaN", "Inf",
+					"node"));
+		}
+		for (NodeProfile node : nodes) {
+			if (evaluations > 0) {
+				sb.append(String.format("%12d %14d %14d %8d %8d  ", node.getEvaluationCount(), node.getTotalNanos(),
+						node.getSelfNanos(), node.getNanOrigins(), node.getInfinityOrigins()));
+			}
+			for (int i = 0; i < node.getDepth(); i++) {
+				sb.append("  ");
+			}
+			sb.append(node.getLabel()).append(System.lineSeparator());
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,274 @@
+package com.parser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Formulas compiled by an {@link ExpressionCompiler}, by id, whose definitions
+ * can be replaced while they are evaluated.
+ * <br/>
+ * The registry holds an immutable map from ids to entries, replaced as a whole
+ * by each update (copy on write): readers get the live version of a formula
+ * with a single volatile read and never wait, while updates, rare, are
+ * serialized. A new definition is compiled before the registry is updated, so
+ * readers see either the previous version or the new one, never a partial
+ * state.
+ * <br/>
+ * A new definition may also be staged with
+ * {@link #stage(String, String, double, int)}: the evaluations through the
+ * registry then evaluate it alongside the live version, and compare their
+ * results and times in a {@link Rollout}, until it is promoted with
+ * {@link #promote(String)} or dropped with {@link #abort(String)}.
+ *
+ * @since 1.1
+ */
+public class FormulaRegistry {
+
+	/** Live version of a formula, and its staged candidate if any. */
+	private static final class Entry {
+
+		final FormulaVersion current;
+		final Rollout rollout;
+
+		Entry(FormulaVersion current, Rollout rollout) {
+			this.current = current;
+			this.rollout = rollout;
+		}
+	}
+
+	private final ExpressionCompiler compiler;
+	private volatile Map<String, Entry> entries = Collections.emptyMap();
+
+	/**
+	 * Creates an empty registry.
+	 *
+	 * @param compiler the compiler of the formulas, which must not be
+	 *                 reconfigured while formulas are defined.
+	 */
+	public FormulaRegistry(ExpressionCompiler compiler) {
+		this.compiler = compiler;
+	}
+
+	/**
+	 * Defines a formula, or replaces its definition. A candidate staged for the
+	 * formula is dropped.
+	 *
+	 * @param id      the id of the formula.
+	 * @param formula the text of the formula.
+	 * @return the new live version of the formula.
+	 * @throws ParserException if compilation fails, the registry being
+	 *                         unchanged.
+	 */
+	public FormulaVersion define(String id, String formula) throws ParserException {
+		CompiledExpression expression = compiler.compile(formula);
+		synchronized (this) {
+			Entry entry = entries.get(id);
+			FormulaVersion version = new FormulaVersion(id, entry == null ? 1 : next(entry), expression);
+			publish(id, new Entry(version, null));
+			return version;
+		}
+	}
+
+	/**
+	 * Stages a new definition of a formula, evaluated alongside the live one
+	 * without replacing it. A candidate already staged for the formula is
+	 * replaced.
+	 *
+	 * @param id        the id of the formula.
+	 * @param formula   the text of the new definition.
+	 * @param tolerance the tolerance under which results match, see
+	 *                  {@link Rollout}.
+	 * @param period    the number of evaluations of the formula per
+	 *                  comparison, {@code 1} to compare all of them.
+	 * @return the rollout comparing the candidate to the live version.
+	 * @throws IllegalArgumentException if the formula isn't defined or the
+	 *                                  period isn't positive.
+	 * @throws ParserException          if compilation fails, the registry being
+	 *                                  unchanged.
+	 */
+	public Rollout stage(String id, String formula, double tolerance, int period) throws ParserException {
+		if (period < 1) {
+			throw new IllegalArgumentException("At least 1 evaluation per comparison expected, got " + period + ".");
+		}
+		CompiledExpression expression = compiler.compile(formula);
+		synchronized (this) {
+			Entry entry = entry(id);
+			Rollout rollout = new Rollout(entry.current, new FormulaVersion(id, next(entry), expression), tolerance,
+					period);
+			publish(id, new Entry(entry.current, rollout));
+			return rollout;
+		}
+	}
+
+	/**
+	 * Makes the candidate staged for a formula its live version.
+	 *
+	 * @param id the id of the formula.
+	 * @return the new live version of the formula.
+	 * @throws IllegalArgumentException if the formula isn't defined.
+	 * @throws IllegalStateException    if no candidate is staged for the
+	 *                                  formula.
+	 */
+	public synchronized FormulaVersion promote(String id) {
+		Entry entry = entry(id);
+		if (entry.rollout == null) {
+			throw new IllegalStateException("No version of formula '" + id + "' is staged.");
+		}
+		publish(id, new Entry(entry.rollout.getCandidate(), null));
+		return entry.rollout.getCandidate();
+	}
+
+	/**
+	 * Drops the candidate staged for a formula, if any.
+	 *
+	 * @param id the id of the formula.
+	 * @return the dropped rollout, {@code null} if none was staged.
+	 */
+	public synchronized Rollout abort(String id) {
+		Entry entry = entries.get(id);
+		if (entry == null || entry.rollout == null) {
+			return null;
+		}
+		publish(id, new Entry(entry.current, null));
+		return entry.rollout;
+	}
+
+	/**
+	 * Removes a formula, and its staged candidate if any.
+	 *
+	 * @param id the id of the formula.
+	 * @return the last live version of the formula, {@code null} if it wasn't
+	 *         defined.
+	 */
+	public synchronized FormulaVersion remove(String id) {
+		Entry entry = entries.get(id);
+		if (entry == null) {
+			return null;
+		}
+		publish(id, null);
+		return entry.current;
+	}
+
+	/**
+	 * Gets the live version of a formula.
+	 *
+	 * @param id the id of the formula.
+	 * @return the version, {@code null} if the formula isn't defined.
+	 */
+	public FormulaVersion get(String id) {
+		Entry entry = entries.get(id);
+		return entry == null ? null : entry.current;
+	}
+
+	/**
+	 * Gets the rollout of the candidate staged for a formula.
+	 *
+	 * @param id the id of the formula.
+	 * @return the rollout, {@code null} if no candidate is staged.
+	 */
+	public Rollout getRollout(String id) {
+		Entry entry = entries.get(id);
+		return entry == null ? null : entry.rollout;
+	}
+
+	/** Gets the ids of the formulas defined when called. */
+	public Set<String> getIds() {
+		return entries.keySet();
+	}
+
+	/**
+	 * Evals a version of a formula, got from {@link #get(String)}, whose slots
+	 * the values are laid out by: the registry may have published another
+	 * version since, with other slots. When the version is still live and a
+	 * candidate is staged, the sampled evaluations evaluate the candidate too, if
+	 * it references no variable unknown to the version.
+	 *
+	 * @param version the version of the formula.
+	 * @param values  the values of the variables of the version, indexed by
+	 *                slot.
+	 * @return the value of the version.
+	 * @throws ParserException if evaluation of the version fails.
+	 */
+	public double eval(FormulaVersion version, double[] values) throws ParserException {
+		Entry entry = entries.get(version.getId());
+		Rollout rollout = entry == null || entry.current != version ? null : entry.rollout;
+		if (rollout == null || !rollout.sample()) {
+			return version.getExpression().eval(values);
+		}
+		long start = System.nanoTime();
+		double result = version.getExpression().eval(values);
+		long nanos = System.nanoTime() - start;
+		double[] candidate = rollout.frame(values);
+		if (candidate != null) {
+			start = System.nanoTime();
+			try {
+				double actual = rollout.getCandidate().getExpression().eval(candidate);
+				rollout.compared(result, nanos, actual, System.nanoTime() - start);
+			} catch (RuntimeException e) {
+				// The candidate never fails the live evaluation
+				rollout.failed(nanos);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Evals the live version of a formula, resolving its variables by name.
+	 * When a candidate is staged, the sampled evaluations evaluate it too, with
+	 * the same resolver.
+	 *
+	 * @param id       the id of the formula.
+	 * @param resolver the source of the values of the variables.
+	 * @return the value of the live version.
+	 * @throws ParserException if the formula isn't defined, or evaluation of
+	 *                         the live version fails.
+	 */
+	public double eval(String id, VariableResolver resolver) throws ParserException {
+		Entry entry = entries.get(id);
+		if (entry == null) {
+			throw new ValueException("Unknown formula '" + id + "'");
+		}
+		Rollout rollout = entry.rollout;
+		if (rollout == null || !rollout.sample()) {
+			return entry.current.getExpression().eval(resolver);
+		}
+		long start = System.nanoTime();
+		double result = entry.current.getExpression().eval(resolver);
+		long nanos = System.nanoTime() - start;
+		start = System.nanoTime();
+		try {
+			double actual = rollout.getCandidate().getExpression().eval(resolver);
+			rollout.compared(result, nanos, actual, System.nanoTime() - start);
+		} catch (RuntimeException e) {
+			// The candidate never fails the live evaluation
+			rollout.failed(nanos);
+		}
+		return result;
+	}
+
+	private Entry entry(String id) {
+		Entry entry = entries.get(id);
+		if (entry == null) {
+			throw new IllegalArgumentException("Unknown formula '" + id + "'.");
+		}
+		return entry;
+	}
+
+	/** Gets the number of the next version of a formula, after its live and staged ones. */
+	private static long next(Entry entry) {
+		return (entry.rollout == null ? entry.current : entry.rollout.getCandidate()).getVersion() + 1;
+	}
+
+	/** Replaces the entry of a formula, removed if {@code null}, holding the lock of the registry. */
+	private void publish(String id, Entry entry) {
+		Map<String, Entry> copy = new HashMap<>(entries);
+		if (entry == null) {
+			copy.remove(id);
+		} else {
+			copy.put(id, entry);
+		}
+		entries = Collections.unmodifiableMap(copy);
+	}
+}
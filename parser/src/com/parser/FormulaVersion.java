@@ -0,0 +1,49 @@
+package com.parser;
+
+/**
+ * Definition of a formula of a {@link FormulaRegistry}, at one version.
+ * Versions are immutable: editing a formula publishes a new one.
+ *
+ * @since 1.1
+ */
+public final class FormulaVersion {
+
+	private final String id;
+	private final long version;
+	private final CompiledExpression expression;
+
+	FormulaVersion(String id, long version, CompiledExpression expression) {
+		this.id = id;
+		this.version = version;
+		this.expression = expression;
+	}
+
+	/** Gets the id of the formula in the registry. */
+	public String getId() {
+		return id;
+	}
+
+	/** Gets the number of the version, from {@code 1}, increased by each definition of the formula. */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the compiled expression of this version. Its
+	 * {@link CompiledExpression#eval(double[])} may be called concurrently, but
+	 * its variables bound by name are shared by all the readers of the version.
+	 */
+	public CompiledExpression getExpression() {
+		return expression;
+	}
+
+	/** Gets the text of the formula. */
+	public String getFormula() {
+		return expression.getExpression();
+	}
+
+	@Override
+	public String toString() {
+		return "FormulaVersion [id=" + id + ", version=" + version + ", formula=" + getFormula() + "]";
+	}
+}
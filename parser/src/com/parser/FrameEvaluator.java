@@ -0,0 +1,19 @@
+package com.parser;
+
+/**
+ * Evaluation of an expression whose variables are passed by slot.
+ *
+ * @since 1.1
+ */
+@FunctionalInterface
+public interface FrameEvaluator {
+
+	/**
+	 * Evals the expression.
+	 *
+	 * @param frame the values of the variables, indexed by slot.
+	 * @return the value of the expression.
+	 * @throws ParserException if evaluation fails.
+	 */
+	double eval(double[] frame) throws ParserException;
+}
@@ -92,7 +92,7 @@ public class FunctionExpression extends ValueExpression {
 						"Missing closing parenthesis for fonction '" + token.function.name() + "'");
 			}
 			String subExp = exp.substring(opening + 1, closure);
-			FunctionExpression fe = new FunctionExpression(subExp, degree);
+			FunctionExpression fe = share(new FunctionExpression(subExp, degree));
 			fe.putAll(getVariables());
 			double value = fe.eval();
 			double result = token.function.eval(value, degree);
@@ -111,13 +111,21 @@ public class FunctionExpression extends ValueExpression {
 	}
 
 	public double eval() {
-		MathFunctionToken token;
-		do {
-			token = MathFunction.nextFunction(0, getAsText());
-			setAsText(eval(token));
-		} while (token != null);
-		ParenthesisExpression pe = new ParenthesisExpression(getAsText(), getVariables());
-		return pe.eval();
+		boolean started = startBudget();
+		try {
+			MathFunctionToken token;
+			do {
+				step();
+				token = MathFunction.nextFunction(0, getAsText());
+				setAsText(eval(token));
+			} while (token != null);
+			ParenthesisExpression pe = share(new ParenthesisExpression(getAsText(), getVariables()));
+			return pe.eval();
+		} finally {
+			if (started) {
+				budget = null;
+			}
+		}
 	}
 
 	public boolean isDegree() {
@@ -0,0 +1,38 @@
+package com.parser;
+
+/** Call of a {@link MathFunction}. */
+final class FunctionNode extends Node {
+
+	private final MathFunction function;
+	private final boolean degree;
+	private final Node argument;
+
+	FunctionNode(MathFunction function, boolean degree, Node argument) {
+		this.function = function;
+		this.degree = degree;
+		this.argument = argument;
+	}
+
+	MathFunction function() {
+		return function;
+	}
+
+	boolean isDegree() {
+		return degree;
+	}
+
+	@Override
+	double eval(double[] frame) {
+		return function.eval(argument.eval(frame), degree);
+	}
+
+	@Override
+	Node[] children() {
+		return new Node[] { argument };
+	}
+
+	@Override
+	Node withChildren(Node[] children) {
+		return new FunctionNode(function, degree, children[0]);
+	}
+}
@@ -0,0 +1,217 @@
+package com.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles trees of {@link Node} sharing their variable slots into a single
+ * {@link FusedProgram}. Each distinct sub tree is given one register: sub
+ * trees equal in several formulas, or several times in one formula, are
+ * computed once.
+ */
+final class FusedCompiler {
+
+	private final Map<String, Integer> registers = new HashMap<>();
+	private final List<Double> constants = new ArrayList<>();
+	private final List<Integer> constantRegisters = new ArrayList<>();
+	private final List<Node> nodes = new ArrayList<>();
+	private int[] code = new int[16 * FusedProgram.WORDS];
+	private int length;
+	private int registerCount;
+
+	private FusedCompiler(int frameSize) {
+		this.registerCount = frameSize;
+		for (int slot = 0; slot < frameSize; slot++) {
+			registers.put("v" + slot, slot);
+		}
+	}
+
+	/**
+	 * Compiles the specified trees.
+	 *
+	 * @param names     the names of the formulas.
+	 * @param roots     the roots of the trees of the formulas, at the same index.
+	 * @param variables the names of the variables of all the trees, by slot.
+	 * @param frameSize the number of slots of the variables, then of the
+	 *                  locals of all the trees.
+	 * @return the program.
+	 */
+	static FusedProgram compile(String[] names, Node[] roots, String[] variables, int frameSize) {
+		FusedCompiler compiler = new FusedCompiler(frameSize);
+		int[] outputs = new int[roots.length];
+		for (int i = 0; i < roots.length; i++) {
+			outputs[i] = compiler.emit(roots[i]);
+		}
+		double[] initialRegisters = new double[compiler.registerCount];
+		for (int i = 0; i < compiler.constants.size(); i++) {
+			initialRegisters[compiler.constantRegisters.get(i)] = compiler.constants.get(i);
+		}
+		return new FusedProgram(Arrays.copyOf(compiler.code, compiler.length), initialRegisters,
+				compiler.nodes.toArray(new Node[0]), names, outputs, variables);
+	}
+
+	/** Emits the instructions computing the node, if not yet emitted, and gets its register. */
+	private int emit(Node node) {
+		if (node instanceof ConstantNode) {
+			double value = ((ConstantNode) node).value();
+			String key = "c" + Double.doubleToRawLongBits(value);
+			Integer register = registers.get(key);
+			if (register == null) {
+				register = registerCount++;
+				registers.put(key, register);
+				constants.add(value);
+				constantRegisters.add(register);
+			}
+			return register;
+		} else if (node instanceof VariableNode) {
+			return ((VariableNode) node).slot();
+		} else if (node instanceof NegateNode) {
+			int a = emit(node.children()[0]);
+			return instruction("n" + a, FusedProgram.NEG, 0, a, 0);
+		} else if (node instanceof BinaryNode) {
+			Node[] children = node.children();
+			int a = emit(children[0]), b = emit(children[1]);
+			MathOperator operator = ((BinaryNode) node).operator();
+			if ((operator == MathOperator.PLUS || operator == MathOperator.TIMES) && b < a) {
+				// Commutative, whatever the order of the operands
+				int swap = a;
+				a = b;
+				b = swap;
+			}
+			return instruction("o" + operator.ordinal() + ":" + a + ":" + b, FusedProgram.OPERATOR,
+					operator.ordinal(), a, b);
+		} else if (node instanceof ChainNode) {
+			// The operations of its spine, sharing the same registers
+			ChainNode chain = (ChainNode) node;
+			int a = emit(chain.operand(0));
+			for (int i = 1; i < chain.length(); i++) {
+				int b = emit(chain.operand(i)), left = a;
+				MathOperator operator = chain.operator(i);
+				if ((operator == MathOperator.PLUS || operator == MathOperator.TIMES) && b < left) {
+					left = b;
+					b = a;
+				}
+				a = instruction("o" + operator.ordinal() + ":" + left + ":" + b, FusedProgram.OPERATOR,
+						operator.ordinal(), left, b);
+			}
+			return a;
+		} else if (node instanceof FunctionNode) {
+			MathFunction function = ((FunctionNode) node).function();
+			boolean degree = ((FunctionNode) node).isDegree();
+			int a = emit(node.children()[0]);
+			int opcode = degree ? FusedProgram.FUNCTION_DEGREE : FusedProgram.FUNCTION;
+			return instruction("f" + opcode + ":" + function.ordinal() + ":" + a, opcode, function.ordinal(), a, 0);
+		} else if (node instanceof LetNode) {
+			// The register of the local is the one of its slot, read by the nodes evaluated by themselves too
+			LetNode let = (LetNode) node;
+			int a = emit(let.value());
+			if (length + FusedProgram.WORDS > code.length) {
+				code = Arrays.copyOf(code, code.length * 2);
+			}
+			code[length++] = FusedProgram.STORE;
+			code[length++] = let.slot();
+			code[length++] = a;
+			code[length++] = 0;
+			return emit(let.body());
+		} else {
+			// Evaluated by itself, like integral sub trees and polynomials
+			String description = describe(node);
+			String key = description == null ? null : "t" + description;
+			Integer register = key == null ? null : registers.get(key);
+			if (register == null) {
+				nodes.add(node);
+				register = add(FusedProgram.NODE, nodes.size() - 1, 0, 0);
+				if (key != null) {
+					registers.put(key, register);
+				}
+			}
+			return register;
+		}
+	}
+
+	private int instruction(String key, int opcode, int argument, int a, int b) {
+		Integer register = registers.get(key);
+		if (register == null) {
+			register = add(opcode, argument, a, b);
+			registers.put(key, register);
+		}
+		return register;
+	}
+
+	private int add(int opcode, int argument, int a, int b) {
+		if (length + FusedProgram.WORDS > code.length) {
+			code = Arrays.copyOf(code, code.length * 2);
+		}
+		int target = registerCount++;
+		code[length++] = (argument << PostfixProgram.OPCODE_BITS) | opcode;
+		code[length++] = target;
+		code[length++] = a;
+		code[length++] = b;
+		return target;
+	}
+
+	/** Describes the structure of a tree, {@code null} if it holds an unknown node. */
+	private static String describe(Node node) {
+		StringBuilder sb = new StringBuilder();
+		return describe(node, sb) ? sb.toString() : null;
+	}
+
+	private static boolean describe(Node node, StringBuilder sb) {
+		if (node instanceof ConstantNode) {
+			if (node.isIntegral()) {
+				sb.append('l').append(node.evalLong(null));
+			} else {
+				sb.append('c').append(Double.doubleToRawLongBits(node.eval(null)));
+			}
+			return true;
+		}
+		if (node instanceof VariableNode) {
+			sb.append('v').append(((VariableNode) node).slot());
+			return true;
+		}
+		if (node instanceof ChainNode) {
+			// Described as its spine
+			ChainNode chain = (ChainNode) node;
+			for (int i = chain.length() - 1; i > 0; i--) {
+				sb.append('(').append(chain.operator(i).ordinal()).append(' ');
+			}
+			if (!describe(chain.operand(0), sb)) {
+				return false;
+			}
+			for (int i = 1; i < chain.length(); i++) {
+				sb.append(' ');
+				if (!describe(chain.operand(i), sb)) {
+					return false;
+				}
+				sb.append(')');
+			}
+			return true;
+		}
+		if (node instanceof NegateNode) {
+			sb.append("(-");
+		} else if (node instanceof BinaryNode) {
+			sb.append('(').append(((BinaryNode) node).operator().ordinal());
+		} else if (node instanceof IntegralNode) {
+			sb.append("(i");
+		} else if (node instanceof PolynomialNode) {
+			sb.append("(h");
+		} else if (node instanceof PowerNode) {
+			sb.append("(w").append(((PowerNode) node).exponent());
+		} else if (node instanceof AggregateNode) {
+			sb.append("(g").append(((AggregateNode) node).aggregate().ordinal());
+		} else {
+			return false;
+		}
+		for (Node child : node.children()) {
+			sb.append(' ');
+			if (!describe(child, sb)) {
+				return false;
+			}
+		}
+		sb.append(')');
+		return true;
+	}
+}
@@ -0,0 +1,210 @@
+package com.parser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Named formulas compiled together by {@link ExpressionCompiler#compileAll},
+ * evaluated in a single pass per row. The formulas share their variables, and
+ * the sub expressions they have in common are computed once per row.
+ * <br/>
+ * The program works on an array of registers: the variables, by slot, then
+ * the locals, then the constants, set once, then the result of each
+ * instruction. An
+ * instruction is made of four words: its opcode and argument, like the words
+ * of {@link PostfixProgram}, its target register and its operand registers.
+ * <br/>
+ * The registers belong to the program, so a program must not be evaluated
+ * concurrently; use {@link #copy()} to get a program sharing the same code for
+ * another thread, or another series of ticks.
+ *
+ * @since 1.1
+ */
+public final class FusedProgram {
+
+	/** Negates register {@code a}. */
+	static final int NEG = 0;
+	/** Applies the operator of ordinal {@code argument} to registers {@code a} and {@code b}. */
+	static final int OPERATOR = 1;
+	/** Applies the function of ordinal {@code argument}, in radian, to register {@code a}. */
+	static final int FUNCTION = 2;
+	/** Applies the function of ordinal {@code argument}, in degree, to register {@code a}. */
+	static final int FUNCTION_DEGREE = 3;
+	/** Evals the node of index {@code argument}, whose frame is the registers of the variables. */
+	static final int NODE = 4;
+	/** Copies register {@code a} into the register of a local. */
+	static final int STORE = 5;
+
+	static final int WORDS = 4;
+
+	private static final MathOperator[] OPERATORS = MathOperator.values();
+	private static final MathFunction[] FUNCTIONS = MathFunction.values();
+
+	private final int[] code;
+	private final double[] initialRegisters;
+	private final Node[] nodes;
+	private final String[] names;
+	private final int[] outputs;
+	private final String[] variables;
+	private double[] registers;
+
+	FusedProgram(int[] code, double[] initialRegisters, Node[] nodes, String[] names, int[] outputs,
+			String[] variables) {
+		this.code = code;
+		this.initialRegisters = initialRegisters;
+		this.nodes = nodes;
+		this.names = names;
+		this.outputs = outputs;
+		this.variables = variables;
+	}
+
+	/**
+	 * Creates a program sharing the code of this one, with its own registers and
+	 * its own windows, empty like before the first evaluation.
+	 */
+	public FusedProgram copy() {
+		Node[] renewed = new Node[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			renewed[i] = WindowNode.renew(nodes[i]);
+		}
+		return new FusedProgram(code, initialRegisters, renewed, names, outputs, variables);
+	}
+
+	/**
+	 * Evals all the formulas of the program.
+	 *
+	 * @param frame   the values of the variables, indexed by slot.
+	 * @param results the array receiving the value of each formula, indexed as
+	 *                {@link #getOutputNames()}.
+	 * @throws ParserException if evaluation fails.
+	 */
+	public void eval(double[] frame, double[] results) throws ParserException {
+		double[] registers = registers();
+		System.arraycopy(frame, 0, registers, 0, variables.length);
+		run(registers);
+		for (int i = 0; i < outputs.length; i++) {
+			results[i] = registers[outputs[i]];
+		}
+	}
+
+	/**
+	 * Evals all the formulas of the program for each row of the specified
+	 * columns. Each variable is read once per row, and the value of each formula
+	 * is written in place in its column.
+	 *
+	 * @param columns the columns of the variables, indexed by slot.
+	 * @param results the columns receiving the values of the formulas, indexed
+	 *                as {@link #getOutputNames()}.
+	 * @param rows    the number of rows to evaluate, from row {@code 0}.
+	 * @throws ParserException           if evaluation fails.
+	 * @throws IndexOutOfBoundsException if a column holds less than
+	 *                                   {@code rows} rows.
+	 */
+	public void evalColumns(Column[] columns, Column[] results, int rows) throws ParserException {
+		for (int i = 0; i < variables.length; i++) {
+			if (i >= columns.length || columns[i] == null) {
+				throw new ValueException("Impossible to find the value of variable '" + variables[i] + "'");
+			}
+			checkRows(columns[i], rows);
+		}
+		for (int i = 0; i < outputs.length; i++) {
+			checkRows(results[i], rows);
+		}
+		double[] registers = registers();
+		for (int row = 0; row < rows; row++) {
+			for (int i = 0; i < variables.length; i++) {
+				registers[i] = columns[i].get(row);
+			}
+			run(registers);
+			for (int i = 0; i < outputs.length; i++) {
+				results[i].set(row, registers[outputs[i]]);
+			}
+		}
+	}
+
+	private static void checkRows(Column column, int rows) {
+		if (column.rows() < rows) {
+			throw new IndexOutOfBoundsException("Column of " + column.rows() + " rows, " + rows + " expected.");
+		}
+	}
+
+	private double[] registers() {
+		if (registers == null) {
+			registers = initialRegisters.clone();
+		}
+		return registers;
+	}
+
+	private void run(double[] registers) {
+		final int[] code = this.code;
+		for (int pc = 0; pc < code.length; pc += WORDS) {
+			int word = code[pc];
+			int argument = word >>> PostfixProgram.OPCODE_BITS;
+			int target = code[pc + 1], a = code[pc + 2];
+			switch (word & PostfixProgram.OPCODE_MASK) {
+			case NEG:
+				registers[target] = -registers[a];
+				break;
+			case OPERATOR:
+				registers[target] = OPERATORS[argument].eval(registers[a], registers[code[pc + 3]]);
+				break;
+			case FUNCTION:
+				registers[target] = FUNCTIONS[argument].eval(registers[a], false);
+				break;
+			case FUNCTION_DEGREE:
+				registers[target] = FUNCTIONS[argument].eval(registers[a], true);
+				break;
+			case NODE:
+				registers[target] = nodes[argument].eval(registers);
+				break;
+			case STORE:
+				registers[target] = registers[a];
+				break;
+			default:
+				throw new ParserException("Evaluation fails: bad opcode.");
+			}
+		}
+	}
+
+	/** Gets the number of instructions of the program, after elimination of common sub expressions. */
+	public int getInstructionCount() {
+		return code.length / WORDS;
+	}
+
+	/** Gets the number of registers of the program. */
+	public int getRegisterCount() {
+		return initialRegisters.length;
+	}
+
+	/** Gets the names of the formulas, in the order of their results. */
+	public List<String> getOutputNames() {
+		return Collections.unmodifiableList(Arrays.asList(names));
+	}
+
+	/**
+	 * Gets the index of the result of the specified formula.
+	 *
+	 * @param name the name of the formula.
+	 * @return the index of its result, {@code -1} if the program has no such
+	 *         formula.
+	 */
+	public int outputOf(String name) {
+		return Arrays.asList(names).indexOf(name);
+	}
+
+	/** Gets the names of the variables referenced by the formulas, by slot. */
+	public List<String> getVariableNames() {
+		return Collections.unmodifiableList(Arrays.asList(variables));
+	}
+
+	/**
+	 * Gets the slot of the specified variable.
+	 *
+	 * @param name the name of the variable.
+	 * @return the slot of the variable, {@code -1} if no formula references it.
+	 */
+	public int slotOf(String name) {
+		return Arrays.asList(variables).indexOf(name);
+	}
+}
@@ -0,0 +1,116 @@
+package com.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Root of a maximal integral sub tree. The sub tree is evaluated with exact
+ * {@code long} arithmetic when all the variables it reads hold integers, and
+ * falls back to {@code double} arithmetic otherwise or on overflow. Sub trees
+ * failing exact evaluation too often, like {@code x ^ y} with negative
+ * {@code y}, end up always using {@code double} arithmetic.
+ * <br/>
+ * The double arithmetic may evaluate a rewriting of the body, e.g. with
+ * polynomials in Horner form or flattened chains, which rounds differently.
+ * Such a fallback is the second child of the node, so that passes rewriting
+ * the tree through {@link #withChildren(Node[])} rewrite it along with the
+ * body.
+ */
+final class IntegralNode extends Node {
+
+	/** Number of failed exact evaluations after which only double arithmetic is used. */
+	static final int MAX_FAILURES = 1024;
+
+	private final Node body;
+	/** Tree evaluated with double arithmetic, the body or a rewriting of it. */
+	private final Node fallback;
+	private final int[] slots;
+	/** Racy counter, losing updates only delays the switch. */
+	private int failures;
+
+	IntegralNode(Node body) {
+		this(body, body);
+	}
+
+	/**
+	 * Creates a node evaluating the specified tree with double arithmetic
+	 * instead of the body, e.g. its polynomials in Horner form.
+	 */
+	IntegralNode(Node body, Node fallback) {
+		this.body = body;
+		this.fallback = fallback;
+		List<Integer> found = new ArrayList<>();
+		collectSlots(body, found);
+		this.slots = found.stream().mapToInt(Integer::intValue).distinct().toArray();
+	}
+
+	private static void collectSlots(Node node, List<Integer> found) {
+		if (node instanceof VariableNode) {
+			found.add(((VariableNode) node).slot());
+		}
+		for (Node child : node.children()) {
+			collectSlots(child, found);
+		}
+	}
+
+	/** Tests if all the variables read by the body hold integers. */
+	private boolean integralInputs(double[] frame) {
+		for (int slot : slots) {
+			if (!isInteger(frame[slot])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tests if a value is an integer held exactly by a {@code long}. Negative
+	 * zero isn't, its sign being lost by {@code long} arithmetic.
+	 */
+	static boolean isInteger(double value) {
+		return (long) value == value && Double.doubleToRawLongBits(value) != Long.MIN_VALUE;
+	}
+
+	/** Gets the tree evaluated with double arithmetic. */
+	Node fallback() {
+		return fallback;
+	}
+
+	@Override
+	double eval(double[] frame) {
+		if (failures < MAX_FAILURES && integralInputs(frame)) {
+			try {
+				return body.evalLong(frame);
+			} catch (ArithmeticException e) {
+				// Overflow, negative exponent or zero divisor
+				failures++;
+			}
+		}
+		return fallback.eval(frame);
+	}
+
+	@Override
+	boolean isIntegral() {
+		return true;
+	}
+
+	@Override
+	long evalLong(double[] frame) {
+		return body.evalLong(frame);
+	}
+
+	/** Gets the body, then the fallback when it is a rewriting of the body. */
+	@Override
+	Node[] children() {
+		return fallback == body ? new Node[] { body } : new Node[] { body, fallback };
+	}
+
+	@Override
+	Node withChildren(Node[] children) {
+		Node fallback = children.length > 1 ? children[1] : children[0];
+		if (!children[0].isIntegral()) {
+			return fallback;
+		}
+		return new IntegralNode(children[0], fallback);
+	}
+}
@@ -0,0 +1,100 @@
+package com.parser;
+
+/**
+ * Local binding {@code let name = value in body}: the value is computed once,
+ * stored in the frame at the slot of the local, then read by the
+ * {@link VariableNode} of the body referencing the local.
+ * <br/>
+ * Locals follow the variables in the frame. Until the compiler knows the
+ * number of variables, the parser gives the local of index {@code i} the slot
+ * {@code -1 - i}, see {@link #locate(Node, int)}.
+ */
+final class LetNode extends Node {
+
+	private final String name;
+	private final int slot;
+	private final Node value, body;
+
+	LetNode(String name, int slot, Node value, Node body) {
+		this.name = name;
+		this.slot = slot;
+		this.value = value;
+		this.body = body;
+	}
+
+	String name() {
+		return name;
+	}
+
+	int slot() {
+		return slot;
+	}
+
+	Node value() {
+		return value;
+	}
+
+	Node body() {
+		return body;
+	}
+
+	@Override
+	double eval(double[] frame) {
+		frame[slot] = value.eval(frame);
+		return body.eval(frame);
+	}
+
+	@Override
+	Node[] children() {
+		return new Node[] { value, body };
+	}
+
+	@Override
+	Node withChildren(Node[] children) {
+		return new LetNode(name, slot, children[0], children[1]);
+	}
+
+	/** Gets the slot, before the locals are located, of the local of the specified index. */
+	static int unlocated(int index) {
+		return -1 - index;
+	}
+
+	/**
+	 * Gives the locals of a parsed tree their slots in the frame, after the
+	 * variables.
+	 *
+	 * @param node the root of the tree.
+	 * @param base the slot of the first local, the number of variables.
+	 * @return the tree, {@code node} itself if it has no local.
+	 */
+	static Node locate(Node node, int base) {
+		if (node instanceof VariableNode) {
+			VariableNode variable = (VariableNode) node;
+			return variable.slot() >= 0 ? node : new VariableNode(variable.name(), base - 1 - variable.slot());
+		}
+		Node[] children = node.children();
+		if (children.length == 0) {
+			return node;
+		}
+		boolean changed = false;
+		Node[] located = new Node[children.length];
+		for (int i = 0; i < children.length; i++) {
+			located[i] = locate(children[i], base);
+			changed |= located[i] != children[i];
+		}
+		if (node instanceof LetNode) {
+			LetNode let = (LetNode) node;
+			return new LetNode(let.name, base - 1 - let.slot, located[0], located[1]);
+		}
+		return changed ? node.withChildren(located) : node;
+	}
+
+	/** Counts the locals of a tree. */
+	static int count(Node node) {
+		int count = node instanceof LetNode ? 1 : 0;
+		for (Node child : node.children()) {
+			count += count(child);
+		}
+		return count;
+	}
+}
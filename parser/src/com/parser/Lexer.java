@@ -0,0 +1,170 @@
+package com.parser;
+
+/**
+ * Splits a maths expression into tokens in a single left to right pass. The
+ * lexer doesn't allocate anything per token: the current token is described by
+ * {@link #kind()}, {@link #start()}, {@link #end()} and, for operators,
+ * {@link #operator()}.
+ */
+final class Lexer {
+
+	static final int END = 0, NUMBER = 1, IDENTIFIER = 2, OPERATOR = 3, OPEN = 4, CLOSE = 5, UNKNOWN = 6, COMMA = 7,
+			EQUALS = 8;
+
+	private static final MathOperator[] OPERATORS = MathOperator.values();
+
+	private final String text;
+	private final int length;
+	private int kind = END, start, end;
+	private MathOperator operator;
+
+	Lexer(String text) {
+		this.text = text;
+		this.length = text.length();
+	}
+
+	/**
+	 * Moves to the next token of the text.
+	 *
+	 * @return the kind of the new current token.
+	 */
+	int next() {
+		int i = end;
+		while (i < length && Character.isWhitespace(text.charAt(i))) {
+			i++;
+		}
+		start = i;
+		operator = null;
+		if (i >= length) {
+			end = i;
+			return kind = END;
+		}
+		char c = text.charAt(i);
+		if (c == '(') {
+			end = i + 1;
+			return kind = OPEN;
+		}
+		if (c == ')') {
+			end = i + 1;
+			return kind = CLOSE;
+		}
+		if (c == ',') {
+			end = i + 1;
+			return kind = COMMA;
+		}
+		if (c == '=') {
+			end = i + 1;
+			return kind = EQUALS;
+		}
+		if (isDigit(c) || c == '.') {
+			end = scanNumber(i);
+			return kind = NUMBER;
+		}
+		if (isIdentifierStart(c)) {
+			i++;
+			while (i < length && isIdentifierPart(text.charAt(i))) {
+				i++;
+			}
+			end = i;
+			return kind = IDENTIFIER;
+		}
+		for (MathOperator o : OPERATORS) {
+			if (text.startsWith(o.getText(), i)
+					&& (operator == null || o.getText().length() > operator.getText().length())) {
+				operator = o;
+			}
+		}
+		if (operator != null) {
+			end = i + operator.getText().length();
+			return kind = OPERATOR;
+		}
+		end = i + 1;
+		return kind = UNKNOWN;
+	}
+
+	private int scanNumber(int i) {
+		while (i < length && isDigit(text.charAt(i))) {
+			i++;
+		}
+		if (i < length && text.charAt(i) == '.') {
+			i++;
+			while (i < length && isDigit(text.charAt(i))) {
+				i++;
+			}
+		}
+		if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+			// Only consume the exponent when it is complete
+			int j = i + 1;
+			if (j < length && (text.charAt(j) == '+' || text.charAt(j) == '-')) {
+				j++;
+			}
+			if (j < length && isDigit(text.charAt(j))) {
+				i = j;
+				while (i < length && isDigit(text.charAt(i))) {
+					i++;
+				}
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Moves to the ')' of the specified offset, skipping the tokens before it.
+	 *
+	 * @param close the offset of a ')'.
+	 */
+	void skipTo(int close) {
+		start = close;
+		end = close + 1;
+		operator = null;
+		kind = CLOSE;
+	}
+
+	/** Tests if the current number token is written as a plain integer. */
+	boolean isIntegerLiteral() {
+		for (int i = start; i < end; i++) {
+			if (!isDigit(text.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	int kind() {
+		return kind;
+	}
+
+	int start() {
+		return start;
+	}
+
+	int end() {
+		return end;
+	}
+
+	/** Gets the length of the text. */
+	int length() {
+		return length;
+	}
+
+	MathOperator operator() {
+		return operator;
+	}
+
+	/** Gets the text of the current token. */
+	String text() {
+		return text.substring(start, end);
+	}
+
+	static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	static boolean isIdentifierStart(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+	}
+
+	static boolean isIdentifierPart(char c) {
+		return isIdentifierStart(c) || isDigit(c);
+	}
+}
@@ -0,0 +1,131 @@
+package com.parser;
+
+/**
+ * Provides the functions taking any number of arguments, separated by commas,
+ * like {@code sum(a, b, c)}. They are only known by {@link ExpressionCompiler}.
+ * <br/>
+ * Sums use the compensated summation of Kahan, as improved by
+ * Neumaier: the rounding error of each addition is accumulated apart and added
+ * back at the end, so that the error doesn't grow with the number of
+ * arguments. Products, minimums and maximums are computed from left to right.
+ *
+ * @since 1.1
+ */
+public enum MathAggregate {
+
+	SUM, AVG, MIN, MAX, PROD;
+
+	/** Gets the expected string in the math expression to identify the function. */
+	public String getText() {
+		return name().toLowerCase();
+	}
+
+	/** Tests if the function of integer arguments is an integer, see {@link #evalExact(long[], int, int)}. */
+	public boolean preservesIntegers() {
+		return this != AVG;
+	}
+
+	/**
+	 * Evals the function of the values of an array range, e.g. the top of an
+	 * operand stack.
+	 *
+	 * @param values the array holding the arguments.
+	 * @param from   the index of the first argument.
+	 * @param to     the index after the last argument, above {@code from}.
+	 * @return the value of the function.
+	 */
+	public double eval(double[] values, int from, int to) {
+		switch (this) {
+		case SUM:
+		case AVG:
+			// -0.0 is the identity of addition: a sum of negative zeros is -0.0, like a + b
+			double sum = -0.0, compensation = 0;
+			for (int i = from; i < to; i++) {
+				double value = values[i], t = sum + value;
+				// Neumaier: the lost low order bits are those of the smaller operand
+				compensation += Math.abs(sum) >= Math.abs(value) ? (sum - t) + value : (value - t) + sum;
+				sum = t;
+			}
+			sum = total(sum, compensation);
+			return this == SUM ? sum : sum / (to - from);
+		case PROD:
+			double product = values[from];
+			for (int i = from + 1; i < to; i++) {
+				product *= values[i];
+			}
+			return product;
+		case MIN:
+			double min = values[from];
+			for (int i = from + 1; i < to; i++) {
+				min = Math.min(min, values[i]);
+			}
+			return min;
+		case MAX:
+			double max = values[from];
+			for (int i = from + 1; i < to; i++) {
+				max = Math.max(max, values[i]);
+			}
+			return max;
+		}
+		throw new ParserException("Evaluation fails.");
+	}
+
+	/**
+	 * Adds the compensation of a sum back to it. Infinite operands leave a
+	 * {@code NaN} compensation, and a zero one would turn a sum of {@code -0.0}
+	 * into {@code +0.0}: both are ignored.
+	 */
+	static double total(double sum, double compensation) {
+		return Double.isFinite(sum) && compensation != 0 ? sum + compensation : sum;
+	}
+
+	/**
+	 * Evals the function of the values of an array range using exact
+	 * {@code long} arithmetic.
+	 *
+	 * @throws ArithmeticException if the result overflows a {@code long} or the
+	 *                             function doesn't preserve integers.
+	 */
+	public long evalExact(long[] values, int from, int to) {
+		long result = values[from];
+		for (int i = from + 1; i < to; i++) {
+			switch (this) {
+			case SUM:
+				result = Math.addExact(result, values[i]);
+				break;
+			case PROD:
+				result = Math.multiplyExact(result, values[i]);
+				break;
+			case MIN:
+				result = Math.min(result, values[i]);
+				break;
+			case MAX:
+				result = Math.max(result, values[i]);
+				break;
+			default:
+				throw new ArithmeticException("The function '" + getText() + "' doesn't preserve integers.");
+			}
+		}
+		if (this == AVG) {
+			throw new ArithmeticException("The function '" + getText() + "' doesn't preserve integers.");
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the function identified by the specified text, ignoring case.
+	 *
+	 * @param text the name of the function, as found in a maths expression.
+	 * @return the matched function, {@code null} if there isn't matching.
+	 */
+	public static MathAggregate fromText(String text) {
+		if (text != null) {
+			for (MathAggregate f : MathAggregate.values()) {
+				if (f.getText().equalsIgnoreCase(text)) {
+					return f;
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -28,7 +28,8 @@ public enum MathFunction {
 	 */
 	public double eval(double x, boolean degree) throws ParserException {
 		double radian = x;
-		if (degree) {
+		// Only trigonometric functions take an angle
+		if (degree && this != LN && this != SQRT) {
 			radian %= 360;
 			radian = radian * Math.PI / 180;
 		}
@@ -52,6 +53,23 @@ public enum MathFunction {
 		}
 	}
 
+	/**
+	 * Gets the function identified by the specified text, ignoring case.
+	 * 
+	 * @param text the name of the function, as found in a maths expression.
+	 * @return the matched function, {@code null} if there isn't matching.
+	 */
+	public static MathFunction fromText(String text) {
+		if (text != null) {
+			for (MathFunction f : MathFunction.values()) {
+				if (f.getText().equalsIgnoreCase(text)) {
+					return f;
+				}
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Tries to fetch the next occurence of a function in the supplyed expression.
 	 * When found, an instance of {@link MathFunctionToken} is returned using index
@@ -10,6 +10,10 @@ public class MathMain {
 		System.out.println(se.eval());
 		FunctionExpression fe = new FunctionExpression("(cos(pi) + 2) - sin(pi/2)", false);
 		System.out.println(fe.eval());
+		CompiledExpression ce = new ExpressionCompiler().compile("n ^ 3 % m");
+		ce.withVariable("n", 1000003);
+		ce.withVariable("m", 1000000007);
+		System.out.println(ce.evalNumber());
 	}
 
 }
@@ -61,6 +61,101 @@ public enum MathOperator {
 		throw new ParserException("Evaluation fails.");
 	}
 
+	/**
+	 * Tests if applying this operator to two integers always produces an integer,
+	 * when the result is defined.
+	 * 
+	 * @return {@code true} if and only if this operator is able to be evaluated by
+	 *         {@link #evalExact(long, long)}.
+	 */
+	public boolean preservesIntegers() {
+		return this != DIV;
+	}
+
+	/**
+	 * Do {@code x op y} using exact {@code long} arithmetic, where {@code op} is
+	 * this enum constant.
+	 * 
+	 * @param x left operand of the operation
+	 * @param y right operand of the operation
+	 * @return the exact result of the evaluation.
+	 * @throws ArithmeticException if the result overflows a {@code long}, isn't
+	 *                             an integer or isn't defined. Callers are
+	 *                             expected to fall back to
+	 *                             {@link #eval(double, double)}.
+	 */
+	public long evalExact(long x, long y) {
+		switch (this) {
+		case MINUS:
+			return Math.subtractExact(x, y);
+		case PLUS:
+			return Math.addExact(x, y);
+		case TIMES:
+			return Math.multiplyExact(x, y);
+		case POW:
+			return pow(x, y);
+		case MOD:
+			// Throws on zero divisor
+			return x % y;
+		case DIV:
+			break;
+		}
+		throw new ArithmeticException("The operator '" + text + "' doesn't preserve integers.");
+	}
+
+	/** Exponentiation by squaring, for non negative exponent. */
+	private static long pow(long base, long exponent) {
+		if (exponent < 0) {
+			throw new ArithmeticException("Negative exponent.");
+		}
+		long result = 1;
+		while (exponent > 0) {
+			if ((exponent & 1) != 0) {
+				result = Math.multiplyExact(result, base);
+			}
+			exponent >>= 1;
+			if (exponent > 0) {
+				base = Math.multiplyExact(base, base);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Raises a value to a small integer power with multiplications instead of
+	 * {@link Math#pow(double, double)}. The rounding error of {@code base * base}
+	 * is recovered with {@link Math#fma(double, double, double)}, so that
+	 * results are as accurate as those of {@code Math.pow}.
+	 * 
+	 * @param base     the value to raise.
+	 * @param exponent the exponent, from {@code 2} to {@code 4}; other
+	 *                 exponents are computed by {@code Math.pow}.
+	 * @return {@code base ^ exponent}.
+	 * @since 1.1
+	 */
+	public static double integerPower(double base, int exponent) {
+		double square = base * base;
+		if (!Double.isFinite(square)) {
+			// Infinite or NaN, whose special cases are Math.pow ones
+			return Math.pow(base, exponent);
+		}
+		switch (exponent) {
+		case 2:
+			return square;
+		case 3:
+			return Math.fma(square, base, Math.fma(base, base, -square) * base);
+		case 4:
+			return Math.fma(square, square, 2 * square * Math.fma(base, base, -square));
+		default:
+			return Math.pow(base, exponent);
+		}
+	}
+
+	/** Gets the precedence of the operator, bigger value binding tighter. */
+	public int getPrecedence() {
+		return precedence;
+	}
+
 	/**
 	 * Tries to fetch the first occurence of an operator, of max precedence, in the
 	 * supplyed expression. When found, an instance of {@link OperatorToken} is
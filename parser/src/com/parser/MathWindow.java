@@ -0,0 +1,70 @@
+package com.parser;
+
+/**
+ * Provides the functions of a time series, like {@code movavg(x, 20)}, whose
+ * value depends on the previous evaluations of the expression: each evaluation
+ * of a {@link CompiledExpression} is a tick, giving its argument a new value.
+ * They are only known by {@link ExpressionCompiler}.
+ * <br/>
+ * The moving functions take the number of ticks of their window, a constant
+ * integer, and apply to the values of the last ticks, fewer until the window
+ * is full. {@link #EMA} takes the smoothing factor {@code alpha}, a constant in
+ * {@code (0, 1]}, weighting each new value against the previous average. Each
+ * tick is processed in amortized constant time, whatever the size of the
+ * window.
+ *
+ * @since 1.1
+ */
+public enum MathWindow {
+
+	/** Average of the values of the window. */
+	MOVAVG,
+	/** Sum of the values of the window. */
+	MOVSUM,
+	/** Minimum of the values of the window. */
+	MOVMIN,
+	/** Maximum of the values of the window. */
+	MOVMAX,
+	/** Exponential moving average, {@code s += alpha * (x - s)}, starting at the first value. */
+	EMA;
+
+	/** Maximal number of ticks of a window. */
+	public static final int MAX_SIZE = 1 << 24;
+
+	/** Gets the expected string in the math expression to identify the function. */
+	public String getText() {
+		return name().toLowerCase();
+	}
+
+	/** Tests if the parameter of the function is the number of ticks of its window. */
+	public boolean isSized() {
+		return this != EMA;
+	}
+
+	/**
+	 * Tests if the specified value is a valid parameter of the function: an
+	 * integer in {@code [1, MAX_SIZE]} for the moving functions, a factor in
+	 * {@code (0, 1]} for {@link #EMA}.
+	 */
+	public boolean isValidParameter(double parameter) {
+		return isSized() ? parameter >= 1 && parameter <= MAX_SIZE && parameter == Math.rint(parameter)
+				: parameter > 0 && parameter <= 1;
+	}
+
+	/**
+	 * Gets the function identified by the specified text, ignoring case.
+	 *
+	 * @param text the name of the function, as found in a maths expression.
+	 * @return the matched function, {@code null} if there isn't matching.
+	 */
+	public static MathWindow fromText(String text) {
+		if (text != null) {
+			for (MathWindow f : MathWindow.values()) {
+				if (f.getText().equalsIgnoreCase(text)) {
+					return f;
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,107 @@
+package com.parser;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Call of a {@link MathFunction} remembering its last results, for arguments
+ * taking few distinct values. The cache is direct mapped, keyed by the raw bits
+ * of the argument, and held by primitive arrays. It is disabled for good when
+ * fewer than a quarter of the lookups of a window hit.
+ * <br/>
+ * The cache is shared by the threads evaluating the call. Each entry is
+ * guarded by a stamp, odd while the entry is written: a thread writes an
+ * entry only after moving its stamp from even to odd, and a lookup hits only
+ * if the stamp was even and unchanged around the reads of the key and the
+ * value, so that a key is never read with the value of another one. A lookup
+ * racing a write misses, and a write racing another is dropped. The hit rate
+ * is counted without synchronization, thus approximately under contention.
+ */
+final class MemoizedFunctionNode extends Node {
+
+	/** Number of entries of the cache, a power of two. */
+	static final int SIZE = 64;
+	/** Number of lookups after which the hit rate is checked. */
+	static final int WINDOW = 4096;
+
+	private static final int SHIFT = Long.SIZE - Integer.numberOfTrailingZeros(SIZE);
+
+	private final MathFunction function;
+	private final boolean degree;
+	private final Node argument;
+	private final long[] keys = new long[SIZE];
+	private final double[] values = new double[SIZE];
+	private final AtomicLongArray stamps = new AtomicLongArray(SIZE);
+	private int lookups, hits;
+	private boolean disabled;
+
+	MemoizedFunctionNode(MathFunction function, boolean degree, Node argument) {
+		this.function = function;
+		this.degree = degree;
+		this.argument = argument;
+		// Empty slots hold a key mapped to another slot, so that no lookup hits them
+		for (int i = 0; i < SIZE; i++) {
+			long key = 0;
+			while (index(key) == i) {
+				key++;
+			}
+			keys[i] = key;
+		}
+	}
+
+	private static int index(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> SHIFT);
+	}
+
+	MathFunction function() {
+		return function;
+	}
+
+	boolean isDegree() {
+		return degree;
+	}
+
+	/** Tests if the cache has been disabled for a low hit rate. */
+	boolean isDisabled() {
+		return disabled;
+	}
+
+	@Override
+	double eval(double[] frame) {
+		double x = argument.eval(frame);
+		if (disabled) {
+			return function.eval(x, degree);
+		}
+		long key = Double.doubleToRawLongBits(x);
+		int index = index(key);
+		long stamp = stamps.get(index);
+		long cached = keys[index];
+		double value = values[index];
+		VarHandle.loadLoadFence();
+		if ((stamp & 1) == 0 && cached == key && stamps.get(index) == stamp) {
+			hits++;
+		} else {
+			value = function.eval(x, degree);
+			if ((stamp & 1) == 0 && stamps.compareAndSet(index, stamp, stamp + 1)) {
+				keys[index] = key;
+				values[index] = value;
+				stamps.lazySet(index, stamp + 2);
+			}
+		}
+		if (++lookups >= WINDOW) {
+			disabled = hits < WINDOW / 4;
+			lookups = hits = 0;
+		}
+		return value;
+	}
+
+	@Override
+	Node[] children() {
+		return new Node[] { argument };
+	}
+
+	@Override
+	Node withChildren(Node[] children) {
+		return new MemoizedFunctionNode(function, degree, children[0]);
+	}
+}
@@ -0,0 +1,38 @@
+package com.parser;
+
+/** Unary minus. */
+final class NegateNode extends Node {
+
+	private final Node operand;
+	private final boolean integral;
+
+	NegateNode(Node operand) {
+		this.operand = operand;
+		this.integral = operand.isIntegral();
+	}
+
+	@Override
+	double eval(double[] frame) {
+		return -operand.eval(frame);
+	}
+
+	@Override
+	boolean isIntegral() {
+		return integral;
+	}
+
+	@Override
+	long evalLong(double[] frame) {
+		return Math.negateExact(operand.evalLong(frame));
+	}
+
+	@Override
+	Node[] children() {
+		return new Node[] { operand };
+	}
+
+	@Override
+	Node withChildren(Node[] children) {
+		return new NegateNode(children[0]);
+	}
+}
@@ -0,0 +1,56 @@
+package com.parser;
+
+/**
+ * Node of the tree built by {@link ExpressionCompiler}. Nodes are immutable:
+ * rewriting a tree produces new nodes through {@link #withChildren(Node[])}.
+ * <br/>
+ * Evaluation reads variables from a frame, a {@code double} array indexed by
+ * the slots given to the variables at compile time.
+ */
+abstract class Node {
+
+	static final Node[] NO_CHILDREN = new Node[0];
+
+	/**
+	 * Evals the node.
+	 * 
+	 * @param frame the values of the variables, indexed by slot.
+	 * @return the value of the node.
+	 */
+	abstract double eval(double[] frame);
+
+	/**
+	 * Tests if the node is built only with integers and operators preserving
+	 * integers, so that it may be evaluated by {@link #evalLong(double[])}.
+	 */
+	boolean isIntegral() {
+		return false;
+	}
+
+	/**
+	 * Evals the node using exact {@code long} arithmetic.
+	 * 
+	 * @param frame the values of the variables, indexed by slot.
+	 * @return the exact value of the node.
+	 * @throws ArithmeticException if the node isn't integral, if a variable
+	 *                             doesn't hold an integer or on overflow.
+	 */
+	long evalLong(double[] frame) {
+		throw new ArithmeticException("Not an integral expression.");
+	}
+
+	/** Gets the direct children of the node. The returned array must not be modified. */
+	Node[] children() {
+		return NO_CHILDREN;
+	}
+
+	/**
+	 * Creates a copy of this node using the specified children.
+	 * 
+	 * @param children the new children, in the order of {@link #children()}.
+	 * @return the new node, {@code this} for leaves.
+	 */
+	Node withChildren(Node[] children) {
+		return this;
+	}
+}
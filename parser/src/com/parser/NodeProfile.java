@@ -0,0 +1,105 @@
+package com.parser;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Node of the compiled tree of an expression, as reported by an
+ * {@link ExpressionProfile}: what it computes, and what its evaluations cost.
+ *
+ * @since 1.1
+ */
+public final class NodeProfile {
+
+	private final String label;
+	private final int depth;
+	private List<NodeProfile> children = Collections.emptyList();
+	private long evaluations, totalNanos, nanOrigins, infinityOrigins;
+
+	NodeProfile(String label, int depth) {
+		this.label = label;
+		this.depth = depth;
+	}
+
+	void setChildren(List<NodeProfile> children) {
+		this.children = Collections.unmodifiableList(children);
+	}
+
+	/** Records an evaluation of the node, of the specified duration. */
+	void evaluated(long nanos) {
+		evaluations++;
+		totalNanos += nanos;
+	}
+
+	/** Records a {@code NaN} or infinite value computed by the node from finite values. */
+	void originated(double value) {
+		if (Double.isNaN(value)) {
+			nanOrigins++;
+		} else {
+			infinityOrigins++;
+		}
+	}
+
+	/**
+	 * Gets the description of the node: the value of a constant, the name of a
+	 * variable or local, the text of an operator or function, or the kind of an
+	 * optimized node, like {@code integral} or {@code horner}.
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/** Gets the depth of the node in the tree, {@code 0} for the root. */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Gets the operands of the node. Those of an {@code integral} node are its
+	 * body, evaluated with {@code long} arithmetic, then the rewriting of the
+	 * body evaluated with {@code double} arithmetic, if any.
+	 */
+	public List<NodeProfile> getChildren() {
+		return children;
+	}
+
+	/** Gets the number of evaluations of the node. */
+	public long getEvaluationCount() {
+		return evaluations;
+	}
+
+	/** Gets the time spent evaluating the node and its operands, in nanoseconds. */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/** Gets the time spent evaluating the node itself, without its operands, in nanoseconds. */
+	public long getSelfNanos() {
+		long self = totalNanos;
+		for (NodeProfile child : children) {
+			self -= child.totalNanos;
+		}
+		return Math.max(0, self);
+	}
+
+	/**
+	 * Gets the number of evaluations where the node computed {@code NaN} while
+	 * its operands were finite, e.g. {@code 0 / 0} or {@code sqrt(-1)}, or read
+	 * a variable holding {@code NaN}.
+	 */
+	public long getNanOrigins() {
+		return nanOrigins;
+	}
+
+	/** Gets the number of evaluations where the node computed an infinite value from finite operands. */
+	public long getInfinityOrigins() {
+		return infinityOrigins;
+	}
+
+	@Override
+	public String toString() {
+		return "NodeProfile [label=" + label + ", evaluations=" + evaluations + ", totalNanos=" + totalNanos
+				+ ", selfNanos=" + getSelfNanos() + ", nanOrigins=" + nanOrigins + ", infinityOrigins="
+				+ infinityOrigins + "]";
+	}
+}
@@ -95,7 +95,7 @@ public class ParenthesisExpression extends ValueExpression {
 				throw new ExpressionFormatException("Unable to execute expression '()'.");
 			}
 			String sub = exp.substring(openIndex + 1, closedIndex);
-			SimpleExpression se = new SimpleExpression(sub, getVariables());
+			SimpleExpression se = share(new SimpleExpression(sub, getVariables()));
 
 			/*
 			 * Checks if there is an implicit multiplication before or after the parenthesis
@@ -152,13 +152,21 @@ public class ParenthesisExpression extends ValueExpression {
 	}
 
 	public double eval() {
-		int open;
-		do {
-			open = nextPriorOpen();
-			// System.out.println(open + "\t:\t" + getAsText());
-			setAsText(eval(open));
-		} while (open >= 0);
-		SimpleExpression se = new SimpleExpression(getAsText(), getVariables());
-		return se.eval();
+		boolean started = startBudget();
+		try {
+			int open;
+			do {
+				step();
+				open = nextPriorOpen();
+				// System.out.println(open + "\t:\t" + getAsText());
+				setAsText(eval(open));
+			} while (open >= 0);
+			SimpleExpression se = share(new SimpleExpression(getAsText(), getVariables()));
+			return se.eval();
+		} finally {
+			if (started) {
+				budget = null;
+			}
+		}
 	}
 }
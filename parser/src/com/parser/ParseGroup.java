@@ -0,0 +1,70 @@
+package com.parser;
+
+import java.util.Arrays;
+
+/**
+ * Parenthesis block, or function argument, parsed by
+ * {@link ExpressionParser}, with the blocks it holds. A block is reused as is
+ * by a later parse of an edited expression when the edit left its text
+ * intact: its position is relative to the block holding it, so that it doesn't
+ * depend on the text before it.
+ * <br/>
+ * The root block stands for the whole expression.
+ */
+final class ParseGroup {
+
+	/** Number of characters, from '(' to ')' included. */
+	final int length;
+	/** Root of the tree of the content of the block. */
+	final Node node;
+	/**
+	 * Number of variables known before the block, then after it: the block
+	 * gave the slots between them to the variables it references first.
+	 */
+	final int slotsBefore, slotsAfter;
+	/** Number of tokens after '(' up to ')' included, and of nodes of the content. */
+	final int tokens, nodes;
+	/** Nesting depth of the block, {@code 1} if it holds no block. */
+	final int height;
+	/** Height of the tree of the content, {@code 1} for a leaf. */
+	final int treeHeight;
+	/** Offsets of the blocks held, relative to the '(' of this one, in increasing order. */
+	private final int[] starts;
+	private final ParseGroup[] children;
+
+	ParseGroup(int length, Node node, int slotsBefore, int slotsAfter, int tokens, int nodes, int height,
+			int treeHeight, int[] starts, ParseGroup[] children) {
+		this.length = length;
+		this.node = node;
+		this.slotsBefore = slotsBefore;
+		this.slotsAfter = slotsAfter;
+		this.tokens = tokens;
+		this.nodes = nodes;
+		this.height = height;
+		this.treeHeight = treeHeight;
+		this.starts = starts;
+		this.children = children;
+	}
+
+	/**
+	 * Finds the block opened at the specified offset, relative to this one,
+	 * descending through the blocks holding it.
+	 *
+	 * @return the block, {@code null} if no block is opened at {@code offset}.
+	 */
+	ParseGroup find(int offset) {
+		ParseGroup group = this;
+		while (true) {
+			int i = Arrays.binarySearch(group.starts, offset);
+			if (i >= 0) {
+				return group.children[i];
+			}
+			i = -i - 2;
+			if (i < 0 || offset - group.starts[i] >= group.children[i].length) {
+				return null;
+			}
+			offset -= group.starts[i];
+			group = group.children[i];
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.parser;
+
+import java.util.Set;
+
+/**
+ * Result of the parsing of an expression by
+ * {@link ExpressionCompiler#parse(String)}: the first syntax error if any, the
+ * variables referenced and the tree of the expression, which
+ * {@link ExpressionCompiler#reparse(ParseResult, int, int, String)} updates
+ * after each edit of the text and
+ * {@link ExpressionCompiler#compile(ParseResult)} compiles without parsing
+ * again.
+ *
+ * @since 1.1
+ */
+public final class ParseResult {
+
+	private final String expression;
+	private final Diagnostic diagnostic;
+	private final Set<String> variables;
+	/** Root of the tree, {@code null} if the expression is invalid. */
+	final Node root;
+	/** Root block of the expression, {@code null} if it is blank. */
+	final ParseGroup groups;
+	final String[] variableNames;
+	final boolean degree;
+	private final int reusedGroups;
+
+	ParseResult(String expression, Diagnostic diagnostic, Set<String> variables, Node root, ParseGroup groups,
+			String[] variableNames, boolean degree, int reusedGroups) {
+		this.expression = expression;
+		this.diagnostic = diagnostic;
+		this.variables = variables;
+		this.root = root;
+		this.groups = groups;
+		this.variableNames = variableNames;
+		this.degree = degree;
+		this.reusedGroups = reusedGroups;
+	}
+
+	/** Gets the parsed expression. */
+	public String getExpression() {
+		return expression;
+	}
+
+	/** Tests if the expression is syntactically valid. */
+	public boolean isValid() {
+		return diagnostic == null;
+	}
+
+	/** Gets the syntax error of the expression, {@code null} if it is valid. */
+	public Diagnostic getDiagnostic() {
+		return diagnostic;
+	}
+
+	/**
+	 * Gets the unmodifiable set of the variables referenced by the expression, in
+	 * order of first occurrence. When the expression is invalid, only the
+	 * variables found before the error are present.
+	 */
+	public Set<String> getVariables() {
+		return variables;
+	}
+
+	/**
+	 * Gets the number of parenthesis blocks of the previous result skipped by
+	 * the parser, their sub trees being reused, {@code 0} for a full parse.
+	 */
+	public int getReusedGroups() {
+		return reusedGroups;
+	}
+
+	@Override
+	public String toString() {
+		return isValid() ? "valid " + variables : diagnostic.toString();
+	}
+}
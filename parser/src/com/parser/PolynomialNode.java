@@ -0,0 +1,68 @@
+package com.parser;
+
+import java.util.Arrays;
+
+/**
+ * Polynomial in a single variable, evaluated in Horner form with
+ * {@link Math#fma(double, double, double)}: one fused multiply add per degree
+ * instead of a call to {@link Math#pow(double, double)} per term. The
+ * coefficients may be any sub trees not reading the variable.
+ */
+final class PolynomialNode extends Node {
+
+	private final Node variable;
+	/** Coefficients, from the highest degree down to the constant term. */
+	private final Node[] coefficients;
+	/** Values of the coefficients when all of them are constants, {@code null} else. */
+	private final double[] constants;
+
+	PolynomialNode(Node variable, Node[] coefficients) {
+		this.variable = variable;
+		this.coefficients = coefficients;
+		double[] constants = new double[coefficients.length];
+		for (int i = 0; i < coefficients.length; i++) {
+			if (!(coefficients[i] instanceof ConstantNode)) {
+				constants = null;
+				break;
+			}
+			constants[i] = ((ConstantNode) coefficients[i]).value();
+		}
+		this.constants = constants;
+	}
+
+	/** Gets the degree of the polynomial. */
+	int degree() {
+		return coefficients.length - 1;
+	}
+
+	@Override
+	double eval(double[] frame) {
+		double x = variable.eval(frame);
+		if (constants != null) {
+			double p = constants[0];
+			for (int i = 1; i < constants.length; i++) {
+				p = Math.fma(p, x, constants[i]);
+			}
+			return p;
+		}
+		double p = coefficients[0].eval(frame);
+		for (int i = 1; i < coefficients.length; i++) {
+			p = Math.fma(p, x, coefficients[i].eval(frame));
+		}
+		return p;
+	}
+
+	/** Gets the variable then the coefficients, from the highest degree. */
+	@Override
+	Node[] children() {
+		Node[] children = new Node[coefficients.length + 1];
+		children[0] = variable;
+		System.arraycopy(coefficients, 0, children, 1, coefficients.length);
+		return children;
+	}
+
+	@Override
+	Node withChildren(Node[] children) {
+		return new PolynomialNode(children[0], Arrays.copyOfRange(children, 1, children.length));
+	}
+}
@@ -0,0 +1,321 @@
+package com.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites the powers of a tree of {@link Node} evaluated with
+ * {@code double} arithmetic. Sums of monomials in a single variable, like
+ * {@code a*x^3 + b*x^2 + c*x + d}, become a {@link PolynomialNode} evaluated
+ * in Horner form, and the other powers by a constant exponent from {@code 2}
+ * to {@code 4} become a {@link PowerNode}. The exact {@code long} evaluation
+ * of integral sub trees is kept, only their fallback being rewritten.
+ * <br/>
+ * Only polynomials of degree at most {@link #MAX_DEGREE}, with at least half
+ * of their terms, are rewritten: each missing term costs a multiplication and
+ * a rounding in Horner form. Terms holding a division are left as written,
+ * the rounding of a coefficient like {@code 1/6} costing more than the
+ * division.
+ */
+final class PolynomialRewriter {
+
+	static final int MAX_DEGREE = 8;
+	static final int MAX_POWER = 4;
+
+	/** Monomial {@code factors * x ^ degree}. */
+	private static final class Term {
+		boolean negative;
+		int degree;
+		final List<Node> factors = new ArrayList<>();
+
+		Term(boolean negative) {
+			this.negative = negative;
+		}
+	}
+
+	private PolynomialRewriter() {
+	}
+
+	/**
+	 * Rewrites the specified tree.
+	 *
+	 * @param node the root of the tree.
+	 * @return the rewritten tree, {@code node} itself if unchanged.
+	 */
+	static Node rewrite(Node node) {
+		return rewrite(node, false);
+	}
+
+	/**
+	 * Rewrites a tree, looking for a polynomial at its root unless it is a sum
+	 * inside a longer sum, whose whole chain has already been tried.
+	 */
+	private static Node rewrite(Node node, boolean inSum) {
+		if (node instanceof IntegralNode) {
+			Node body = node.children()[0];
+			Node fallback = rewrite(body, false);
+			return fallback == body ? node : new IntegralNode(body, fallback);
+		}
+		if (!inSum && isSum(node)) {
+			Node polynomial = polynomial(node);
+			if (polynomial != null) {
+				return polynomial;
+			}
+		}
+		Node[] children = node.children();
+		if (children.length == 0) {
+			return node;
+		}
+		boolean sum = isSum(node), changed = false;
+		Node[] rewritten = new Node[children.length];
+		for (int i = 0; i < children.length; i++) {
+			rewritten[i] = rewrite(children[i], sum);
+			changed |= rewritten[i] != children[i];
+		}
+		if (node instanceof BinaryNode && ((BinaryNode) node).operator() == MathOperator.POW) {
+			int exponent = exponent(rewritten[1]);
+			if (exponent >= 2 && exponent <= MAX_POWER) {
+				return new PowerNode(rewritten[0], exponent);
+			}
+		}
+		return changed ? node.withChildren(rewritten) : node;
+	}
+
+	private static boolean isSum(Node node) {
+		if (node instanceof ChainNode) {
+			ChainNode chain = (ChainNode) node;
+			return isSum(chain.operator(chain.length() - 1));
+		}
+		return node instanceof BinaryNode && isSum(((BinaryNode) node).operator());
+	}
+
+	private static boolean isSum(MathOperator operator) {
+		return operator == MathOperator.PLUS || operator == MathOperator.MINUS;
+	}
+
+	/** Gets the index of the first operand of the trailing run of a chain applied by either operator. */
+	private static int run(ChainNode chain, MathOperator first, MathOperator second) {
+		int start = chain.length();
+		while (start > 1 && (chain.operator(start - 1) == first || chain.operator(start - 1) == second)) {
+			start--;
+		}
+		return start;
+	}
+
+	/** Gets the value of a constant integer exponent, {@code -1} if the node isn't one. */
+	private static int exponent(Node node) {
+		if (!(node instanceof ConstantNode)) {
+			return -1;
+		}
+		double value = ((ConstantNode) node).value();
+		return value >= 0 && value <= MAX_DEGREE && value == (int) value ? (int) value : -1;
+	}
+
+	/** Unwraps integral sub trees, a polynomial being evaluated with double arithmetic. */
+	private static Node unwrap(Node node) {
+		return node instanceof IntegralNode ? node.children()[0] : node;
+	}
+
+	/** Tries to rewrite a sum as a polynomial, in each variable raised to a power. */
+	private static Node polynomial(Node sum) {
+		Map<Integer, Node> candidates = new LinkedHashMap<>();
+		candidates(sum, candidates);
+		for (Node variable : candidates.values()) {
+			List<Term> terms = new ArrayList<>();
+			if (terms(sum, false, ((VariableNode) variable).slot(), terms)) {
+				Node polynomial = polynomial(terms, variable);
+				if (polynomial != null) {
+					return polynomial;
+				}
+			}
+		}
+		return null;
+	}
+
+	/** Collects the variables raised to a constant power in the terms of a sum, by slot. */
+	private static void candidates(Node node, Map<Integer, Node> candidates) {
+		node = unwrap(node);
+		if (node instanceof NegateNode) {
+			candidates(node.children()[0], candidates);
+		} else if (node instanceof BinaryNode) {
+			MathOperator operator = ((BinaryNode) node).operator();
+			Node[] children = node.children();
+			if (operator == MathOperator.POW) {
+				Node base = unwrap(children[0]);
+				if (base instanceof VariableNode && exponent(children[1]) >= 2) {
+					candidates.putIfAbsent(((VariableNode) base).slot(), base);
+				}
+			} else if (operator != MathOperator.DIV && operator != MathOperator.MOD) {
+				candidates(children[0], candidates);
+				candidates(children[1], candidates);
+			}
+		} else if (node instanceof ChainNode) {
+			// As down a spine, from the left most operand reached
+			ChainNode chain = (ChainNode) node;
+			int reached = chain.length() - 1;
+			while (reached > 0 && chain.operator(reached) != MathOperator.DIV
+					&& chain.operator(reached) != MathOperator.MOD && chain.operator(reached) != MathOperator.POW) {
+				reached--;
+			}
+			if (reached == 0) {
+				candidates(chain.operand(0), candidates);
+			} else if (reached == 1 && chain.operator(1) == MathOperator.POW) {
+				Node base = unwrap(chain.operand(0));
+				if (base instanceof VariableNode && exponent(chain.operand(1)) >= 2) {
+					candidates.putIfAbsent(((VariableNode) base).slot(), base);
+				}
+			}
+			for (int i = reached + 1; i < chain.length(); i++) {
+				candidates(chain.operand(i), candidates);
+			}
+		}
+	}
+
+	/** Splits a sum into monomials of the variable of the specified slot. */
+	private static boolean terms(Node node, boolean negative, int slot, List<Term> terms) {
+		node = unwrap(node);
+		if (isSum(node) && node instanceof ChainNode) {
+			ChainNode chain = (ChainNode) node;
+			int start = run(chain, MathOperator.PLUS, MathOperator.MINUS);
+			if (!terms(chain.prefix(start), negative, slot, terms)) {
+				return false;
+			}
+			for (int i = start; i < chain.length(); i++) {
+				if (!terms(chain.operand(i), negative ^ chain.operator(i) == MathOperator.MINUS, slot, terms)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (isSum(node)) {
+			Node[] children = node.children();
+			boolean minus = ((BinaryNode) node).operator() == MathOperator.MINUS;
+			return terms(children[0], negative, slot, terms) && terms(children[1], negative ^ minus, slot, terms);
+		}
+		if (node instanceof NegateNode) {
+			return terms(node.children()[0], !negative, slot, terms);
+		}
+		Term term = new Term(negative);
+		terms.add(term);
+		return factors(node, slot, term);
+	}
+
+	/** Splits a product into the power of the variable of the specified slot and other factors. */
+	private static boolean factors(Node node, int slot, Term term) {
+		Node unwrapped = unwrap(node);
+		if (unwrapped instanceof NegateNode) {
+			term.negative = !term.negative;
+			return factors(unwrapped.children()[0], slot, term);
+		}
+		if (unwrapped instanceof ChainNode) {
+			ChainNode chain = (ChainNode) unwrapped;
+			int start = run(chain, MathOperator.TIMES, MathOperator.TIMES);
+			if (start < chain.length()) {
+				if (!factors(chain.prefix(start), slot, term)) {
+					return false;
+				}
+				for (int i = start; i < chain.length(); i++) {
+					if (!factors(chain.operand(i), slot, term)) {
+						return false;
+					}
+				}
+				return true;
+			}
+		} else if (unwrapped instanceof BinaryNode) {
+			Node[] children = unwrapped.children();
+			switch (((BinaryNode) unwrapped).operator()) {
+			case TIMES:
+				return factors(children[0], slot, term) && factors(children[1], slot, term);
+			case POW:
+				Node base = unwrap(children[0]);
+				if (base instanceof VariableNode && ((VariableNode) base).slot() == slot) {
+					int exponent = exponent(children[1]);
+					term.degree += exponent;
+					return exponent >= 0 && term.degree <= MAX_DEGREE;
+				}
+				break;
+			default:
+				break;
+			}
+		} else if (unwrapped instanceof VariableNode && ((VariableNode) unwrapped).slot() == slot) {
+			return ++term.degree <= MAX_DEGREE;
+		}
+		if (reads(node, slot)) {
+			return false;
+		}
+		term.factors.add(node);
+		return true;
+	}
+
+	private static boolean reads(Node node, int slot) {
+		if (node instanceof VariableNode) {
+			return ((VariableNode) node).slot() == slot;
+		}
+		for (Node child : node.children()) {
+			if (reads(child, slot)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Builds the polynomial of the terms, {@code null} if too sparse or of too small degree. */
+	private static Node polynomial(List<Term> terms, Node variable) {
+		int degree = 0;
+		for (Term term : terms) {
+			degree = Math.max(degree, term.degree);
+		}
+		// Monomials and their operators, by decreasing degree
+		List<List<Node>> monomials = new ArrayList<>();
+		List<List<MathOperator>> operators = new ArrayList<>();
+		for (int i = 0; i <= degree; i++) {
+			monomials.add(new ArrayList<>());
+			operators.add(new ArrayList<>());
+		}
+		int count = 0;
+		for (Term term : terms) {
+			Node monomial = coefficient(term);
+			int i = degree - term.degree;
+			if (monomials.get(i).isEmpty()) {
+				monomials.get(i).add(term.negative ? negate(monomial) : monomial);
+				count++;
+			} else {
+				monomials.get(i).add(monomial);
+				operators.get(i).add(term.negative ? MathOperator.MINUS : MathOperator.PLUS);
+			}
+		}
+		if (degree < 2 || count < 2 || count <= degree / 2) {
+			return null;
+		}
+		Node[] coefficients = new Node[degree + 1];
+		for (int i = 0; i <= degree; i++) {
+			coefficients[i] = monomials.get(i).isEmpty() ? new ConstantNode(0.0)
+					: rewrite(ExpressionCompiler.fold(chain(monomials.get(i), operators.get(i))), false);
+		}
+		return new PolynomialNode(variable, coefficients);
+	}
+
+	private static Node coefficient(Term term) {
+		if (term.factors.isEmpty()) {
+			return new ConstantNode(1L);
+		}
+		MathOperator[] operators = new MathOperator[term.factors.size()];
+		Arrays.fill(operators, MathOperator.TIMES);
+		return ChainNode.of(term.factors.toArray(new Node[0]), operators, term.factors.size());
+	}
+
+	/** Builds the chain of some operands, long ones as a {@link ChainNode}. */
+	private static Node chain(List<Node> operands, List<MathOperator> operators) {
+		return ChainNode.of(operands.toArray(new Node[0]), operators.toArray(new MathOperator[0]), operands.size());
+	}
+
+	private static Node negate(Node node) {
+		if (node instanceof ConstantNode) {
+			return new ConstantNode(-((ConstantNode) node).value());
+		}
+		return new NegateNode(node);
+	}
+}
@@ -0,0 +1,173 @@
+package com.parser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Flattens a tree of {@link Node} into a {@link PostfixProgram}. */
+final class PostfixCompiler {
+
+	private int[] code = new int[16];
+	private int length;
+	private double[] constants = new double[4];
+	private int constantCount;
+	private long[] longConstants = new long[0];
+	private final Map<Long, Integer> constantIndexes = new HashMap<>(), longConstantIndexes = new HashMap<>();
+	private int depth, maxDepth;
+	private boolean integral, inIntegral;
+
+	private PostfixCompiler() {
+	}
+
+	/**
+	 * Compiles the specified tree.
+	 *
+	 * @param root      the root of the tree.
+	 * @param variables the names of the variables of the tree, by slot.
+	 * @param frameSize the number of slots of a frame, for the variables then
+	 *                  the locals.
+	 * @return the program.
+	 * @throws UnsupportedOperationException if the tree holds a node with no
+	 *                                       postfix form.
+	 */
+	static PostfixProgram compile(Node root, String[] variables, int frameSize) {
+		PostfixCompiler compiler = new PostfixCompiler();
+		compiler.emit(root);
+		return new PostfixProgram(Arrays.copyOf(compiler.code, compiler.length),
+				Arrays.copyOf(compiler.constants, compiler.constantCount), compiler.longConstants, variables, frameSize,
+				Math.max(1, compiler.maxDepth), compiler.integral);
+	}
+
+	private void emit(Node node) {
+		if (node instanceof ConstantNode) {
+			if (inIntegral) {
+				push(PostfixProgram.LONG_CONST, longConstant(node.evalLong(null)));
+			} else {
+				push(PostfixProgram.CONST, constant(node.eval(null)));
+			}
+		} else if (node instanceof VariableNode) {
+			push(PostfixProgram.LOAD, ((VariableNode) node).slot());
+		} else if (node instanceof NegateNode) {
+			emit(node.children()[0]);
+			add(PostfixProgram.NEG, 0);
+		} else if (node instanceof BinaryNode) {
+			Node[] children = node.children();
+			emit(children[0]);
+			emit(children[1]);
+			add(PostfixProgram.OPERATOR, ((BinaryNode) node).operator().ordinal());
+			depth--;
+		} else if (node instanceof ChainNode) {
+			ChainNode chain = (ChainNode) node;
+			emit(chain.operand(0));
+			for (int i = 1; i < chain.length(); i++) {
+				emit(chain.operand(i));
+				add(PostfixProgram.OPERATOR, chain.operator(i).ordinal());
+				depth--;
+			}
+		} else if (node instanceof FunctionNode) {
+			FunctionNode function = (FunctionNode) node;
+			emit(node.children()[0]);
+			add(function.isDegree() ? PostfixProgram.FUNCTION_DEGREE : PostfixProgram.FUNCTION,
+					function.function().ordinal());
+		} else if (node instanceof MemoizedFunctionNode) {
+			// Programs stay compact, without caches
+			MemoizedFunctionNode function = (MemoizedFunctionNode) node;
+			emit(node.children()[0]);
+			add(function.isDegree() ? PostfixProgram.FUNCTION_DEGREE : PostfixProgram.FUNCTION,
+					function.function().ordinal());
+		} else if (node instanceof PolynomialNode) {
+			// Horner form, loading the variable at each degree
+			Node[] children = node.children();
+			emit(children[1]);
+			for (int i = 2; i < children.length; i++) {
+				emit(children[0]);
+				emit(children[i]);
+				add(PostfixProgram.FMA, 0);
+				depth -= 2;
+			}
+		} else if (node instanceof PowerNode) {
+			emit(node.children()[0]);
+			add(PostfixProgram.POWER, ((PowerNode) node).exponent());
+		} else if (node instanceof AggregateNode) {
+			// The arguments are gathered on the stack, then reduced at once
+			Node[] children = node.children();
+			for (Node child : children) {
+				emit(child);
+			}
+			add(PostfixProgram.AGGREGATE, children.length << PostfixProgram.AGGREGATE_BITS
+					| ((AggregateNode) node).aggregate().ordinal());
+			depth -= children.length - 1;
+		} else if (node instanceof LetNode) {
+			LetNode let = (LetNode) node;
+			emit(let.value());
+			add(PostfixProgram.STORE, let.slot());
+			depth--;
+			emit(let.body());
+		} else if (node instanceof IntegralNode) {
+			// The body, then the fallback evaluated at the same depth when it is a rewriting of the body
+			Node[] children = node.children();
+			int header = length, depth = this.depth;
+			add(PostfixProgram.INTEGRAL, 0);
+			inIntegral = true;
+			emit(children[0]);
+			inIntegral = false;
+			code[header] = word(PostfixProgram.INTEGRAL, length - header - 1);
+			int fallback = length;
+			add(PostfixProgram.FALLBACK, 0);
+			if (children.length > 1) {
+				this.depth = depth;
+				emit(children[1]);
+				code[fallback] = word(PostfixProgram.FALLBACK, length - fallback - 1);
+			}
+			integral = true;
+		} else {
+			throw new UnsupportedOperationException(
+					"No postfix form for " + node.getClass().getSimpleName() + " nodes.");
+		}
+	}
+
+	private int constant(double value) {
+		Long key = Double.doubleToLongBits(value);
+		Integer index = constantIndexes.get(key);
+		if (index == null) {
+			if (constantCount == constants.length) {
+				constants = Arrays.copyOf(constants, constantCount * 2);
+			}
+			index = constantCount;
+			constants[constantCount++] = value;
+			constantIndexes.put(key, index);
+		}
+		return index;
+	}
+
+	private int longConstant(long value) {
+		Integer index = longConstantIndexes.get(value);
+		if (index == null) {
+			index = longConstants.length;
+			longConstants = Arrays.copyOf(longConstants, index + 1);
+			longConstants[index] = value;
+			longConstantIndexes.put(value, index);
+		}
+		return index;
+	}
+
+	/** Adds an instruction pushing a value on the stack. */
+	private void push(int opcode, int argument) {
+		add(opcode, argument);
+		maxDepth = Math.max(maxDepth, ++depth);
+	}
+
+	private void add(int opcode, int argument) {
+		if (length == code.length) {
+			code = Arrays.copyOf(code, length * 2);
+		}
+		code[length++] = word(opcode, argument);
+	}
+
+	private static int word(int opcode, int argument) {
+		if (argument >>> (32 - PostfixProgram.OPCODE_BITS) != 0) {
+			throw new UnsupportedOperationException("Expression too big for postfix form.");
+		}
+		return argument << PostfixProgram.OPCODE_BITS | opcode;
+	}
+}
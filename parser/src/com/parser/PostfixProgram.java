@@ -0,0 +1,274 @@
+package com.parser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact form of a {@link CompiledExpression}: the tree is flattened into a
+ * postfix {@code int[]} code, about one word per node, and a {@code double[]}
+ * pool of constants, plus a {@code long[]} pool for the integer constants of integral
+ * sub expressions. It is evaluated by a stack machine on an operand stack allocated
+ * once per program.
+ * <br/>
+ * Each word holds an opcode in its low byte and an argument in the upper
+ * bytes: the index of a constant, the slot of a variable, or the ordinal of a
+ * {@link MathOperator} or of a {@link MathFunction}.
+ * <br/>
+ * The operand stack, and the frame holding the locals if any, belong to the
+ * program, so a program must not be
+ * evaluated concurrently; use {@link #copy()} to get a program sharing the
+ * same code for another thread.
+ *
+ * @since 1.1
+ */
+public final class PostfixProgram {
+
+	/** Pushes the constant of index {@code argument}. */
+	static final int CONST = 0;
+	/** Pushes the variable of slot {@code argument}. */
+	static final int LOAD = 1;
+	/** Negates the top of the stack. */
+	static final int NEG = 2;
+	/** Applies the operator of ordinal {@code argument} to the two tops of the stack. */
+	static final int OPERATOR = 3;
+	/** Applies the function of ordinal {@code argument}, in radian, to the top of the stack. */
+	static final int FUNCTION = 4;
+	/** Applies the function of ordinal {@code argument}, in degree, to the top of the stack. */
+	static final int FUNCTION_DEGREE = 5;
+	/**
+	 * Evals the {@code argument} next words with {@code long} arithmetic, when
+	 * possible, and is followed by a {@link #FALLBACK} word.
+	 */
+	static final int INTEGRAL = 6;
+	/** Pushes the integer constant of index {@code argument}. */
+	static final int LONG_CONST = 7;
+	/** Replaces the three tops of the stack {@code p, x, c} by {@code p * x + c}, with a single rounding. */
+	static final int FMA = 8;
+	/** Raises the top of the stack to the power {@code argument}, see {@link MathOperator#integerPower(double, int)}. */
+	static final int POWER = 9;
+	/**
+	 * Replaces the {@code argument >>> AGGREGATE_BITS} tops of the stack by the
+	 * value of the {@link MathAggregate} of ordinal
+	 * {@code argument & AGGREGATE_MASK}, computed in place on the stack.
+	 */
+	static final int AGGREGATE = 10;
+
+	/** Pops the top of the stack into the local of slot {@code argument}. */
+	static final int STORE = 11;
+	/**
+	 * Follows the code of an {@link #INTEGRAL} block: the {@code argument} next
+	 * words are evaluated with {@code double} arithmetic when {@code long}
+	 * arithmetic fails, or the words of the block itself if {@code 0}.
+	 */
+	static final int FALLBACK = 12;
+
+	static final int AGGREGATE_BITS = 3, AGGREGATE_MASK = (1 << AGGREGATE_BITS) - 1;
+
+	static final int OPCODE_BITS = 8, OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+	private static final MathOperator[] OPERATORS = MathOperator.values();
+	private static final MathFunction[] FUNCTIONS = MathFunction.values();
+	private static final MathAggregate[] AGGREGATES = MathAggregate.values();
+
+	private final int[] code;
+	private final double[] constants;
+	private final long[] longConstants;
+	private final String[] variables;
+	/** Number of slots of a frame, for the variables then the locals. */
+	private final int frameSize;
+	private final int maxStack;
+	private final boolean integral;
+	private double[] stack;
+	/** Frame into which the variables are copied, when the program has locals. */
+	private double[] frame;
+	private long[] longStack;
+	/** Cleared by {@link #runLong(int, int, double[])} when a variable doesn't hold an integer. */
+	private boolean exact;
+	/** Number of integral blocks failing exact evaluation, see {@link IntegralNode#MAX_FAILURES}. */
+	private int failures;
+
+	PostfixProgram(int[] code, double[] constants, long[] longConstants, String[] variables, int frameSize,
+			int maxStack, boolean integral) {
+		this.code = code;
+		this.constants = constants;
+		this.longConstants = longConstants;
+		this.variables = variables;
+		this.frameSize = frameSize;
+		this.maxStack = maxStack;
+		this.integral = integral;
+	}
+
+	/** Creates a program sharing the code of this one, with its own operand stack. */
+	public PostfixProgram copy() {
+		return new PostfixProgram(code, constants, longConstants, variables, frameSize, maxStack, integral);
+	}
+
+	/**
+	 * Evals the program.
+	 *
+	 * @param frame the values of the variables, indexed by slot.
+	 * @return the value of the expression.
+	 * @throws ParserException if evaluation fails.
+	 */
+	public double eval(double[] frame) throws ParserException {
+		if (stack == null) {
+			stack = new double[maxStack];
+			longStack = integral ? new long[maxStack] : null;
+			this.frame = frameSize > variables.length ? new double[frameSize] : null;
+		}
+		if (this.frame != null) {
+			System.arraycopy(frame, 0, this.frame, 0, variables.length);
+			frame = this.frame;
+		}
+		return run(0, code.length, frame, 0);
+	}
+
+	/** Runs the code in {@code [pc, end)}, whose result is left at {@code base} in the stack. */
+	private double run(int pc, int end, double[] frame, int base) {
+		final int[] code = this.code;
+		final double[] stack = this.stack;
+		int sp = base - 1;
+		while (pc < end) {
+			int word = code[pc++];
+			int argument = word >>> OPCODE_BITS;
+			switch (word & OPCODE_MASK) {
+			case CONST:
+				stack[++sp] = constants[argument];
+				break;
+			case LONG_CONST:
+				stack[++sp] = longConstants[argument];
+				break;
+			case LOAD:
+				stack[++sp] = frame[argument];
+				break;
+			case NEG:
+				stack[sp] = -stack[sp];
+				break;
+			case OPERATOR:
+				double y = stack[sp--];
+				stack[sp] = OPERATORS[argument].eval(stack[sp], y);
+				break;
+			case FUNCTION:
+				stack[sp] = FUNCTIONS[argument].eval(stack[sp], false);
+				break;
+			case FUNCTION_DEGREE:
+				stack[sp] = FUNCTIONS[argument].eval(stack[sp], true);
+				break;
+			case FMA:
+				double c = stack[sp--], x = stack[sp--];
+				stack[sp] = Math.fma(stack[sp], x, c);
+				break;
+			case POWER:
+				stack[sp] = MathOperator.integerPower(stack[sp], argument);
+				break;
+			case AGGREGATE:
+				int from = sp - (argument >>> AGGREGATE_BITS) + 1;
+				stack[from] = AGGREGATES[argument & AGGREGATE_MASK].eval(stack, from, sp + 1);
+				sp = from;
+				break;
+			case STORE:
+				frame[argument] = stack[sp--];
+				break;
+			case INTEGRAL:
+				int fallback = pc + argument, fallbackLength = code[fallback] >>> OPCODE_BITS;
+				double value = 0;
+				exact = failures < IntegralNode.MAX_FAILURES;
+				try {
+					if (exact) {
+						value = runLong(pc, fallback, frame);
+					}
+				} catch (ArithmeticException e) {
+					// Overflow, negative exponent or zero divisor
+					exact = false;
+					failures++;
+				}
+				if (!exact) {
+					value = fallbackLength == 0 ? run(pc, fallback, frame, sp + 1)
+							: run(fallback + 1, fallback + 1 + fallbackLength, frame, sp + 1);
+				}
+				stack[++sp] = value;
+				pc = fallback + 1 + fallbackLength;
+				break;
+			default:
+				throw new ParserException("Evaluation fails: bad opcode.");
+			}
+		}
+		return stack[base];
+	}
+
+	private long runLong(int pc, int end, double[] frame) {
+		final int[] code = this.code;
+		final long[] stack = this.longStack;
+		int sp = -1;
+		while (pc < end) {
+			int word = code[pc++];
+			int argument = word >>> OPCODE_BITS;
+			switch (word & OPCODE_MASK) {
+			case LONG_CONST:
+				stack[++sp] = longConstants[argument];
+				break;
+			case LOAD:
+				double value = frame[argument];
+				if (!IntegralNode.isInteger(value)) {
+					exact = false;
+					return 0;
+				}
+				stack[++sp] = (long) value;
+				break;
+			case NEG:
+				stack[sp] = Math.negateExact(stack[sp]);
+				break;
+			case OPERATOR:
+				long y = stack[sp--];
+				stack[sp] = OPERATORS[argument].evalExact(stack[sp], y);
+				break;
+			case AGGREGATE:
+				int from = sp - (argument >>> AGGREGATE_BITS) + 1;
+				stack[from] = AGGREGATES[argument & AGGREGATE_MASK].evalExact(stack, from, sp + 1);
+				sp = from;
+				break;
+			default:
+				exact = false;
+				return 0;
+			}
+		}
+		return stack[0];
+	}
+
+	/** Gets the number of words of the code, one per node of the tree plus one per integral sub tree. */
+	public int getCodeLength() {
+		return code.length;
+	}
+
+	/** Gets the number of distinct constants of the program. */
+	public int getConstantCount() {
+		return constants.length + longConstants.length;
+	}
+
+	/** Gets the depth of the operand stack needed by the program. */
+	public int getMaxStack() {
+		return maxStack;
+	}
+
+	/** Gets the names of the variables referenced by the program, by slot. */
+	public List<String> getVariableNames() {
+		return Collections.unmodifiableList(Arrays.asList(variables));
+	}
+
+	/**
+	 * Gets the slot of the specified variable.
+	 *
+	 * @param name the name of the variable.
+	 * @return the slot of the variable, {@code -1} if the program doesn't
+	 *         reference it.
+	 */
+	public int slotOf(String name) {
+		for (int i = 0; i < variables.length; i++) {
+			if (variables[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,32 @@
+package com.parser;
+
+/** Small constant integer power, computed by {@link MathOperator#integerPower(double, int)}. */
+final class PowerNode extends Node {
+
+	private final Node base;
+	private final int exponent;
+
+	PowerNode(Node base, int exponent) {
+		this.base = base;
+		this.exponent = exponent;
+	}
+
+	int exponent() {
+		return exponent;
+	}
+
+	@Override
+	double eval(double[] frame) {
+		return MathOperator.integerPower(base.eval(frame), exponent);
+	}
+
+	@Override
+	Node[] children() {
+		return new Node[] { base };
+	}
+
+	@Override
+	Node withChildren(Node[] children) {
+		return new PowerNode(children[0], exponent);
+	}
+}
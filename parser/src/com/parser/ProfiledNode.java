@@ -0,0 +1,132 @@
+package com.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wraps a node of an instrumented copy of a tree, recording its evaluations
+ * into a {@link NodeProfile}. The copy is evaluated apart from the compiled
+ * expression, so that evaluations without profiling run unchanged.
+ * <br/>
+ * A node is the origin of a {@code NaN} or infinite value when none of the
+ * nodes evaluated under it computed one, counted by the {@link Run} shared by
+ * the nodes of the copy.
+ */
+final class ProfiledNode extends Node {
+
+	/** Number of non finite values computed so far by the nodes of a copy. */
+	static final class Run {
+		long nonFinite;
+	}
+
+	private final Node node;
+	private final NodeProfile profile;
+	private final Run run;
+	/** Whether the node reads a local, whose non finite value originated in its definition. */
+	private final boolean local;
+
+	private ProfiledNode(Node node, NodeProfile profile, Run run, boolean local) {
+		this.node = node;
+		this.profile = profile;
+		this.run = run;
+		this.local = local;
+	}
+
+	/**
+	 * Instruments a tree.
+	 *
+	 * @param node      the root of the tree.
+	 * @param variables the number of variables, before the slots of the locals.
+	 * @param depth     the depth of the root.
+	 * @param nodes     the list receiving the profile of each node, each one
+	 *                  before its operands.
+	 * @param run       the counter shared by the nodes of the copy.
+	 * @return the instrumented root.
+	 */
+	static ProfiledNode instrument(Node node, int variables, int depth, List<NodeProfile> nodes, Run run) {
+		NodeProfile profile = new NodeProfile(label(node), depth);
+		nodes.add(profile);
+		Node[] children = node.children();
+		Node[] instrumented = new Node[children.length];
+		List<NodeProfile> profiles = new ArrayList<>(children.length);
+		for (int i = 0; i < children.length; i++) {
+			ProfiledNode child = instrument(children[i], variables, depth + 1, nodes, run);
+			instrumented[i] = child;
+			profiles.add(child.profile);
+		}
+		profile.setChildren(profiles);
+		Node copy = children.length == 0 ? node : node.withChildren(instrumented);
+		boolean local = node instanceof VariableNode && ((VariableNode) node).slot() >= variables;
+		return new ProfiledNode(copy, profile, run, local);
+	}
+
+	/** Describes a node, see {@link NodeProfile#getLabel()}. */
+	static String label(Node node) {
+		if (node instanceof ConstantNode) {
+			return node.isIntegral() ? Long.toString(node.evalLong(null)) : Double.toString(node.eval(null));
+		} else if (node instanceof VariableNode) {
+			return ((VariableNode) node).name();
+		} else if (node instanceof NegateNode) {
+			return "-";
+		} else if (node instanceof BinaryNode) {
+			return ((BinaryNode) node).operator().getText();
+		} else if (node instanceof ChainNode) {
+			return "chain";
+		} else if (node instanceof FunctionNode) {
+			return ((FunctionNode) node).function().getText();
+		} else if (node instanceof MemoizedFunctionNode) {
+			return ((MemoizedFunctionNode) node).function().getText() + " (memoized)";
+		} else if (node instanceof AggregateNode) {
+			return ((AggregateNode) node).aggregate().getText();
+		} else if (node instanceof WindowNode) {
+			WindowNode window = (WindowNode) node;
+			return window.window().getText() + " "
+					+ (window.window().isSized() ? Long.toString((long) window.parameter()) : window.parameter());
+		} else if (node instanceof LetNode) {
+			return "let " + ((LetNode) node).name();
+		} else if (node instanceof PowerNode) {
+			return "^" + ((PowerNode) node).exponent();
+		} else if (node instanceof PolynomialNode) {
+			return "horner";
+		} else if (node instanceof IntegralNode) {
+			return "integral";
+		}
+		return node.getClass().getSimpleName();
+	}
+
+	@Override
+	double eval(double[] frame) {
+		long nonFinite = run.nonFinite;
+		long start = System.nanoTime();
+		double value = node.eval(frame);
+		profile.evaluated(System.nanoTime() - start);
+		if (!Double.isFinite(value)) {
+			if (run.nonFinite == nonFinite && !local) {
+				profile.originated(value);
+			}
+			run.nonFinite++;
+		}
+		return value;
+	}
+
+	@Override
+	boolean isIntegral() {
+		return node.isIntegral();
+	}
+
+	@Override
+	long evalLong(double[] frame) {
+		long start = System.nanoTime();
+		try {
+			return node.evalLong(frame);
+		} finally {
+			profile.evaluated(System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	Node[] children() {
+		// Walked by the integral nodes looking for the variables they read
+		return new Node[] { node };
+	}
+}
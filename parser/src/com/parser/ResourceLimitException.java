@@ -0,0 +1,52 @@
+package com.parser;
+
+/**
+ * Thrown when parsing or evaluating an expression exceeds one of its
+ * {@link ResourceLimits}, or is cancelled.
+ *
+ * @since 1.1
+ */
+public class ResourceLimitException extends ParserException {
+
+	/** Limits whose excess is reported. */
+	public enum Limit {
+		/** {@link ResourceLimits#getMaxLength()}. */
+		LENGTH,
+		/** {@link ResourceLimits#getMaxTokens()}. */
+		TOKENS,
+		/** {@link ResourceLimits#getMaxDepth()}. */
+		DEPTH,
+		/** {@link ResourceLimits#getMaxNodes()}. */
+		NODES,
+		/** {@link ResourceLimits#getMaxSteps()}. */
+		STEPS,
+		/** {@link ResourceLimits#getTimeout()}. */
+		DEADLINE,
+		/** Interruption of the calling thread, whose interrupted status is kept. */
+		INTERRUPTED
+	}
+
+	private final Limit limit;
+	private final long max;
+
+	public ResourceLimitException(Limit limit, long max, String message) {
+		super(message);
+		this.limit = limit;
+		this.max = max;
+	}
+
+	/** Gets the exceeded limit. */
+	public Limit getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Gets the value of the exceeded limit, in nanoseconds for
+	 * {@link Limit#DEADLINE}, {@code 0} for {@link Limit#INTERRUPTED}.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	private static final long serialVersionUID = 3587113164271512817L;
+}
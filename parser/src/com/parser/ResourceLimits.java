@@ -0,0 +1,112 @@
+package com.parser;
+
+import java.time.Duration;
+
+/**
+ * Limits of the resources used to parse and evaluate an expression, e.g. one
+ * received from an untrusted source. Each limit is unbounded by default, but
+ * the nesting depth, bounded by {@link #DEFAULT_MAX_DEPTH} so that the
+ * recursive passes compiling and evaluating a tree fit in the stack of a
+ * thread. Exceeding a limit raises a {@link ResourceLimitException}.
+ * <br/>
+ * Besides the timeout, evaluations are cooperatively cancelled when the
+ * calling thread is interrupted. Limits are copied when set on an
+ * {@link ExpressionCompiler} or an expression: later changes don't affect
+ * them.
+ *
+ * @since 1.1
+ */
+public class ResourceLimits {
+
+	/** Default maximal nesting depth, applied by compilers without limits too. */
+	public static final int DEFAULT_MAX_DEPTH = 256;
+
+	private int maxLength = Integer.MAX_VALUE;
+	private int maxTokens = Integer.MAX_VALUE;
+	private int maxDepth = DEFAULT_MAX_DEPTH;
+	private int maxNodes = Integer.MAX_VALUE;
+	private long maxSteps = Long.MAX_VALUE;
+	private Duration timeout;
+
+	/** Creates limits where everything but the nesting depth is unbounded. */
+	public ResourceLimits() {
+	}
+
+	/** Creates a copy of the specified limits. */
+	public ResourceLimits(ResourceLimits limits) {
+		this.maxLength = limits.maxLength;
+		this.maxTokens = limits.maxTokens;
+		this.maxDepth = limits.maxDepth;
+		this.maxNodes = limits.maxNodes;
+		this.maxSteps = limits.maxSteps;
+		this.timeout = limits.timeout;
+	}
+
+	/** Gets the maximal number of characters of an expression. */
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	public void setMaxLength(int maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	/** Gets the maximal number of tokens of an expression. */
+	public int getMaxTokens() {
+		return maxTokens;
+	}
+
+	public void setMaxTokens(int maxTokens) {
+		this.maxTokens = maxTokens;
+	}
+
+	/**
+	 * Gets the maximal nesting depth of an expression: of its parentheses,
+	 * function calls and locals, and of the operations of its tree, a chain of
+	 * at least {@link ExpressionCompiler#MIN_CHAIN} operands, like
+	 * {@code a + b + c ...}, counting as one level.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/** Gets the maximal number of nodes of the tree of a compiled expression. */
+	public int getMaxNodes() {
+		return maxNodes;
+	}
+
+	public void setMaxNodes(int maxNodes) {
+		this.maxNodes = maxNodes;
+	}
+
+	/**
+	 * Gets the maximal number of evaluation steps of a single call. A step is
+	 * the evaluation of a node of a compiled expression, or one pass of the
+	 * rewriting loops of {@link FunctionExpression}.
+	 */
+	public long getMaxSteps() {
+		return maxSteps;
+	}
+
+	public void setMaxSteps(long maxSteps) {
+		this.maxSteps = maxSteps;
+	}
+
+	/**
+	 * Gets the time allowed to a single call parsing or evaluating an
+	 * expression.
+	 *
+	 * @return the timeout, {@code null} if none.
+	 */
+	public Duration getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(Duration timeout) {
+		this.timeout = timeout;
+	}
+}
@@ -0,0 +1,158 @@
+package com.parser;
+
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Staged version of a formula of a {@link FormulaRegistry}, evaluated
+ * alongside the live one before it replaces it. One evaluation of the formula
+ * out of {@link #getPeriod()} also evaluates the candidate; the results and
+ * times of both are compared and counted here, while callers always get the
+ * result of the live version.
+ * <br/>
+ * Two results match when they are equal, both {@code NaN}, or differ by at
+ * most the tolerance, relative to the live result when its magnitude exceeds
+ * {@code 1}.
+ *
+ * @since 1.1
+ */
+public final class Rollout {
+
+	private final FormulaVersion current, candidate;
+	private final double tolerance;
+	private final int period;
+	/** Slot in the frames of the live version of each variable of the candidate, {@code null} if one is missing. */
+	private final int[] slots;
+	private final LongAdder comparisons = new LongAdder(), mismatches = new LongAdder(), failures = new LongAdder(),
+			currentNanos = new LongAdder(), candidateNanos = new LongAdder();
+	private final DoubleAccumulator maxDifference = new DoubleAccumulator(Math::max, 0);
+	/** Racy counter, losing updates only shifts the sampled evaluations. */
+	private long evaluations;
+
+	Rollout(FormulaVersion current, FormulaVersion candidate, double tolerance, int period) {
+		this.current = current;
+		this.candidate = candidate;
+		this.tolerance = tolerance;
+		this.period = period;
+		List<String> variables = candidate.getExpression().getVariableNames();
+		int[] slots = new int[variables.size()];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = current.getExpression().slotOf(variables.get(i));
+			if (slots[i] < 0) {
+				slots = null;
+				break;
+			}
+		}
+		this.slots = slots;
+	}
+
+	/** Tests if the next evaluation is compared. */
+	boolean sample() {
+		return evaluations++ % period == 0;
+	}
+
+	/**
+	 * Gets the values of the variables of the candidate from a frame of the live
+	 * version, {@code null} if the candidate references a variable the live
+	 * version doesn't.
+	 */
+	double[] frame(double[] frame) {
+		if (slots == null) {
+			return null;
+		}
+		double[] values = new double[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			values[i] = frame[slots[i]];
+		}
+		return values;
+	}
+
+	/** Records the comparison of a live result to the one of the candidate. */
+	void compared(double expected, long expectedNanos, double actual, long actualNanos) {
+		comparisons.increment();
+		currentNanos.add(expectedNanos);
+		candidateNanos.add(actualNanos);
+		double difference = Math.abs(expected - actual);
+		if (expected == actual || Double.isNaN(expected) && Double.isNaN(actual)) {
+			return;
+		}
+		if (!(difference <= tolerance * Math.max(1, Math.abs(expected)))) {
+			mismatches.increment();
+		}
+		maxDifference.accumulate(Double.isNaN(difference) ? Double.POSITIVE_INFINITY : difference);
+	}
+
+	/** Records an evaluation of the candidate which failed, where the live version succeeded. */
+	void failed(long expectedNanos) {
+		comparisons.increment();
+		failures.increment();
+		currentNanos.add(expectedNanos);
+	}
+
+	/** Gets the live version of the formula when the candidate was staged. */
+	public FormulaVersion getCurrent() {
+		return current;
+	}
+
+	/** Gets the staged version of the formula. */
+	public FormulaVersion getCandidate() {
+		return candidate;
+	}
+
+	/** Gets the tolerance under which results match. */
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/** Gets the number of evaluations of the formula per comparison. */
+	public int getPeriod() {
+		return period;
+	}
+
+	/** Gets the number of evaluations compared, failed ones included. */
+	public long getComparisonCount() {
+		return comparisons.sum();
+	}
+
+	/** Gets the number of results of the candidate not matching the live ones. */
+	public long getMismatchCount() {
+		return mismatches.sum();
+	}
+
+	/** Gets the number of evaluations of the candidate which failed, where the live version succeeded. */
+	public long getFailureCount() {
+		return failures.sum();
+	}
+
+	/**
+	 * Gets the largest absolute difference between the results of the candidate
+	 * and the live ones, infinite if only one of them was {@code NaN}.
+	 */
+	public double getMaxDifference() {
+		return maxDifference.get();
+	}
+
+	/** Gets the total time spent evaluating the live version in compared evaluations, in nanoseconds. */
+	public long getCurrentNanos() {
+		return currentNanos.sum();
+	}
+
+	/** Gets the total time spent evaluating the candidate in compared evaluations, in nanoseconds. */
+	public long getCandidateNanos() {
+		return candidateNanos.sum();
+	}
+
+	/** Tests if results were compared without any mismatch or failure. */
+	public boolean isMatching() {
+		return getComparisonCount() > 0 && getMismatchCount() == 0 && getFailureCount() == 0;
+	}
+
+	@Override
+	public String toString() {
+		return "Rollout [id=" + candidate.getId() + ", version=" + current.getVersion() + "->" + candidate.getVersion()
+				+ ", comparisons=" + getComparisonCount() + ", mismatches=" + getMismatchCount() + ", failures="
+				+ getFailureCount() + ", maxDifference=" + getMaxDifference() + ", currentNanos=" + getCurrentNanos()
+				+ ", candidateNanos=" + getCandidateNanos() + "]";
+	}
+}
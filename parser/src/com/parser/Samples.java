@@ -0,0 +1,37 @@
+package com.parser;
+
+/**
+ * Points sampled by {@link Tabulator#refine(String, double, double, int)}, in
+ * the order of the variable.
+ *
+ * @since 1.1
+ */
+public final class Samples {
+
+	private final double[] arguments, values;
+
+	Samples(double[] arguments, double[] values) {
+		this.arguments = arguments;
+		this.values = values;
+	}
+
+	/** Gets the number of points. */
+	public int size() {
+		return arguments.length;
+	}
+
+	/** Gets the values of the variable, shared with this object rather than copied. */
+	public double[] getArguments() {
+		return arguments;
+	}
+
+	/** Gets the values of the expression at each argument, shared with this object rather than copied. */
+	public double[] getValues() {
+		return values;
+	}
+
+	@Override
+	public String toString() {
+		return "Samples [size=" + arguments.length + "]";
+	}
+}
@@ -142,12 +142,20 @@ public class SimpleExpression extends ValueExpression {
 
 	@Override
 	public double eval() {
-		OperatorToken token = null;
-		do {
-			token = MathOperator.nextMaxPrecedence(0, getAsText());
-			setAsText(eval(token));
-		} while (token != null);
-		ValueExpression value = new ValueExpression(getAsText(), getVariables());
-		return value.eval();
+		boolean started = startBudget();
+		try {
+			OperatorToken token = null;
+			do {
+				step();
+				token = MathOperator.nextMaxPrecedence(0, getAsText());
+				setAsText(eval(token));
+			} while (token != null);
+			ValueExpression value = new ValueExpression(getAsText(), getVariables());
+			return value.eval();
+		} finally {
+			if (started) {
+				budget = null;
+			}
+		}
 	}
 }
@@ -0,0 +1,253 @@
+package com.parser;
+
+/**
+ * Finds the roots and the minimums of a {@link CompiledExpression} as a
+ * function of one of its variables, the free variable. The other variables
+ * take the values bound to the expression by
+ * {@link CompiledExpression#withVariable(String, Number)} when a method is
+ * called.
+ * <br/>
+ * The expression is evaluated on a frame held by the solver, so that
+ * iterations don't allocate anything; a solver must not be used
+ * concurrently. {@link #newton(double)} uses the symbolic derivative of the
+ * expression when it has one, central differences otherwise.
+ *
+ * @since 1.1
+ */
+public class Solver {
+
+	/** Default absolute tolerance on the free variable. */
+	public static final double DEFAULT_TOLERANCE = 1e-12;
+	/** Default maximal number of iterations. */
+	public static final int DEFAULT_MAX_ITERATIONS = 200;
+
+	private static final double EPSILON = Math.ulp(1.0);
+	/** Reciprocal of the golden ratio. */
+	private static final double GOLDEN = (Math.sqrt(5) - 1) / 2;
+
+	private final CompiledExpression expression;
+	private final int slot;
+	private final double[] frame;
+	private final Node derivative;
+	private double tolerance = DEFAULT_TOLERANCE;
+	private int maxIterations = DEFAULT_MAX_ITERATIONS;
+	private int evaluations;
+
+	/**
+	 * Creates a solver.
+	 *
+	 * @param expression the expression to solve or minimize.
+	 * @param variable   the name of the free variable.
+	 * @throws IllegalArgumentException if the expression doesn't reference the
+	 *                                  variable.
+	 */
+	public Solver(CompiledExpression expression, String variable) {
+		this.expression = expression;
+		this.slot = expression.slotOf(variable);
+		if (slot < 0) {
+			throw new IllegalArgumentException("The expression doesn't reference variable '" + variable + "'.");
+		}
+		this.frame = new double[expression.frameSize()];
+		this.derivative = Derivative.of(expression.getRoot(), slot);
+	}
+
+	/** Tests if {@link #newton(double)} uses the symbolic derivative of the expression. */
+	public boolean hasDerivative() {
+		return derivative != null;
+	}
+
+	/**
+	 * Finds a root by Brent's method, combining bisection, secant and inverse
+	 * quadratic interpolation. The root is bracketed at each iteration, so the
+	 * method converges for any continuous function.
+	 *
+	 * @param a a bound of the interval holding the root.
+	 * @param b the other bound, where the expression has the opposite sign.
+	 * @return the result.
+	 * @throws IllegalArgumentException if the expression has the same sign at
+	 *                                  both bounds.
+	 * @throws ParserException          if evaluation fails.
+	 */
+	public SolverResult brent(double a, double b) throws ParserException {
+		start();
+		double fa = f(a), fb = f(b);
+		if (fa == 0) {
+			return result(a, fa, 0, true);
+		}
+		if (fb == 0) {
+			return result(b, fb, 0, true);
+		}
+		if ((fa > 0) == (fb > 0)) {
+			throw new IllegalArgumentException("No sign change between " + a + " and " + b + ".");
+		}
+		double c = a, fc = fa, d = b - a, e = d;
+		for (int i = 1; i <= maxIterations; i++) {
+			if (Math.abs(fc) < Math.abs(fb)) {
+				// b is the best estimate, c the other side of the bracket
+				a = b;
+				b = c;
+				c = a;
+				fa = fb;
+				fb = fc;
+				fc = fa;
+			}
+			double tol = 2 * EPSILON * Math.abs(b) + tolerance / 2;
+			double m = (c - b) / 2;
+			if (Math.abs(m) <= tol || fb == 0) {
+				return result(b, fb, i, true);
+			}
+			if (Math.abs(e) >= tol && Math.abs(fa) > Math.abs(fb)) {
+				double s = fb / fa, p, q;
+				if (a == c) {
+					// Secant
+					p = 2 * m * s;
+					q = 1 - s;
+				} else {
+					// Inverse quadratic interpolation
+					double r = fb / fc;
+					q = fa / fc;
+					p = s * (2 * m * q * (q - r) - (b - a) * (r - 1));
+					q = (q - 1) * (r - 1) * (s - 1);
+				}
+				if (p > 0) {
+					q = -q;
+				} else {
+					p = -p;
+				}
+				if (2 * p < Math.min(3 * m * q - Math.abs(tol * q), Math.abs(e * q))) {
+					e = d;
+					d = p / q;
+				} else {
+					d = m;
+					e = m;
+				}
+			} else {
+				d = m;
+				e = m;
+			}
+			a = b;
+			fa = fb;
+			b += Math.abs(d) > tol ? d : Math.copySign(tol, m);
+			fb = f(b);
+			if ((fb > 0) == (fc > 0)) {
+				c = a;
+				fc = fa;
+				d = b - a;
+				e = d;
+			}
+		}
+		return result(b, fb, maxIterations, false);
+	}
+
+	/**
+	 * Finds a root by Newton's method, from the specified estimate. The method
+	 * converges quickly near a simple root, but may diverge elsewhere.
+	 *
+	 * @param x the initial estimate.
+	 * @return the result, not converged if the derivative vanishes or the
+	 *         estimate isn't finite anymore.
+	 * @throws ParserException if evaluation fails.
+	 */
+	public SolverResult newton(double x) throws ParserException {
+		start();
+		double fx = f(x);
+		for (int i = 1; i <= maxIterations; i++) {
+			if (fx == 0) {
+				return result(x, fx, i - 1, true);
+			}
+			double dfx = derivative(x);
+			double step = fx / dfx;
+			if (!Double.isFinite(step)) {
+				return result(x, fx, i, false);
+			}
+			x -= step;
+			fx = f(x);
+			if (Math.abs(step) <= tolerance) {
+				return result(x, fx, i, true);
+			}
+		}
+		return result(x, fx, maxIterations, false);
+	}
+
+	/**
+	 * Finds a minimum by golden section search, shrinking the interval by the
+	 * golden ratio at each iteration. The method converges to the minimum of
+	 * any unimodal function over the interval, to a local minimum otherwise.
+	 *
+	 * @param a a bound of the interval holding the minimum.
+	 * @param b the other bound.
+	 * @return the result.
+	 * @throws ParserException if evaluation fails.
+	 */
+	public SolverResult goldenSection(double a, double b) throws ParserException {
+		start();
+		double c = b - GOLDEN * (b - a), d = a + GOLDEN * (b - a);
+		double fc = f(c), fd = f(d);
+		for (int i = 1; i <= maxIterations; i++) {
+			if (Math.abs(b - a) <= tolerance) {
+				return fc < fd ? result(c, fc, i - 1, true) : result(d, fd, i - 1, true);
+			}
+			if (fc < fd) {
+				b = d;
+				d = c;
+				fd = fc;
+				c = b - GOLDEN * (b - a);
+				fc = f(c);
+			} else {
+				a = c;
+				c = d;
+				fc = fd;
+				d = a + GOLDEN * (b - a);
+				fd = f(d);
+			}
+		}
+		return fc < fd ? result(c, fc, maxIterations, false) : result(d, fd, maxIterations, false);
+	}
+
+	private void start() {
+		expression.copyBound(frame, slot);
+		evaluations = 0;
+	}
+
+	private double f(double x) {
+		frame[slot] = x;
+		evaluations++;
+		// The frame has room for the locals, no copy needed
+		return expression.evaluator(1).eval(frame);
+	}
+
+	/** Evals the derivative at {@code x}, the frame holding {@code x} already. */
+	private double derivative(double x) {
+		if (derivative != null) {
+			evaluations++;
+			return derivative.eval(frame);
+		}
+		// Central difference, whose step balances truncation and rounding errors
+		double h = Math.cbrt(EPSILON) * Math.max(1, Math.abs(x));
+		double d = (f(x + h) - f(x - h)) / (2 * h);
+		frame[slot] = x;
+		return d;
+	}
+
+	private SolverResult result(double argument, double value, int iterations, boolean converged) {
+		return new SolverResult(argument, value, iterations, evaluations, converged);
+	}
+
+	/** Gets the absolute tolerance on the free variable. */
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/** Gets the maximal number of iterations, after which a result isn't converged. */
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+}
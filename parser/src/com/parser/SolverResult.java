@@ -0,0 +1,56 @@
+package com.parser;
+
+/**
+ * Outcome of a {@link Solver}: the root or minimum found, and how it was
+ * reached.
+ *
+ * @since 1.1
+ */
+public final class SolverResult {
+
+	private final double argument, value;
+	private final int iterations, evaluations;
+	private final boolean converged;
+
+	SolverResult(double argument, double value, int iterations, int evaluations, boolean converged) {
+		this.argument = argument;
+		this.value = value;
+		this.iterations = iterations;
+		this.evaluations = evaluations;
+		this.converged = converged;
+	}
+
+	/** Gets the value of the free variable at the root or minimum, the last estimate if not converged. */
+	public double getArgument() {
+		return argument;
+	}
+
+	/** Gets the value of the expression at {@link #getArgument()}. */
+	public double getValue() {
+		return value;
+	}
+
+	/** Gets the number of iterations done. */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/** Gets the number of evaluations of the expression, and of its derivative, done. */
+	public int getEvaluations() {
+		return evaluations;
+	}
+
+	/**
+	 * Tests if the tolerance has been reached, before the maximal number of
+	 * iterations and without an undefined value or derivative.
+	 */
+	public boolean isConverged() {
+		return converged;
+	}
+
+	@Override
+	public String toString() {
+		return "SolverResult [argument=" + argument + ", value=" + value + ", iterations=" + iterations
+				+ ", evaluations=" + evaluations + ", converged=" + converged + "]";
+	}
+}
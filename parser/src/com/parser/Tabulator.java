@@ -0,0 +1,364 @@
+package com.parser;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Samples a {@link CompiledExpression} over ranges of its variables, e.g. to
+ * plot it or to build a lookup table. The values of the expression are
+ * written into a primitive array, from a frame updated in place between two
+ * points; the variables not sampled take the values bound to the expression by
+ * {@link CompiledExpression#withVariable(String, Number)} when a method is
+ * called. Sampling a variable the expression doesn't reference is allowed, its
+ * values being constant along that axis.
+ * <br/>
+ * Grids of at least {@link #getParallelThreshold()} points are split into
+ * chunks of {@value #CHUNK} points, evaluated in parallel on the common fork
+ * join pool, each on its own frame; the results don't depend on the split.
+ * Expressions calling window functions are evaluated in order, each point
+ * being a tick.
+ * {@link #refine(String, double, double, int)} samples a range adaptively,
+ * adding points where linear interpolation between the regular points would be
+ * inaccurate.
+ *
+ * @since 1.1
+ */
+public class Tabulator {
+
+	/** Default number of points from which a grid is evaluated in parallel. */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 15;
+	/** Default tolerance of {@link #refine(String, double, double, int)}. */
+	public static final double DEFAULT_TOLERANCE = 1e-6;
+	/** Default number of halvings of an interval by {@link #refine(String, double, double, int)}. */
+	public static final int DEFAULT_MAX_DEPTH = 10;
+
+	/** Number of points evaluated by a parallel task. */
+	static final int CHUNK = 4096;
+
+	/** Regular sampling of a variable, in {@code steps + 1} points. */
+	private static final class Axis {
+		final int slot;
+		final double from, to, delta;
+		final int points;
+
+		Axis(int slot, double from, double to, int steps) {
+			if (steps < 1) {
+				throw new IllegalArgumentException("At least 1 step expected, got " + steps + ".");
+			}
+			this.slot = slot;
+			this.from = from;
+			this.to = to;
+			this.delta = (to - from) / steps;
+			this.points = steps + 1;
+		}
+
+		/** Gets the value of the variable at the specified point, both bounds being exact. */
+		double at(int i) {
+			return i == points - 1 ? to : Math.fma(i, delta, from);
+		}
+
+		void set(double[] frame, int i) {
+			if (slot >= 0) {
+				frame[slot] = at(i);
+			}
+		}
+	}
+
+	private final CompiledExpression expression;
+	private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+	private double tolerance = DEFAULT_TOLERANCE;
+	private int maxDepth = DEFAULT_MAX_DEPTH;
+
+	/**
+	 * Creates a tabulator.
+	 *
+	 * @param expression the expression to sample.
+	 */
+	public Tabulator(CompiledExpression expression) {
+		this.expression = expression;
+	}
+
+	/**
+	 * Evals the expression for {@code steps + 1} values of a variable evenly
+	 * spaced from {@code from} to {@code to}, both included.
+	 *
+	 * @param variable the name of the sampled variable.
+	 * @param from     the first value of the variable.
+	 * @param to       the last value of the variable.
+	 * @param steps    the number of intervals between two values.
+	 * @return the values of the expression, in the order of the variable.
+	 * @throws IllegalArgumentException if {@code steps} is less than {@code 1}.
+	 * @throws ParserException          if evaluation fails or another variable
+	 *                                  isn't bound.
+	 * @throws ResourceLimitException   if the points exceed the limits of the
+	 *                                  compiler.
+	 */
+	public double[] tabulate(String variable, double from, double to, int steps) throws ParserException {
+		return grid(new String[] { variable }, new double[] { from }, new double[] { to }, new int[] { steps });
+	}
+
+	/**
+	 * Alias of {@link #tabulate(String, double, double, int)} writing into the
+	 * specified array, from index {@code 0}.
+	 *
+	 * @throws IndexOutOfBoundsException if {@code results} holds less than
+	 *                                   {@code steps + 1} values.
+	 */
+	public void tabulate(String variable, double from, double to, int steps, double[] results)
+			throws ParserException {
+		grid(new String[] { variable }, new double[] { from }, new double[] { to }, new int[] { steps }, results);
+	}
+
+	/**
+	 * Evals the expression over a regular grid, each variable taking
+	 * {@code steps[i] + 1} values evenly spaced from {@code from[i]} to
+	 * {@code to[i]}. Results are in row major order: the last variable varies
+	 * the fastest.
+	 *
+	 * @param variables the names of the sampled variables.
+	 * @param from      the first value of each variable.
+	 * @param to        the last value of each variable.
+	 * @param steps     the number of intervals of each variable.
+	 * @return the values of the expression, of length the product of the
+	 *         numbers of values of the variables.
+	 * @throws IllegalArgumentException if the arrays have different lengths, a
+	 *                                  variable is repeated, a number of steps
+	 *                                  is less than {@code 1} or the grid is
+	 *                                  too large for an array.
+	 * @throws ParserException          if evaluation fails or another variable
+	 *                                  isn't bound.
+	 * @throws ResourceLimitException   if the points exceed the limits of the
+	 *                                  compiler.
+	 */
+	public double[] grid(String[] variables, double[] from, double[] to, int[] steps) throws ParserException {
+		Axis[] axes = axes(variables, from, to, steps);
+		double[] results = new double[points(axes)];
+		fill(axes, results);
+		return results;
+	}
+
+	/**
+	 * Alias of {@link #grid(String[], double[], double[], int[])} writing into
+	 * the specified array, from index {@code 0}.
+	 *
+	 * @throws IndexOutOfBoundsException if {@code results} holds less values
+	 *                                   than the grid.
+	 */
+	public void grid(String[] variables, double[] from, double[] to, int[] steps, double[] results)
+			throws ParserException {
+		Axis[] axes = axes(variables, from, to, steps);
+		int points = points(axes);
+		if (results.length < points) {
+			throw new IndexOutOfBoundsException("Array of " + results.length + " values, " + points + " expected.");
+		}
+		fill(axes, results);
+	}
+
+	/**
+	 * Samples a variable adaptively. The range is first split into
+	 * {@code steps} regular intervals; then each interval is halved while the
+	 * value of the expression at its middle differs from the mean of its
+	 * bounds by more than the tolerance, relative to the magnitude of the value
+	 * above {@code 1}, at most {@link #getMaxDepth()} times. Undefined values
+	 * don't trigger any refinement.
+	 *
+	 * @param variable the name of the sampled variable.
+	 * @param from     the first value of the variable.
+	 * @param to       the last value of the variable.
+	 * @param steps    the number of regular intervals.
+	 * @return the samples, in the order of the variable.
+	 * @throws IllegalArgumentException if {@code steps} is less than {@code 1}.
+	 * @throws ParserException          if evaluation fails or another variable
+	 *                                  isn't bound.
+	 * @throws ResourceLimitException   if the points exceed the limits of the
+	 *                                  compiler.
+	 */
+	public Samples refine(String variable, double from, double to, int steps) throws ParserException {
+		Axis axis = new Axis(expression.slotOf(variable), from, to, steps);
+		Refinement refinement = new Refinement(axis);
+		double x = axis.at(0), y = refinement.f(x);
+		refinement.add(x, y);
+		for (int i = 1; i < axis.points; i++) {
+			double next = axis.at(i), value = refinement.f(next);
+			refinement.interval(x, y, next, value, 0);
+			x = next;
+			y = value;
+		}
+		expression.evaluator(refinement.evaluations);
+		return new Samples(Arrays.copyOf(refinement.arguments, refinement.size),
+				Arrays.copyOf(refinement.values, refinement.size));
+	}
+
+	/** State of an adaptive sampling, whose number of points isn't known in advance. */
+	private final class Refinement {
+		final int slot;
+		final double[] frame;
+		final FrameEvaluator evaluator;
+		final Budget budget;
+		double[] arguments, values;
+		int size, evaluations;
+
+		Refinement(Axis axis) {
+			this.slot = axis.slot;
+			this.frame = frame(axis.slot);
+			// Evaluations are counted once done, the steps of the regular points up front
+			this.evaluator = expression.evaluator(0);
+			this.budget = expression.budget(axis.points);
+			this.arguments = new double[axis.points * 2];
+			this.values = new double[arguments.length];
+		}
+
+		double f(double x) {
+			if (++evaluations % Budget.CHECK_INTERVAL == 0 && budget != null) {
+				budget.checkTime();
+			}
+			if (slot >= 0) {
+				frame[slot] = x;
+			}
+			return evaluator.eval(frame);
+		}
+
+		/** Adds the points of the interval {@code ]a, b]}. */
+		void interval(double a, double ya, double b, double yb, int depth) {
+			double m = a + (b - a) / 2;
+			if (depth == maxDepth || m == a || m == b) {
+				add(b, yb);
+				return;
+			}
+			if (budget != null) {
+				budget.steps(expression.size());
+			}
+			double ym = f(m);
+			if (!(Math.abs(ym - (ya + yb) / 2) > tolerance * Math.max(1, Math.abs(ym)))) {
+				add(m, ym);
+				add(b, yb);
+				return;
+			}
+			interval(a, ya, m, ym, depth + 1);
+			interval(m, ym, b, yb, depth + 1);
+		}
+
+		void add(double x, double y) {
+			if (size == arguments.length) {
+				arguments = Arrays.copyOf(arguments, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			arguments[size] = x;
+			values[size++] = y;
+		}
+	}
+
+	private Axis[] axes(String[] variables, double[] from, double[] to, int[] steps) {
+		if (from.length != variables.length || to.length != variables.length || steps.length != variables.length) {
+			throw new IllegalArgumentException("Bounds and steps expected for each of the " + variables.length
+					+ " variables.");
+		}
+		Axis[] axes = new Axis[variables.length];
+		for (int i = 0; i < variables.length; i++) {
+			for (int j = 0; j < i; j++) {
+				if (variables[j].equals(variables[i])) {
+					throw new IllegalArgumentException("Variable '" + variables[i] + "' sampled twice.");
+				}
+			}
+			axes[i] = new Axis(expression.slotOf(variables[i]), from[i], to[i], steps[i]);
+		}
+		return axes;
+	}
+
+	private static int points(Axis[] axes) {
+		long points = 1;
+		for (Axis axis : axes) {
+			points *= axis.points;
+			if (points > Integer.MAX_VALUE - 8) {
+				throw new IllegalArgumentException("Grid too large for an array.");
+			}
+		}
+		return (int) points;
+	}
+
+	/** Creates a frame holding the bound variables, except the sampled ones. */
+	private double[] frame(int... slots) {
+		double[] frame = new double[expression.frameSize()];
+		expression.copyBound(frame, slots);
+		return frame;
+	}
+
+	private void fill(Axis[] axes, double[] results) {
+		int[] slots = new int[axes.length];
+		for (int i = 0; i < axes.length; i++) {
+			slots[i] = axes[i].slot;
+		}
+		double[] frame = frame(slots);
+		int points = points(axes);
+		Budget budget = expression.budget(points);
+		FrameEvaluator evaluator = expression.evaluator(points);
+		if (points < parallelThreshold || expression.isStateful()) {
+			fill(axes, frame, evaluator, budget, results, 0, points);
+			return;
+		}
+		int chunks = (points + CHUNK - 1) / CHUNK;
+		IntStream.range(0, chunks).parallel().forEach(chunk -> fill(axes, frame.clone(), evaluator, budget, results,
+				chunk * CHUNK, Math.min(points, (chunk + 1) * CHUNK)));
+	}
+
+	/**
+	 * Evals the points of a grid from {@code start} included to {@code end}
+	 * excluded, stepping through their indices like an odometer so that each
+	 * point updates only the variables that change.
+	 */
+	private static void fill(Axis[] axes, double[] frame, FrameEvaluator evaluator, Budget budget,
+			double[] results, int start, int end) {
+		int[] index = new int[axes.length];
+		int rest = start;
+		for (int d = axes.length - 1; d >= 0; d--) {
+			index[d] = rest % axes[d].points;
+			rest /= axes[d].points;
+			axes[d].set(frame, index[d]);
+		}
+		for (int i = start; i < end; i++) {
+			if (budget != null && (i - start) % Budget.CHECK_INTERVAL == Budget.CHECK_INTERVAL - 1) {
+				budget.checkTime();
+			}
+			results[i] = evaluator.eval(frame);
+			for (int d = axes.length - 1; d >= 0; d--) {
+				if (++index[d] < axes[d].points) {
+					axes[d].set(frame, index[d]);
+					break;
+				}
+				index[d] = 0;
+				axes[d].set(frame, 0);
+			}
+		}
+	}
+
+	/** Gets the number of points from which a grid is evaluated in parallel. */
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * Sets the number of points from which a grid is evaluated in parallel,
+	 * {@link Integer#MAX_VALUE} to always evaluate it in the calling thread.
+	 */
+	public void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	/** Gets the tolerance of {@link #refine(String, double, double, int)}. */
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/** Gets the maximal number of halvings of a regular interval by {@link #refine(String, double, double, int)}. */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+}
@@ -0,0 +1,63 @@
+package com.parser;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the promotions of compiled expressions from the interpreted tier
+ * to generated code, shared by the expressions of an
+ * {@link ExpressionCompiler}.
+ *
+ * @since 1.1
+ */
+public final class TieringMetrics {
+
+	private final LongAdder requested = new LongAdder(), promoted = new LongAdder(), failed = new LongAdder(),
+			nanos = new LongAdder();
+
+	TieringMetrics() {
+	}
+
+	void requested() {
+		requested.increment();
+	}
+
+	void promoted(long nanos) {
+		promoted.increment();
+		this.nanos.add(nanos);
+	}
+
+	void failed() {
+		failed.increment();
+	}
+
+	/** Gets the number of expressions which crossed the promotion threshold. */
+	public long getRequestedCount() {
+		return requested.sum();
+	}
+
+	/** Gets the number of expressions now evaluated by generated code. */
+	public long getPromotedCount() {
+		return promoted.sum();
+	}
+
+	/** Gets the number of expressions whose code generation failed, they stay interpreted. */
+	public long getFailedCount() {
+		return failed.sum();
+	}
+
+	/** Gets the number of promotions requested but not yet done. */
+	public long getPendingCount() {
+		return getRequestedCount() - getPromotedCount() - getFailedCount();
+	}
+
+	/** Gets the total time spent generating code, in nanoseconds. */
+	public long getGenerationNanos() {
+		return nanos.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "TieringMetrics [requested=" + getRequestedCount() + ", promoted=" + getPromotedCount() + ", failed="
+				+ getFailedCount() + ", generationNanos=" + getGenerationNanos() + "]";
+	}
+}
@@ -0,0 +1,51 @@
+package com.parser;
+
+import java.util.Set;
+
+/**
+ * Result of the syntax validation of an expression by
+ * {@link ExpressionCompiler#validate(String)}.
+ * 
+ * @since 1.1
+ */
+public final class ValidationResult {
+
+	private final String expression;
+	private final Diagnostic diagnostic;
+	private final Set<String> variables;
+
+	ValidationResult(String expression, Diagnostic diagnostic, Set<String> variables) {
+		this.expression = expression;
+		this.diagnostic = diagnostic;
+		this.variables = variables;
+	}
+
+	/** Gets the validated expression. */
+	public String getExpression() {
+		return expression;
+	}
+
+	/** Tests if the expression is syntactically valid. */
+	public boolean isValid() {
+		return diagnostic == null;
+	}
+
+	/** Gets the syntax error of the expression, {@code null} if it is valid. */
+	public Diagnostic getDiagnostic() {
+		return diagnostic;
+	}
+
+	/**
+	 * Gets the unmodifiable set of the variables referenced by the expression, in
+	 * order of first occurrence. When the expression is invalid, only the
+	 * variables found before the error are present.
+	 */
+	public Set<String> getVariables() {
+		return variables;
+	}
+
+	@Override
+	public String toString() {
+		return isValid() ? "valid " + variables : diagnostic.toString();
+	}
+}
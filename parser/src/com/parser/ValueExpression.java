@@ -16,6 +16,9 @@ public class ValueExpression implements Expression {
 
 	private String expression, expressionTampon;
 	private Map<String, Number> variables = new HashMap<>();
+	private ResourceLimits limits;
+	/** Budget of the evaluation in progress, shared with the sub expressions it creates. */
+	Budget budget;
 
 	public ValueExpression(String expression) throws ParserException {
 		super();
@@ -89,6 +92,52 @@ public class ValueExpression implements Expression {
 		}
 	}
 
+	/**
+	 * Starts the budget of an evaluation, unless the expression is evaluated by
+	 * an enclosing one sharing its budget.
+	 * 
+	 * @return {@code true} if the budget has been started, to be released at the
+	 *         end of the evaluation.
+	 */
+	boolean startBudget() {
+		if (budget != null || limits == null) {
+			return false;
+		}
+		budget = new Budget(limits);
+		budget.checkInput(getAsText());
+		return true;
+	}
+
+	/** Counts a pass of the evaluation in progress over its text. */
+	void step() {
+		if (budget != null) {
+			budget.pass();
+		}
+	}
+
+	/** Shares the budget of the evaluation in progress with a sub expression. */
+	<E extends ValueExpression> E share(E expression) {
+		expression.budget = budget;
+		return expression;
+	}
+
+	/** Gets the limits of the resources used by an evaluation, {@code null} if unlimited. */
+	public ResourceLimits getLimits() {
+		return limits == null ? null : new ResourceLimits(limits);
+	}
+
+	/**
+	 * Sets the limits of the resources used by each evaluation of the
+	 * expression. Each pass of the rewriting loops is a step; the timeout and
+	 * the interrupted status of the thread are checked on each pass, whose
+	 * time grows with the length of the expression.
+	 * 
+	 * @param limits the limits, copied, {@code null} for none.
+	 */
+	public void setLimits(ResourceLimits limits) {
+		this.limits = limits == null ? null : new ResourceLimits(limits);
+	}
+
 	/** Gets the current value of the expression during evaluation. */
 	public String getAsText() {
 		return expressionTampon;
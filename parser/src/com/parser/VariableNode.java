@@ -0,0 +1,42 @@
+package com.parser;
+
+/** Reads a variable from the evaluation frame. */
+final class VariableNode extends Node {
+
+	private final String name;
+	private final int slot;
+
+	VariableNode(String name, int slot) {
+		this.name = name;
+		this.slot = slot;
+	}
+
+	String name() {
+		return name;
+	}
+
+	int slot() {
+		return slot;
+	}
+
+	@Override
+	double eval(double[] frame) {
+		return frame[slot];
+	}
+
+	@Override
+	boolean isIntegral() {
+		// Decided at evaluation time, see IntegralNode
+		return true;
+	}
+
+	@Override
+	long evalLong(double[] frame) {
+		double value = frame[slot];
+		long l = (long) value;
+		if (!IntegralNode.isInteger(value)) {
+			throw new ArithmeticException("The variable '" + name + "' isn't an integer.");
+		}
+		return l;
+	}
+}
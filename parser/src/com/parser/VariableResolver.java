@@ -0,0 +1,41 @@
+package com.parser;
+
+/**
+ * Source of the values of variables, queried during evaluation only for the
+ * variables the expression references, e.g. a few fields of a large context
+ * object. Those variables are known up front from
+ * {@link CompiledExpression#getVariableNames()}, so that they can be fetched
+ * before evaluation.
+ *
+ * @since 1.1
+ */
+@FunctionalInterface
+public interface VariableResolver {
+
+	/**
+	 * Resolves the value of a variable.
+	 *
+	 * @param name the name of the variable.
+	 * @return the value of the variable, {@code null} if unknown.
+	 * @throws ParserException if resolution fails.
+	 */
+	Number resolve(String name) throws ParserException;
+
+	/**
+	 * Primitive variant resolving the variables of a compiled expression by
+	 * slot, without boxing.
+	 */
+	@FunctionalInterface
+	interface OfSlot {
+
+		/**
+		 * Resolves the value of a variable.
+		 *
+		 * @param slot the slot of the variable, its index in
+		 *             {@link CompiledExpression#getVariableNames()}.
+		 * @return the value of the variable.
+		 * @throws ParserException if resolution fails.
+		 */
+		double resolve(int slot) throws ParserException;
+	}
+}
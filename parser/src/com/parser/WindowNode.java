@@ -0,0 +1,223 @@
+package com.parser;
+
+import java.util.List;
+
+/**
+ * Call of a {@link MathWindow} function, holding the state of its window: the
+ * values of the last ticks in a ring buffer, updated in place at each
+ * evaluation, so that a tick allocates nothing.
+ * <br/>
+ * Sums are compensated like {@link MathAggregate#SUM}, adding the new value
+ * and subtracting the one leaving the window, and recomputed from the ring
+ * each time it wraps around, so that rounding errors don't accumulate along
+ * the series. Infinite and {@code NaN} values are counted apart, so that they
+ * leave the sum with the window. Minimums and maximums are read from a
+ * monotonic deque of the values still able to become the extremum of the
+ * window.
+ * <br/>
+ * The state is mutable, unlike the other nodes: each compiled expression gets
+ * its own copies of the window nodes, see {@link #renew(Node)}.
+ */
+final class WindowNode extends Node {
+
+	private final MathWindow window;
+	private final double parameter;
+	private final Node argument;
+	/** Number of ticks of the window, {@code 1} for {@link MathWindow#EMA}. */
+	private final int size;
+	/** Values of the window, the oldest one at {@code head} once full. */
+	private final double[] ring;
+	/** Values of the deque of the minimums or maximums, and their ticks, from {@code first}. */
+	private final double[] deque;
+	private final long[] dequeTicks;
+	private int head, count, first, length;
+	private long tick;
+	private double sum = -0.0, compensation;
+	/** Number of {@code NaN}, positive and negative infinite values in the window. */
+	private int nans, positives, negatives;
+	private double average;
+
+	WindowNode(MathWindow window, double parameter, Node argument) {
+		this.window = window;
+		this.parameter = parameter;
+		this.argument = argument;
+		this.size = window.isSized() ? (int) parameter : 1;
+		this.ring = window.isSized() ? new double[size] : null;
+		boolean extremum = window == MathWindow.MOVMIN || window == MathWindow.MOVMAX;
+		this.deque = extremum ? new double[size] : null;
+		this.dequeTicks = extremum ? new long[size] : null;
+	}
+
+	MathWindow window() {
+		return window;
+	}
+
+	double parameter() {
+		return parameter;
+	}
+
+	@Override
+	double eval(double[] frame) {
+		double x = argument.eval(frame);
+		if (window == MathWindow.EMA) {
+			average = tick++ == 0 ? x : Math.fma(parameter, x - average, average);
+			return average;
+		}
+		double old = ring[head];
+		boolean full = count == size;
+		ring[head] = x;
+		if (++head == size) {
+			head = 0;
+		}
+		if (!full) {
+			count++;
+		}
+		switch (window) {
+		case MOVAVG:
+		case MOVSUM:
+			if (full) {
+				remove(old);
+			}
+			if (head == 0) {
+				resum();
+			} else {
+				add(x);
+			}
+			return window == MathWindow.MOVSUM ? sum() : sum() / count;
+		default:
+			if (full && Double.isNaN(old)) {
+				nans--;
+			}
+			return extremum(x);
+		}
+	}
+
+	/** Adds a value to the compensated sum, see {@link MathAggregate#eval(double[], int, int)}. */
+	private void add(double value) {
+		if (!Double.isFinite(value)) {
+			count(value, 1);
+			return;
+		}
+		double t = sum + value;
+		compensation += Math.abs(sum) >= Math.abs(value) ? (sum - t) + value : (value - t) + sum;
+		sum = t;
+	}
+
+	private void remove(double value) {
+		if (Double.isFinite(value)) {
+			add(-value);
+		} else {
+			count(value, -1);
+		}
+	}
+
+	private void count(double value, int increment) {
+		if (Double.isNaN(value)) {
+			nans += increment;
+		} else if (value > 0) {
+			positives += increment;
+		} else {
+			negatives += increment;
+		}
+	}
+
+	/** Sums the whole ring again, once per turn, for an amortized constant cost. */
+	private void resum() {
+		sum = -0.0;
+		compensation = 0;
+		nans = positives = negatives = 0;
+		for (int i = 0; i < count; i++) {
+			add(ring[i]);
+		}
+	}
+
+	private double sum() {
+		if (nans > 0 || positives > 0 && negatives > 0) {
+			return Double.NaN;
+		}
+		if (positives > 0 || negatives > 0) {
+			return positives > 0 ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
+		}
+		return MathAggregate.total(sum, compensation);
+	}
+
+	/** Pushes a value into the deque, and gets the extremum of the window. */
+	private double extremum(double x) {
+		long tick = this.tick++;
+		if (length > 0 && dequeTicks[first] <= tick - size) {
+			// The oldest candidate left the window
+			first = first + 1 == size ? 0 : first + 1;
+			length--;
+		}
+		if (Double.isNaN(x)) {
+			nans++;
+		} else {
+			int sign = window == MathWindow.MOVMIN ? 1 : -1;
+			// Values no better than the new one never become the extremum again
+			while (length > 0 && sign * Double.compare(deque[last()], x) >= 0) {
+				length--;
+			}
+			int at = first + length < size ? first + length : first + length - size;
+			deque[at] = x;
+			dequeTicks[at] = tick;
+			length++;
+		}
+		return nans > 0 ? Double.NaN : deque[first];
+	}
+
+	private int last() {
+		int last = first + length - 1;
+		return last < size ? last : last - size;
+	}
+
+	/** Clears the state of the window, as before the first tick. */
+	void reset() {
+		head = count = first = length = 0;
+		tick = 0;
+		sum = -0.0;
+		compensation = average = 0;
+		nans = positives = negatives = 0;
+	}
+
+	@Override
+	Node[] children() {
+		return new Node[] { argument };
+	}
+
+	@Override
+	Node withChildren(Node[] children) {
+		return new WindowNode(window, parameter, children[0]);
+	}
+
+	/**
+	 * Copies the window nodes, and the memoized calls, of a tree, so that their
+	 * state belongs to a single compiled expression or program, even when the
+	 * parser reused sub trees. The copies start empty.
+	 *
+	 * @param node the root of the tree.
+	 * @return the tree, {@code node} itself if it has no such node.
+	 */
+	static Node renew(Node node) {
+		Node[] children = node.children();
+		if (children.length == 0) {
+			return node;
+		}
+		boolean changed = node instanceof WindowNode || node instanceof MemoizedFunctionNode;
+		Node[] renewed = new Node[children.length];
+		for (int i = 0; i < children.length; i++) {
+			renewed[i] = renew(children[i]);
+			changed |= renewed[i] != children[i];
+		}
+		return changed ? node.withChildren(renewed) : node;
+	}
+
+	/** Adds the window nodes of a tree to a list. */
+	static void collect(Node node, List<WindowNode> windows) {
+		if (node instanceof WindowNode) {
+			windows.add((WindowNode) node);
+		}
+		for (Node child : node.children()) {
+			collect(child, windows);
+		}
+	}
+}
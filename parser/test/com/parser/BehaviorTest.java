@@ -0,0 +1,282 @@
+package com.parser;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SplittableRandom;
+
+/**
+ * Regression check of the results of the compiler features against reference
+ * computations: window functions against their naive recomputation over the
+ * last ticks, fused formulas against the same formulas compiled apart, the
+ * {@link Solver} against known roots and minimums, incremental parsing
+ * against a full parse of the edited text, and resource limits against their
+ * deadline.
+ * <br/>
+ * Usage: {@code BehaviorTest [seed]}. Exits with status 1 on failure.
+ */
+public class BehaviorTest {
+
+	private static final int TICKS = 10_000;
+	private static final int EDITS = 5_000;
+	private static final int MAX_REPORTED = 10;
+
+	private final SplittableRandom random;
+	private int failures;
+
+	private BehaviorTest(long seed) {
+		this.random = new SplittableRandom(seed);
+	}
+
+	public static void main(String[] args) {
+		BehaviorTest test = new BehaviorTest(args.length > 0 ? Long.parseLong(args[0]) : 42);
+		test.windows();
+		test.fused();
+		test.solver();
+		test.reparse();
+		test.limits();
+		System.out.println(test.failures == 0 ? "OK" : test.failures + " failures");
+		if (test.failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/** Checks each window function, tick by tick, against the values of its window summed or scanned again. */
+	private void windows() {
+		ExpressionCompiler compiler = new ExpressionCompiler(false);
+		String[] expressions = { "movsum(x, 5)", "movavg(x, 7)", "movmin(x, 4)", "movmax(x, 6)", "ema(x, 0.3)" };
+		for (String expression : expressions) {
+			CompiledExpression compiled = compiler.compile(expression);
+			for (int run = 0; run < 2; run++) {
+				double[] series = series(TICKS);
+				for (int tick = 0; tick < series.length; tick++) {
+					double value = compiled.eval(new double[] { series[tick] });
+					double expected = naive(expression, series, tick);
+					if (!close(value, expected)) {
+						fail(expression + " at tick " + tick + ": " + value + " instead of " + expected);
+						break;
+					}
+				}
+				// The second run checks that the windows start again empty
+				compiled.reset();
+			}
+		}
+	}
+
+	/** Gets the values of a series, mostly finite, with rare infinite and {@code NaN} values. */
+	private double[] series(int length) {
+		double[] series = new double[length];
+		for (int i = 0; i < length; i++) {
+			int kind = random.nextInt(500);
+			series[i] = kind == 0 ? Double.NaN
+					: kind == 1 ? Double.POSITIVE_INFINITY
+							: kind == 2 ? Double.NEGATIVE_INFINITY : (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(7));
+		}
+		return series;
+	}
+
+	/** Computes the value of a window function at a tick from the values of the series up to it. */
+	private static double naive(String expression, double[] series, int tick) {
+		if (expression.startsWith("ema")) {
+			double average = series[0];
+			for (int i = 1; i <= tick; i++) {
+				average = Math.fma(0.3, series[i] - average, average);
+			}
+			return average;
+		}
+		int size = Integer.parseInt(expression.substring(expression.indexOf(',') + 2, expression.length() - 1));
+		int from = Math.max(0, tick - size + 1);
+		double[] window = Arrays.copyOfRange(series, from, tick + 1);
+		switch (expression.substring(0, 6)) {
+		case "movsum":
+			return MathAggregate.SUM.eval(window, 0, window.length);
+		case "movavg":
+			return MathAggregate.AVG.eval(window, 0, window.length);
+		case "movmin":
+			return MathAggregate.MIN.eval(window, 0, window.length);
+		default:
+			return MathAggregate.MAX.eval(window, 0, window.length);
+		}
+	}
+
+	/** Tests if values are equal, or finite and close for sums updated along the series. */
+	private static boolean close(double value, double expected) {
+		if (!Double.isFinite(value) || !Double.isFinite(expected)) {
+			return Double.compare(value, expected) == 0;
+		}
+		return Math.abs(value - expected) <= 1e-9 * Math.max(1, Math.abs(expected));
+	}
+
+	/** Checks formulas fused together, sharing variables and sub expressions, against each of them compiled apart. */
+	private void fused() {
+		Map<String, String> formulas = new LinkedHashMap<>();
+		formulas.put("distance", "sqrt(x^2 + y^2)");
+		formulas.put("angle", "sin(x) * cos(y) + sqrt(x^2 + y^2)");
+		formulas.put("polynomial", "3*x^3 - 2*x^2 + x - 7 + n");
+		formulas.put("local", "let d = x^2 + y^2 in d / (1 + d) - n % 7");
+		formulas.put("aggregate", "max(x, y, n) - min(x, y) + sum(x, y, x*y, 1, 2, 3, 4, 5, 6)");
+		formulas.put("chain", "x + y + n + x*y + 1 + 2 + 3 + 4 + 5 + x/2 - y");
+		formulas.put("window", "movavg(x + y, 10) - movmax(n, 3)");
+		ExpressionCompiler compiler = new ExpressionCompiler(false);
+		FusedProgram program = compiler.compileAll(formulas);
+		Map<String, CompiledExpression> apart = new LinkedHashMap<>();
+		formulas.forEach((name, formula) -> apart.put(name, compiler.compile(formula)));
+		double[] frame = new double[program.getVariableNames().size()];
+		double[] results = new double[formulas.size()];
+		for (int tick = 0; tick < TICKS; tick++) {
+			Map<String, Double> values = new LinkedHashMap<>();
+			values.put("x", random.nextInt(3) == 0 ? (double) random.nextInt(-50, 50) : random.nextDouble(-50, 50));
+			values.put("y", random.nextDouble(-50, 50));
+			values.put("n", (double) random.nextInt(-1000, 1000));
+			values.forEach((variable, value) -> frame[program.slotOf(variable)] = value);
+			program.eval(frame, results);
+			for (Map.Entry<String, CompiledExpression> formula : apart.entrySet()) {
+				CompiledExpression compiled = formula.getValue();
+				double[] own = new double[compiled.getVariableNames().size()];
+				for (String variable : compiled.getVariableNames()) {
+					own[compiled.slotOf(variable)] = values.get(variable);
+				}
+				double expected = compiled.eval(own), value = results[program.outputOf(formula.getKey())];
+				if (Double.doubleToLongBits(value) != Double.doubleToLongBits(expected)) {
+					fail("fused " + formula.getKey() + " at " + values + ": " + value + " instead of " + expected);
+					return;
+				}
+			}
+		}
+	}
+
+	/** Checks the roots and minimums found by each method against known ones. */
+	private void solver() {
+		ExpressionCompiler compiler = new ExpressionCompiler(false);
+		for (int i = 0; i < 200; i++) {
+			double r1 = random.nextDouble(-10, -1), r2 = random.nextDouble(-0.5, 0.5), r3 = random.nextDouble(1, 10);
+			CompiledExpression cubic = compiler.compile("(x - a) * (x - b) * (x - c)");
+			cubic.withVariable("a", r1);
+			cubic.withVariable("b", r2);
+			cubic.withVariable("c", r3);
+			Solver solver = new Solver(cubic, "x");
+			expect("brent", solver.brent((r2 + r3) / 2, r3 + 5), r3);
+			expect("newton", solver.newton(r1 - 0.1), r1);
+			CompiledExpression well = compiler.compile("(x - m)^2 + 1");
+			double m = random.nextDouble(-100, 100);
+			well.withVariable("m", m);
+			SolverResult minimum = new Solver(well, "x").goldenSection(m - random.nextDouble(1, 50),
+					m + random.nextDouble(1, 50));
+			// A minimum is only located to the square root of the precision of its values
+			if (!minimum.isConverged() || Math.abs(minimum.getArgument() - m) > 1e-6 * Math.max(1, Math.abs(m))) {
+				fail("golden section: " + minimum + " instead of " + m);
+			}
+		}
+		CompiledExpression positive = compiler.compile("x^2 + 1");
+		SolverResult diverging = new Solver(positive, "x").newton(3);
+		if (diverging.isConverged()) {
+			fail("newton converged on a function without root: " + diverging);
+		}
+	}
+
+	private void expect(String method, SolverResult result, double root) {
+		if (!result.isConverged() || Math.abs(result.getArgument() - root) > 1e-9 * Math.max(1, Math.abs(root))) {
+			fail(method + ": " + result + " instead of " + root);
+		}
+	}
+
+	/** Checks random edits parsed incrementally against a full parse of the edited text. */
+	private void reparse() {
+		ExpressionCompiler compiler = new ExpressionCompiler(false);
+		String base = "(a + b) * (c - 2) + sqrt(a*a + 1) / (max(b, c, 3) + (a - (b + (c * 2))))";
+		String[] inserts = { "a", "b", "(", ")", "+", "-", "*", ",", "2", " ", "sin(", "let t = 1 in " };
+		ParseResult previous = compiler.parse(base);
+		long reused = 0;
+		for (int i = 0; i < EDITS; i++) {
+			String text = previous.getExpression();
+			int offset = random.nextInt(text.length() + 1);
+			int removed = random.nextInt(Math.min(3, text.length() - offset) + 1);
+			String inserted = random.nextInt(3) == 0 ? "" : inserts[random.nextInt(inserts.length)];
+			ParseResult edited = compiler.reparse(previous, offset, removed, inserted);
+			ParseResult full = compiler.parse(edited.getExpression());
+			reused += edited.getReusedGroups();
+			if (!Objects.equals(edited.getDiagnostic(), full.getDiagnostic())
+					|| !new ArrayList<>(edited.getVariables()).equals(new ArrayList<>(full.getVariables()))
+					|| edited.isValid() && !sameValues(compiler.compile(edited), compiler.compile(full))) {
+				fail("reparse of '" + edited.getExpression() + "': " + edited + " instead of " + full);
+			}
+			// Restarts from the base once the text degenerates
+			boolean degenerate = edited.getExpression() == null || edited.getExpression().isBlank()
+					|| edited.getExpression().length() > 4 * base.length();
+			previous = degenerate ? compiler.parse(base) : edited;
+		}
+		if (reused == 0) {
+			fail("reparse never reused a block");
+		}
+	}
+
+	private boolean sameValues(CompiledExpression edited, CompiledExpression full) {
+		double[] frame = new double[edited.getVariableNames().size()];
+		for (int i = 0; i < 5; i++) {
+			for (int slot = 0; slot < frame.length; slot++) {
+				frame[slot] = random.nextDouble(-10, 10);
+			}
+			if (Double.doubleToLongBits(edited.eval(frame.clone())) != Double.doubleToLongBits(full.eval(frame.clone()))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Checks that timeouts stop long evaluations soon after their deadline, and that other limits are reported. */
+	private void limits() {
+		long timeout = 50;
+		ResourceLimits limits = new ResourceLimits();
+		limits.setTimeout(Duration.ofMillis(timeout));
+		StringBuilder text = new StringBuilder("1");
+		for (int i = 0; i < 5_000; i++) {
+			text.append(" + ").append(i % 9).append(" * x");
+		}
+		FunctionExpression legacy = new FunctionExpression(text.toString());
+		legacy.withVariable("x", 2);
+		legacy.setLimits(limits);
+		expectDeadline("legacy evaluation", () -> legacy.eval(), timeout);
+		ExpressionCompiler compiler = new ExpressionCompiler(false);
+		compiler.setLimits(limits);
+		compiler.setPromotionThreshold(0);
+		CompiledExpression compiled = compiler.compile(text.toString());
+		int count = 1_000_000;
+		double[][] frames = new double[count][];
+		Arrays.fill(frames, new double[] { 2 });
+		expectDeadline("batch evaluation", () -> compiled.evalBatch(frames, new double[count], count), timeout);
+		ResourceLimits tokens = new ResourceLimits();
+		tokens.setMaxTokens(50);
+		compiler.setLimits(tokens);
+		List<ValidationResult> results = compiler.validateAll(Arrays.asList("x + 1", text.toString(), "x +"));
+		if (!results.get(0).isValid()
+				|| results.get(1).isValid() || results.get(1).getDiagnostic().getKind() != Diagnostic.Kind.RESOURCE_LIMIT
+				|| results.get(2).isValid() || results.get(2).getDiagnostic().getKind() == Diagnostic.Kind.RESOURCE_LIMIT) {
+			fail("validation of a batch exceeding the limits: " + results);
+		}
+	}
+
+	private void expectDeadline(String name, Runnable task, long timeout) {
+		long start = System.nanoTime();
+		try {
+			task.run();
+			fail(name + " ended before its deadline");
+		} catch (ResourceLimitException e) {
+			long elapsed = (System.nanoTime() - start) / 1_000_000;
+			if (e.getLimit() != ResourceLimitException.Limit.DEADLINE) {
+				fail(name + ": " + e.getLimit() + " instead of the deadline");
+			} else if (elapsed > 10 * timeout) {
+				fail(name + " stopped " + elapsed + " ms after its start, for a timeout of " + timeout + " ms");
+			}
+		}
+	}
+
+	private void fail(String message) {
+		if (++failures <= MAX_REPORTED) {
+			System.out.println(message);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.parser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Regression check that long and deeply nested expressions neither overflow
+ * the stack of a thread of default size, which runs it, nor change values:
+ * chains of thousands of operations are compiled, canonicalized, solved and
+ * evaluated with each tier, and nesting beyond
+ * {@link ResourceLimits#DEFAULT_MAX_DEPTH} is reported by a
+ * {@link ResourceLimitException}.
+ * <br/>
+ * Usage: {@code StackDepthTest [terms]}. Exits with status 1 on failure.
+ */
+public class StackDepthTest {
+
+	private int failures;
+
+	public static void main(String[] args) {
+		int terms = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+		StackDepthTest test = new StackDepthTest();
+		test.chains(terms);
+		test.nesting(terms);
+		System.out.println(test.failures == 0 ? "OK" : test.failures + " failures");
+		if (test.failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/** Checks chains of the specified number of operands against plain Java arithmetic. */
+	private void chains(int terms) {
+		double x = 1.5;
+		StringBuilder sum = new StringBuilder("x"), mixed = new StringBuilder("x"), quotient = new StringBuilder("x");
+		StringBuilder power = new StringBuilder("x");
+		double sumValue = x, mixedValue = x, quotientValue = x, powerValue = x;
+		for (int i = 1; i < terms; i++) {
+			sum.append(i % 3 == 0 ? "-x" : "+x");
+			sumValue = i % 3 == 0 ? sumValue - x : sumValue + x;
+			mixed.append("+x*").append(i % 7);
+			mixedValue += x * (i % 7);
+			quotient.append(i % 2 == 0 ? "/x" : "*x");
+			quotientValue = i % 2 == 0 ? quotientValue / x : quotientValue * x;
+			power.append("^1");
+			powerValue = Math.pow(powerValue, 1);
+		}
+		for (boolean flattening : new boolean[] { true, false }) {
+			ExpressionCompiler compiler = new ExpressionCompiler(false);
+			compiler.setFlatteningChains(flattening);
+			compiler.setPromotionThreshold(0);
+			// Flattened sums are compensated, thus rounded differently
+			check(compiler, sum.toString(), x, flattening ? Double.NaN : sumValue);
+			check(compiler, mixed.toString(), x, flattening ? Double.NaN : mixedValue);
+			check(compiler, quotient.toString(), x, quotientValue);
+			check(compiler, power.toString(), x, powerValue);
+		}
+		ExpressionCompiler compiler = new ExpressionCompiler();
+		String spaced = "(" + sum.toString().replace("+", " + ") + ")";
+		if (!compiler.canonicalize(sum.toString()).equals(compiler.canonicalize(spaced))) {
+			fail("canonical form of a long sum");
+		}
+		CompiledExpression f = compiler.compile(sum + "-1");
+		SolverResult root = new Solver(f, "x").newton(0.5);
+		if (!root.isConverged()) {
+			fail("newton over a long sum: " + root);
+		}
+		compiler.compile(sum.toString()).explain();
+		if (!compiler.validate(power.toString()).isValid()) {
+			fail("validation of a long chain");
+		}
+	}
+
+	/** Checks that nesting is evaluated up to the default maximal depth, and reported beyond. */
+	private void nesting(int terms) {
+		ExpressionCompiler compiler = new ExpressionCompiler(false);
+		compiler.setPromotionThreshold(0);
+		int depth = ResourceLimits.DEFAULT_MAX_DEPTH - 1;
+		check(compiler, nested("(x+", ")", depth), 1, depth + 1);
+		check(compiler, nested("sqrt(", ")", depth), 1, 1);
+		for (String expression : new String[] { nested("(", ")", terms), nested("(x+", ")", terms),
+				nested("x^(", ")", terms), nested("sin(", ")", terms) }) {
+			try {
+				compiler.compile(expression);
+				fail("compiled nesting deeper than the default maximal depth");
+			} catch (ResourceLimitException e) {
+				// Expected
+			}
+			ValidationResult result = compiler.validate(expression);
+			if (result.isValid() || result.getDiagnostic().getKind() != Diagnostic.Kind.RESOURCE_LIMIT) {
+				fail("validated nesting deeper than the default maximal depth: " + result);
+			}
+		}
+	}
+
+	private static String nested(String open, String close, int depth) {
+		return open.repeat(depth) + "x" + close.repeat(depth);
+	}
+
+	/** Evaluates an expression of {@code x} with each tier, expecting a value unless {@code NaN}. */
+	private void check(ExpressionCompiler compiler, String expression, double x, double expected) {
+		String name = expression.length() > 40 ? expression.substring(0, 40) + "..." : expression;
+		try {
+			CompiledExpression compiled = compiler.compile(expression);
+			double[] frame = new double[compiled.frameSize()];
+			frame[0] = x;
+			double tree = compiled.eval(frame.clone());
+			double postfix = compiled.toPostfix().eval(frame.clone());
+			double generated;
+			try {
+				generated = BytecodeCompiler.compile(compiled.getRoot()).eval(frame.clone());
+			} catch (IllegalStateException e) {
+				// Too large for a method, kept by the other tiers
+				generated = tree;
+			}
+			Map<String, String> formulas = new LinkedHashMap<>();
+			formulas.put("f", expression);
+			double[] results = new double[1];
+			compiler.compileAll(formulas).eval(frame.clone(), results);
+			long bits = Double.doubleToLongBits(tree);
+			if (!Double.isNaN(expected) && bits != Double.doubleToLongBits(expected)) {
+				fail(name + ": " + tree + " instead of " + expected);
+			}
+			if (bits != Double.doubleToLongBits(postfix) || bits != Double.doubleToLongBits(generated)
+					|| bits != Double.doubleToLongBits(results[0])) {
+				fail(name + ": tree " + tree + ", postfix " + postfix + ", generated " + generated + ", fused "
+						+ results[0]);
+			}
+		} catch (StackOverflowError e) {
+			fail(name + ": stack overflow");
+		}
+	}
+
+	private void fail(String message) {
+		failures++;
+		System.out.println(message);
+	}
+}
@@ -0,0 +1,187 @@
+package com.parser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Regression check that the evaluation tiers of a compiled expression agree
+ * bit for bit: the tree interpreter, the postfix program, the generated code
+ * and the fused program. Random expressions mix integral sub trees, whose
+ * exact {@code long} evaluation falls back to {@code double} arithmetic on
+ * non integer inputs, polynomials in Horner form, flattened chains, locals
+ * and aggregates; inputs mix integers, fractions, negative zero and non
+ * finite values. The sign of zero is also checked against plain Java
+ * arithmetic.
+ * <br/>
+ * Usage: {@code TierEquivalenceTest [expressions] [seed]}. Exits with status
+ * 1 on the first mismatches.
+ */
+public class TierEquivalenceTest {
+
+	private static final String[] VARIABLES = { "x", "y", "z", "n" };
+	private static final String[] OPERATORS = { "+", "-", "*", "/", "%", "^" };
+	private static final String[] FUNCTIONS = { "sin", "cos", "sqrt", "ln" };
+	private static final String[] AGGREGATES = { "sum", "avg", "min", "max", "prod" };
+	private static final int FRAMES = 20;
+	private static final int MAX_REPORTED = 10;
+
+	private final SplittableRandom random;
+	private int locals;
+	private int failures;
+
+	private TierEquivalenceTest(long seed) {
+		this.random = new SplittableRandom(seed);
+	}
+
+	public static void main(String[] args) {
+		int expressions = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+		TierEquivalenceTest test = new TierEquivalenceTest(seed);
+		test.checkNegativeZero();
+		test.check("x+x-5+n+y-z-8-10", new double[] { 1.5, 2.25, -0.1, 7 });
+		test.check("let q = sin(-n) in (-y^2+q)%cos(sqrt(x))%-x", new double[] { 2.5, 0.3, 1.75 });
+		for (int i = 0; i < expressions; i++) {
+			String expression = test.expression(4);
+			for (int j = 0; j < FRAMES; j++) {
+				test.check(expression, test.frame());
+			}
+		}
+		System.out.println(test.failures == 0 ? "OK" : test.failures + " mismatches");
+		if (test.failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/** Checks that integral sub trees keep the sign of a negative zero, like plain Java. */
+	private void checkNegativeZero() {
+		double x = -0.0, y = 3;
+		expect("x*1", x * 1, x, y);
+		expect("x*2", x * 2, x, y);
+		expect("x*y", x * y, x, y);
+		expect("1/(x*1)", 1 / (x * 1), x, y);
+		expect("x*y + 0*y", x * y + 0 * y, x, y);
+	}
+
+	private void expect(String expression, double expected, double x, double y) {
+		ExpressionCompiler compiler = compiler();
+		CompiledExpression compiled = compiler.compile(expression);
+		List<String> names = compiled.getVariableNames();
+		double[] frame = new double[names.size()];
+		for (int i = 0; i < frame.length; i++) {
+			frame[i] = names.get(i).equals("x") ? x : y;
+		}
+		double actual = compiled.eval(frame);
+		if (Double.doubleToLongBits(actual) != Double.doubleToLongBits(expected)) {
+			fail(expression + ": " + actual + " instead of " + expected);
+		}
+		check(expression, frame);
+	}
+
+	/** Evaluates an expression with each tier, the values being given to its variables in order of first use. */
+	private void check(String expression, double[] values) {
+		ExpressionCompiler compiler = compiler();
+		CompiledExpression compiled = compiler.compile(expression);
+		int variables = compiled.getVariableNames().size();
+		double[] frame = new double[compiled.frameSize()];
+		System.arraycopy(values, 0, frame, 0, variables);
+		double tree = compiled.eval(frame.clone());
+		double postfix = compiled.toPostfix().eval(frame.clone());
+		double generated = BytecodeCompiler.compile(compiled.getRoot()).eval(frame.clone());
+		Map<String, String> formulas = new LinkedHashMap<>();
+		formulas.put("f", expression);
+		double[] results = new double[1];
+		compiler.compileAll(formulas).eval(frame.clone(), results);
+		double fused = results[0];
+		long bits = Double.doubleToLongBits(tree);
+		if (bits != Double.doubleToLongBits(postfix) || bits != Double.doubleToLongBits(generated)
+				|| bits != Double.doubleToLongBits(fused)) {
+			StringBuilder sb = new StringBuilder(expression).append(" with");
+			for (int i = 0; i < variables; i++) {
+				sb.append(' ').append(compiled.getVariableNames().get(i)).append('=').append(values[i]);
+			}
+			fail(sb.append(": tree ").append(tree).append(", postfix ").append(postfix).append(", generated ")
+					.append(generated).append(", fused ").append(fused).toString());
+		}
+	}
+
+	private void fail(String message) {
+		if (failures++ < MAX_REPORTED) {
+			System.out.println(message);
+		}
+	}
+
+	private static ExpressionCompiler compiler() {
+		ExpressionCompiler compiler = new ExpressionCompiler(false);
+		compiler.setPromotionThreshold(0);
+		return compiler;
+	}
+
+	private double[] frame() {
+		double[] frame = new double[VARIABLES.length];
+		for (int i = 0; i < frame.length; i++) {
+			switch (random.nextInt(8)) {
+			case 0:
+				frame[i] = -0.0;
+				break;
+			case 1:
+				frame[i] = random.nextBoolean() ? Double.NaN : Double.POSITIVE_INFINITY;
+				break;
+			case 2:
+			case 3:
+			case 4:
+				frame[i] = random.nextInt(-20, 21);
+				break;
+			default:
+				frame[i] = random.nextDouble(-20, 20);
+			}
+		}
+		return frame;
+	}
+
+	/** Generates an expression of the specified depth, over the variables and the locals in scope. */
+	private String expression(int depth) {
+		int choice = depth == 0 ? random.nextInt(2) : random.nextInt(9);
+		switch (choice) {
+		case 0:
+			return random.nextInt(3) == 0 ? random.nextInt(1, 10) + "." + random.nextInt(10)
+					: Integer.toString(random.nextInt(0, 12));
+		case 1:
+			if (locals > 0 && random.nextInt(3) == 0) {
+				return "l" + (char) ('a' + random.nextInt(locals));
+			}
+			return VARIABLES[random.nextInt(VARIABLES.length)];
+		case 2:
+		case 3:
+		case 4:
+			String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+			String right = operator.equals("^") ? Integer.toString(random.nextInt(0, 5)) : expression(depth - 1);
+			return "(" + expression(depth - 1) + operator + right + ")";
+		case 5:
+			return FUNCTIONS[random.nextInt(FUNCTIONS.length)] + "(" + expression(depth - 1) + ")";
+		case 6:
+			List<String> arguments = new ArrayList<>();
+			for (int i = random.nextInt(1, 5); i > 0; i--) {
+				arguments.add(expression(depth - 1));
+			}
+			return AGGREGATES[random.nextInt(AGGREGATES.length)] + "(" + String.join(", ", arguments) + ")";
+		case 7:
+			// A chain long enough to be flattened
+			StringBuilder chain = new StringBuilder("(").append(expression(depth - 1));
+			String[] signs = random.nextBoolean() ? new String[] { "+", "-" } : new String[] { "*" };
+			for (int i = random.nextInt(ExpressionCompiler.MIN_CHAIN, 2 * ExpressionCompiler.MIN_CHAIN); i > 0; i--) {
+				chain.append(signs[random.nextInt(signs.length)]).append(expression(Math.min(1, depth - 1)));
+			}
+			return chain.append(')').toString();
+		default:
+			String value = expression(depth - 1);
+			String name = "l" + (char) ('a' + locals);
+			locals++;
+			String body = expression(depth - 1);
+			locals--;
+			return "(let " + name + " = " + value + " in " + body + ")";
+		}
+	}
+}
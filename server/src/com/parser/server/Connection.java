@@ -0,0 +1,162 @@
+package com.parser.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * One client connection of an {@link EvaluationServer}. The calling thread
+ * reads the requests while a second virtual thread writes the responses in
+ * request order.
+ */
+final class Connection {
+
+	private static final CompletableFuture<String> END = CompletableFuture.completedFuture(null);
+
+	private final EvaluationServer server;
+	private final Socket socket;
+	private final BlockingQueue<CompletableFuture<String>> responses;
+	private boolean lengthPrefixed;
+
+	Connection(EvaluationServer server, Socket socket) {
+		this.server = server;
+		this.socket = socket;
+		this.responses = new ArrayBlockingQueue<>(server.getMaxPipelined());
+	}
+
+	void serve() {
+		Thread writer = null;
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			in.mark(1);
+			int first = in.read();
+			if (first < 0) {
+				return;
+			}
+			in.reset();
+			lengthPrefixed = first == 0;
+			writer = Thread.ofVirtual().start(this::write);
+			String request;
+			while ((request = lengthPrefixed ? readFrame(in) : readLine(in)) != null) {
+				if (request.isBlank()) {
+					continue;
+				}
+				// Blocks while the server is saturated
+				server.getInFlight().acquire();
+				boolean queued = false;
+				try {
+					responses.put(server.handle(request));
+					queued = true;
+				} finally {
+					if (!queued) {
+						server.getInFlight().release();
+					}
+				}
+			}
+		} catch (IOException e) {
+			// Peer gone or request too long
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (writer != null) {
+				try {
+					responses.put(END);
+					writer.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			EvaluationServer.closeQuietly(socket);
+		}
+	}
+
+	private void write() {
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			CompletableFuture<String> response;
+			while ((response = responses.take()) != END) {
+				String text;
+				try {
+					text = response.join();
+				} catch (CompletionException | CancellationException e) {
+					text = EvaluationServer.error(String.valueOf(e.getCause() == null ? e : e.getCause()));
+				} finally {
+					server.getInFlight().release();
+				}
+				byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+				if (lengthPrefixed) {
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				} else {
+					out.write(bytes);
+					out.write('\n');
+				}
+				if (responses.isEmpty()) {
+					out.flush();
+				}
+			}
+			out.flush();
+		} catch (IOException e) {
+			// Peer gone: unblock the reader
+			EvaluationServer.closeQuietly(socket);
+			drain();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			drain();
+		}
+	}
+
+	/** Releases the permits of the responses which won't be written. */
+	private void drain() {
+		CompletableFuture<String> response;
+		while ((response = responses.poll()) != null) {
+			if (response != END) {
+				server.getInFlight().release();
+			}
+		}
+	}
+
+	private String readFrame(DataInputStream in) throws IOException {
+		int length;
+		try {
+			length = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		if (length < 0 || length > server.getMaxRequestLength()) {
+			throw new IOException("Request too long.");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+		int b;
+		while ((b = in.read()) >= 0 && b != '\n') {
+			if (line.size() >= server.getMaxRequestLength()) {
+				throw new IOException("Request too long.");
+			}
+			line.write(b);
+		}
+		if (b < 0 && line.size() == 0) {
+			return null;
+		}
+		String request = line.toString(StandardCharsets.UTF_8);
+		return request.endsWith("\r") ? request.substring(0, request.length() - 1) : request;
+	}
+}
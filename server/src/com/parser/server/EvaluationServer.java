@@ -0,0 +1,347 @@
+package com.parser.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.parser.CompiledExpression;
+import com.parser.Expression;
+import com.parser.ExpressionCompiler;
+import com.parser.ParserException;
+
+/**
+ * Serves expression evaluation on a local socket, to be usable from non JVM
+ * processes. Each connection is served by virtual threads; evaluations of the
+ * same formula, from any connection, are grouped into batches.
+ * <br/>
+ * A connection either sends newline delimited requests, or length prefixed
+ * requests: a 4 bytes big endian length followed by the UTF-8 request. The
+ * framing is detected from the first byte, a length prefixed connection
+ * starting with {@code 0}. Responses use the framing of the connection and
+ * come in the order of the requests. The requests are:
+ *
+ * <pre>
+ * DEFINE &lt;id&gt; &lt;formula&gt;                 answered by OK
+ * &lt;formula&gt;[;&lt;name&gt;=&lt;value&gt;]*          answered by the value
+ * $&lt;id&gt;[;&lt;name&gt;=&lt;value&gt;]*             answered by the value
+ * </pre>
+ *
+ * Failing requests are answered by {@code ERROR <message>}. An evaluation
+ * failing as a batch, e.g. out of the resource limits of the compiler,
+ * fails all the requests of the batch.
+ * <br/>
+ * Backpressure: a connection stops being read while it has
+ * {@link #getMaxPipelined()} requests waiting for response, or while the
+ * server has {@link #getMaxInFlight()} requests in flight. Connections beyond
+ * {@link #getMaxConnections()} are refused.
+ *
+ * @since 1.1
+ */
+public class EvaluationServer implements Closeable {
+
+	static final String OK = "OK", ERROR = "ERROR", DEFINE = "DEFINE";
+
+	private final ExpressionCompiler compiler;
+	private InetAddress bindAddress = InetAddress.getLoopbackAddress();
+	private int port = 0;
+	private int maxConnections = 1024;
+	private int maxInFlight = 65536;
+	private int maxPipelined = 1024;
+	private int maxBatch = 256;
+	private int maxRequestLength = 64 * 1024;
+	private int maxCachedFormulas = 10_000;
+
+	private final ConcurrentHashMap<String, FormulaBatcher> byId = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, FormulaBatcher> byText = new ConcurrentHashMap<>();
+	private final LongAdder batches = new LongAdder(), evaluations = new LongAdder(), refused = new LongAdder();
+	private ExecutorService executor;
+	private ServerSocket serverSocket;
+	private Semaphore connections, inFlight;
+
+	/**
+	 * Creates a server.
+	 *
+	 * @param compiler the compiler of the formulas received by the server.
+	 */
+	public EvaluationServer(ExpressionCompiler compiler) {
+		this.compiler = compiler;
+	}
+
+	/** Alias of {@link #EvaluationServer(ExpressionCompiler)} using a default compiler. */
+	public EvaluationServer() {
+		this(new ExpressionCompiler());
+	}
+
+	/**
+	 * Binds the server socket and starts accepting connections.
+	 *
+	 * @throws IOException if the socket can't be bound.
+	 */
+	public synchronized void start() throws IOException {
+		if (serverSocket != null) {
+			throw new IllegalStateException("Server already started.");
+		}
+		connections = new Semaphore(maxConnections);
+		inFlight = new Semaphore(maxInFlight);
+		executor = Executors.newVirtualThreadPerTaskExecutor();
+		serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress(bindAddress, port));
+		executor.execute(this::accept);
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				// Closed
+				return;
+			}
+			if (!connections.tryAcquire()) {
+				refused.increment();
+				closeQuietly(socket);
+				continue;
+			}
+			executor.execute(() -> {
+				try {
+					new Connection(this, socket).serve();
+				} finally {
+					connections.release();
+				}
+			});
+		}
+	}
+
+	static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/** Stops accepting connections and releases the threads of the server. */
+	@Override
+	public synchronized void close() {
+		if (serverSocket != null) {
+			closeQuietly(serverSocket);
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Handles one request. Evaluations are completed asynchronously by the batch
+	 * of their formula.
+	 *
+	 * @param request the text of the request.
+	 * @return the future completed with the response.
+	 */
+	CompletableFuture<String> handle(String request) {
+		CompletableFuture<String> result = new CompletableFuture<>();
+		try {
+			if (request.startsWith(DEFINE + " ")) {
+				define(request.substring(DEFINE.length() + 1).trim());
+				result.complete(OK);
+				return result;
+			}
+			String[] parts = request.split(";");
+			FormulaBatcher batcher = batcher(parts[0].trim());
+			batcher.submit(frame(batcher.getExpression(), parts), result);
+		} catch (ParserException | IllegalArgumentException e) {
+			result.complete(error(e.getMessage()));
+		} catch (RuntimeException e) {
+			// Answered too, so that the connection goes on and its permit is released
+			result.complete(error(e.toString()));
+		}
+		return result;
+	}
+
+	private void define(String definition) {
+		int space = definition.indexOf(' ');
+		if (space < 0) {
+			throw new IllegalArgumentException("Expected: " + DEFINE + " <id> <formula>");
+		}
+		String id = definition.substring(0, space);
+		byId.put(id, newBatcher(definition.substring(space + 1)));
+	}
+
+	private FormulaBatcher batcher(String formula) {
+		if (formula.startsWith("$")) {
+			FormulaBatcher batcher = byId.get(formula.substring(1));
+			if (batcher == null) {
+				throw new IllegalArgumentException("Unknown formula '" + formula + "'");
+			}
+			return batcher;
+		}
+		FormulaBatcher batcher = byText.get(formula);
+		if (batcher == null) {
+			batcher = newBatcher(formula);
+			if (byText.size() < maxCachedFormulas) {
+				FormulaBatcher previous = byText.putIfAbsent(formula, batcher);
+				if (previous != null) {
+					batcher = previous;
+				}
+			}
+		}
+		return batcher;
+	}
+
+	private FormulaBatcher newBatcher(String formula) {
+		CompiledExpression expression = compiler.compile(formula);
+		return new FormulaBatcher(expression, maxBatch, executor, batches, evaluations);
+	}
+
+	private static double[] frame(CompiledExpression expression, String[] parts) {
+		int size = expression.getVariableNames().size();
+		double[] frame = new double[size];
+		boolean[] bound = new boolean[size];
+		for (int i = 1; i < parts.length; i++) {
+			String binding = parts[i];
+			int equal = binding.indexOf('=');
+			if (equal < 0) {
+				throw new IllegalArgumentException("Expected <name>=<value> instead of '" + binding.trim() + "'");
+			}
+			String name = binding.substring(0, equal).trim();
+			if (!Expression.isUsableAsVariableName(name)) {
+				throw new IllegalArgumentException("Invalid variable definition !");
+			}
+			int slot = expression.slotOf(name);
+			if (slot >= 0) {
+				frame[slot] = Double.parseDouble(binding.substring(equal + 1).trim());
+				bound[slot] = true;
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			if (!bound[i]) {
+				throw new IllegalArgumentException(
+						"Impossible to find the value of variable '" + expression.getVariableNames().get(i) + "'");
+			}
+		}
+		return frame;
+	}
+
+	static String error(String message) {
+		return ERROR + " " + String.valueOf(message).replace('\n', ' ');
+	}
+
+	Semaphore getInFlight() {
+		return inFlight;
+	}
+
+	/** Gets the local port of the server, once started. */
+	public int getPort() {
+		return serverSocket == null ? port : serverSocket.getLocalPort();
+	}
+
+	/** Sets the port to bind, {@code 0} for an ephemeral port. */
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public InetAddress getBindAddress() {
+		return bindAddress;
+	}
+
+	/** Sets the address to bind, the loopback address by default. */
+	public void setBindAddress(InetAddress bindAddress) {
+		this.bindAddress = bindAddress;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	/** Gets the max number of requests waiting for response, over all connections. */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	/** Gets the max number of requests waiting for response, per connection. */
+	public int getMaxPipelined() {
+		return maxPipelined;
+	}
+
+	public void setMaxPipelined(int maxPipelined) {
+		this.maxPipelined = maxPipelined;
+	}
+
+	/** Gets the max number of evaluations grouped into one batch. */
+	public int getMaxBatch() {
+		return maxBatch;
+	}
+
+	public void setMaxBatch(int maxBatch) {
+		this.maxBatch = maxBatch;
+	}
+
+	/** Gets the max length, in bytes, of a request. Longer requests close the connection. */
+	public int getMaxRequestLength() {
+		return maxRequestLength;
+	}
+
+	public void setMaxRequestLength(int maxRequestLength) {
+		this.maxRequestLength = maxRequestLength;
+	}
+
+	/** Gets the max number of formulas sent as text kept compiled. */
+	public int getMaxCachedFormulas() {
+		return maxCachedFormulas;
+	}
+
+	public void setMaxCachedFormulas(int maxCachedFormulas) {
+		this.maxCachedFormulas = maxCachedFormulas;
+	}
+
+	/** Gets the number of batches evaluated since start. */
+	public long getBatchCount() {
+		return batches.sum();
+	}
+
+	/** Gets the number of evaluations done since start. */
+	public long getEvaluationCount() {
+		return evaluations.sum();
+	}
+
+	/** Gets the number of connections refused since start. */
+	public long getRefusedConnectionCount() {
+		return refused.sum();
+	}
+
+	/**
+	 * Starts a server.
+	 *
+	 * @param args optionally, the port to bind.
+	 * @throws IOException          if the socket can't be bound.
+	 * @throws InterruptedException if interrupted while serving.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		EvaluationServer server = new EvaluationServer();
+		if (args.length > 0) {
+			server.setPort(Integer.parseInt(args[0]));
+		}
+		server.start();
+		System.out.println("Listening on " + server.getBindAddress().getHostAddress() + ":" + server.getPort());
+		System.out.println("Framings: newline delimited or 4 bytes length prefixed, requests: "
+				+ Arrays.asList(DEFINE + " <id> <formula>", "<formula>[;<name>=<value>]*", "$<id>[;<name>=<value>]*"));
+		// The threads of the server are virtual, hence daemon
+		Thread.currentThread().join();
+	}
+}
@@ -0,0 +1,119 @@
+package com.parser.server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.parser.CompiledExpression;
+
+/**
+ * Groups the pending evaluations of one formula into batches. A single drain
+ * task runs at a time per formula: requests arriving while a batch is being
+ * evaluated are queued and evaluated together by the next batch, so the batch
+ * size grows with the load without delaying requests when idle.
+ * <br/>
+ * A batch whose evaluation fails, e.g. out of its budget, fails as a whole:
+ * evaluating its frames again would escape the budget, and tick the window
+ * functions of the formula twice.
+ */
+final class FormulaBatcher {
+
+	private static final class Pending {
+		final double[] frame;
+		final CompletableFuture<String> result;
+
+		Pending(double[] frame, CompletableFuture<String> result) {
+			this.frame = frame;
+			this.result = result;
+		}
+	}
+
+	private final CompiledExpression expression;
+	private final int maxBatch;
+	private final Executor executor;
+	private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean draining = new AtomicBoolean();
+	private final LongAdder batches, evaluations;
+
+	FormulaBatcher(CompiledExpression expression, int maxBatch, Executor executor, LongAdder batches,
+			LongAdder evaluations) {
+		this.expression = expression;
+		this.maxBatch = maxBatch;
+		this.executor = executor;
+		this.batches = batches;
+		this.evaluations = evaluations;
+	}
+
+	CompiledExpression getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Queues an evaluation.
+	 * 
+	 * @param frame  the values of the variables, indexed by slot.
+	 * @param result the future completed with the formatted result.
+	 */
+	void submit(double[] frame, CompletableFuture<String> result) {
+		queue.add(new Pending(frame, result));
+		if (draining.compareAndSet(false, true)) {
+			executor.execute(this::drain);
+		}
+	}
+
+	private void drain() {
+		double[][] frames = new double[maxBatch][];
+		double[] results = new double[maxBatch];
+		Pending[] batch = new Pending[maxBatch];
+		do {
+			try {
+				int count;
+				while ((count = poll(batch, frames)) > 0) {
+					evaluate(batch, frames, results, count);
+				}
+			} finally {
+				// Even on error, so that the next request drains the queue
+				draining.set(false);
+			}
+			// Requests queued after the last poll but before the reset
+		} while (!queue.isEmpty() && draining.compareAndSet(false, true));
+	}
+
+	private int poll(Pending[] batch, double[][] frames) {
+		int count = 0;
+		Pending pending;
+		while (count < maxBatch && (pending = queue.poll()) != null) {
+			batch[count] = pending;
+			frames[count++] = pending.frame;
+		}
+		return count;
+	}
+
+	private void evaluate(Pending[] batch, double[][] frames, double[] results, int count) {
+		batches.increment();
+		evaluations.add(count);
+		try {
+			expression.evalBatch(frames, results, count);
+			for (int i = 0; i < count; i++) {
+				batch[i].result.complete(Double.toString(results[i]));
+			}
+		} catch (RuntimeException e) {
+			String error = EvaluationServer.error(e.getMessage());
+			for (int i = 0; i < count; i++) {
+				batch[i].result.complete(error);
+			}
+		} catch (Error e) {
+			for (int i = 0; i < count; i++) {
+				batch[i].result.completeExceptionally(e);
+			}
+			throw e;
+		} finally {
+			for (int i = 0; i < count; i++) {
+				batch[i] = null;
+				frames[i] = null;
+			}
+		}
+	}
+}
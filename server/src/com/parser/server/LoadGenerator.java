@@ -0,0 +1,174 @@
+package com.parser.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Benchmark of an {@link EvaluationServer} on loopback. Each client connection
+ * pipelines newline delimited requests over a few formulas, then the latency
+ * percentiles and the throughput are reported.
+ * <br/>
+ * Usage: {@code LoadGenerator [connections [requests per connection
+ * [pipeline depth [host port]]]]}. Without host and port, a server is started
+ * in process.
+ *
+ * @since 1.1
+ */
+public class LoadGenerator {
+
+	private static final String[] FORMULAS = { "a * x ^ 2 + b * x + c", "sqrt(x ^ 2 + y ^ 2)",
+			"(n * (n + 1) / 2) % m", "ln(1 + r) * t - sin(x)" };
+
+	public static void main(String[] args) throws Exception {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+		int depth = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+		EvaluationServer server = null;
+		String host;
+		int port;
+		if (args.length > 4) {
+			host = args[3];
+			port = Integer.parseInt(args[4]);
+		} else {
+			server = new EvaluationServer();
+			server.start();
+			host = InetAddress.getLoopbackAddress().getHostAddress();
+			port = server.getPort();
+		}
+		try {
+			define(host, port);
+			// Warm up, then measure
+			run(host, port, connections, requests / 4, depth);
+			long batches = server == null ? 0 : server.getBatchCount();
+			long evaluations = server == null ? 0 : server.getEvaluationCount();
+			long start = System.nanoTime();
+			long[] latencies = run(host, port, connections, requests, depth);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			Arrays.sort(latencies);
+			System.out.printf("connections=%d requests=%d pipeline=%d%n", connections, latencies.length, depth);
+			System.out.printf("throughput: %.0f requests/s%n", latencies.length / seconds);
+			System.out.printf("latency p50: %.1f us, p99: %.1f us, max: %.1f us%n", percentile(latencies, 0.50) / 1e3,
+					percentile(latencies, 0.99) / 1e3, latencies[latencies.length - 1] / 1e3);
+			if (server != null) {
+				batches = server.getBatchCount() - batches;
+				evaluations = server.getEvaluationCount() - evaluations;
+				System.out.printf("batches: %d, mean batch size: %.1f%n", batches,
+						batches == 0 ? 0.0 : (double) evaluations / batches);
+			}
+		} finally {
+			if (server != null) {
+				server.close();
+			}
+		}
+	}
+
+	private static void define(String host, int port) throws IOException {
+		try (Socket socket = new Socket(host, port)) {
+			OutputStream out = socket.getOutputStream();
+			BufferedReader in = new BufferedReader(
+					new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			for (int i = 0; i < FORMULAS.length; i++) {
+				out.write((EvaluationServer.DEFINE + " f" + i + " " + FORMULAS[i] + "\n").getBytes(StandardCharsets.UTF_8));
+				out.flush();
+				String response = in.readLine();
+				if (!EvaluationServer.OK.equals(response)) {
+					throw new IOException("Definition of '" + FORMULAS[i] + "' fails: " + response);
+				}
+			}
+		}
+	}
+
+	private static long[] run(String host, int port, int connections, int requests, int depth) throws Exception {
+		long[][] latencies = new long[connections][];
+		List<Thread> threads = new ArrayList<>();
+		for (int c = 0; c < connections; c++) {
+			int client = c;
+			threads.add(Thread.ofVirtual().start(() -> {
+				try {
+					latencies[client] = client(host, port, requests, depth, client);
+				} catch (IOException | InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return Arrays.stream(latencies).flatMapToLong(Arrays::stream).toArray();
+	}
+
+	private static long[] client(String host, int port, int requests, int depth, int seed)
+			throws IOException, InterruptedException {
+		long[] sent = new long[requests], latencies = new long[requests];
+		Semaphore window = new Semaphore(depth);
+		try (Socket socket = new Socket(host, port)) {
+			socket.setTcpNoDelay(true);
+			Thread reader = Thread.ofVirtual().start(() -> {
+				try {
+					BufferedReader in = new BufferedReader(
+							new InputStreamReader(new BufferedInputStream(socket.getInputStream()), StandardCharsets.UTF_8));
+					for (int i = 0; i < requests; i++) {
+						String response = in.readLine();
+						latencies[i] = System.nanoTime() - sent[i];
+						window.release();
+						if (response == null || response.startsWith(EvaluationServer.ERROR)) {
+							throw new IllegalStateException("Request " + i + " fails: " + response);
+						}
+					}
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			SplittableRandom random = new SplittableRandom(seed);
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+			for (int i = 0; i < requests; i++) {
+				byte[] request = request(random).getBytes(StandardCharsets.UTF_8);
+				window.acquire();
+				sent[i] = System.nanoTime();
+				out.write(request);
+				out.flush();
+			}
+			reader.join();
+		}
+		return latencies;
+	}
+
+	private static String request(SplittableRandom random) {
+		int formula = random.nextInt(FORMULAS.length);
+		StringBuilder sb = new StringBuilder("$f").append(formula);
+		switch (formula) {
+		case 0:
+			sb.append(";a=").append(random.nextDouble()).append(";b=").append(random.nextDouble()).append(";c=")
+					.append(random.nextDouble());
+			break;
+		case 2:
+			sb.append(";n=").append(random.nextInt(1_000_000)).append(";m=").append(1 + random.nextInt(1000));
+			break;
+		case 3:
+			sb.append(";r=").append(random.nextDouble()).append(";t=").append(random.nextInt(30));
+			break;
+		default:
+			break;
+		}
+		if (formula != 2) {
+			sb.append(";x=").append(random.nextDouble() * 100).append(";y=").append(random.nextDouble() * 100);
+		}
+		return sb.append('\n').toString();
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+	}
+}